@@ -0,0 +1,321 @@
+package algorithms;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.Prefs;
+
+/**
+ * Worker threads and scratch buffers shared by RankFilters2,
+ * GaussianBlurForcedRadius and WeightedMeanFilter so that calling them over
+ * and over (e.g., on every image of a pipeline) doesn't create threads or
+ * allocate line buffers on every call.
+ *
+ * The default executor keeps idle worker threads alive for a while and
+ * starts a new one only if all are busy. Every task handed to it is started
+ * right away (nothing is queued), which RankFilters2 needs since its threads
+ * wait for each other. A replacement executor (setExecutor) must behave the
+ * same way.
+ *
+ * Buffers are kept per thread, keyed by a slot (what the buffer is for), a
+ * width and a kernel radius, and only the most recently used MAX_BUFFERS per
+ * thread are kept.
+ *
+ * @author Jay Warrick
+ */
+public class FilterPool {
+
+	// Buffer slots
+	public static final int RANK_CACHE = 0, RANK_VALUES = 1, RANK_MEDIAN_ABOVE = 2, RANK_MEDIAN_BELOW = 3, GAUSS_INPUT = 4, GAUSS_OUTPUT = 5, RANK_HISTOGRAM = 6, RANK_COARSE_HISTOGRAM = 7;
+
+	// Number of buffers kept per thread
+	public static final int MAX_BUFFERS = 16;
+
+	// Seconds an idle worker thread is kept alive
+	public static final long KEEP_ALIVE = 60;
+
+	private static ExecutorService executor = null;
+	private static int nThreads = 0;
+
+	private static final ThreadLocal<Buffer[]> buffers = new ThreadLocal<Buffer[]>(){
+		@Override
+		protected Buffer[] initialValue()
+		{
+			return new Buffer[MAX_BUFFERS];
+		}
+	};
+
+	public static synchronized ExecutorService getExecutor()
+	{
+		if(executor == null)
+		{
+			final AtomicInteger count = new AtomicInteger(0);
+			executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory(){
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "FilterPool-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Replace the executor (the previous one isn't shut down). Tasks of one
+	 * filter call may wait for each other, so the executor must start every
+	 * task it is given without queuing it.
+	 */
+	public static synchronized void setExecutor(ExecutorService executor)
+	{
+		FilterPool.executor = executor;
+	}
+
+	/**
+	 * @return the number of threads a filter call should use (Prefs.getThreads() unless set)
+	 */
+	public static int getThreads()
+	{
+		return nThreads > 0 ? nThreads : Prefs.getThreads();
+	}
+
+	/**
+	 * @param n number of threads per filter call (0 for Prefs.getThreads())
+	 */
+	public static void setThreads(int n)
+	{
+		nThreads = Math.max(0, n);
+	}
+
+	/**
+	 * Run tasks[0] in the calling thread and the rest with the executor and
+	 * wait for all of them. If tasks[0] throws or the calling thread is
+	 * interrupted while waiting, the other tasks are interrupted (those that
+	 * haven't started yet are skipped) and still waited for, since they may
+	 * be using buffers of the calling thread. Then the exception is rethrown
+	 * or the interrupted status is kept.
+	 *
+	 * @param tasks
+	 * @return false if interrupted
+	 */
+	public static boolean run(Runnable[] tasks)
+	{
+		final Workers workers = new Workers(tasks.length);
+		ExecutorService executor = getExecutor();
+		for (int t = 1; t < tasks.length; t++)
+		{
+			final Runnable task = tasks[t];
+			final int index = t;
+			executor.execute(new Runnable(){
+				@Override
+				public void run()
+				{
+					try
+					{
+						if(workers.start(index))
+						{
+							task.run();
+						}
+					}
+					catch (Exception e)
+					{
+						e.printStackTrace();
+					}
+					finally
+					{
+						workers.finish(index);
+					}
+				}
+			});
+		}
+		try
+		{
+			tasks[0].run();
+		}
+		catch (Throwable t)
+		{
+			// The other tasks may be waiting for this one
+			workers.cancel();
+			workers.await();
+			throw t;
+		}
+		return workers.await();
+	}
+
+	/**
+	 * The threads running the tasks of one run call
+	 */
+	static class Workers {
+
+		private final Thread[] threads;
+		private final CountDownLatch done;
+		private boolean canceled = false;
+
+		public Workers(int nTasks)
+		{
+			this.threads = new Thread[nTasks];
+			this.done = new CountDownLatch(nTasks - 1);
+		}
+
+		/**
+		 * @return false if canceled before the task started
+		 */
+		public synchronized boolean start(int t)
+		{
+			if(this.canceled)
+			{
+				return false;
+			}
+			this.threads[t] = Thread.currentThread();
+			return true;
+		}
+
+		public void finish(int t)
+		{
+			synchronized (this)
+			{
+				this.threads[t] = null;
+			}
+			this.done.countDown();
+		}
+
+		/**
+		 * Interrupt the running tasks and skip those that haven't started
+		 */
+		public synchronized void cancel()
+		{
+			this.canceled = true;
+			for (Thread thread : this.threads)
+			{
+				if(thread != null)
+				{
+					thread.interrupt();
+				}
+			}
+		}
+
+		/**
+		 * Wait for every task (canceling them if the calling thread is
+		 * interrupted)
+		 *
+		 * @return false if interrupted
+		 */
+		public boolean await()
+		{
+			try
+			{
+				this.done.await();
+				return true;
+			}
+			catch (InterruptedException e)
+			{
+				this.cancel();
+				boolean finished = false;
+				while (!finished)
+				{
+					try
+					{
+						this.done.await();
+						finished = true;
+					}
+					catch (InterruptedException f)
+					{
+						// keep waiting
+					}
+				}
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Get a zeroed float buffer of the given length that belongs to the
+	 * calling thread. The buffer stays valid until the same thread asks for
+	 * the same slot, width and radius again (or MAX_BUFFERS others).
+	 *
+	 * @param slot what the buffer is for (e.g., RANK_CACHE)
+	 * @param width line width
+	 * @param radius kernel radius
+	 * @param length
+	 * @return the buffer
+	 */
+	public static float[] getBuffer(int slot, int width, int radius, int length)
+	{
+		Buffer b = getBuffer(slot, width, radius);
+		if(b.pixels == null || b.pixels.length != length)
+		{
+			b.pixels = new float[length];
+		}
+		else
+		{
+			Arrays.fill(b.pixels, 0f);
+		}
+		return b.pixels;
+	}
+
+	/**
+	 * Same as getBuffer but for int buffers (e.g., histograms)
+	 */
+	public static int[] getIntBuffer(int slot, int width, int radius, int length)
+	{
+		Buffer b = getBuffer(slot, width, radius);
+		if(b.ints == null || b.ints.length != length)
+		{
+			b.ints = new int[length];
+		}
+		else
+		{
+			Arrays.fill(b.ints, 0);
+		}
+		return b.ints;
+	}
+
+	private static Buffer getBuffer(int slot, int width, int radius)
+	{
+		Buffer[] list = buffers.get();
+		int i = 0;
+		for (; i < list.length && list[i] != null; i++)
+		{
+			Buffer b = list[i];
+			if(b.slot == slot && b.width == width && b.radius == radius)
+			{
+				moveToFront(list, i);
+				return b;
+			}
+		}
+		// Not found, replace the least recently used (last) buffer
+		Buffer b = new Buffer();
+		b.slot = slot;
+		b.width = width;
+		b.radius = radius;
+		i = Math.min(i, list.length - 1);
+		list[i] = b;
+		moveToFront(list, i);
+		return b;
+	}
+
+	private static void moveToFront(Buffer[] list, int i)
+	{
+		Buffer b = list[i];
+		System.arraycopy(list, 0, list, 1, i);
+		list[0] = b;
+	}
+
+	static class Buffer {
+
+		public int slot;
+		public int width;
+		public int radius;
+		public float[] pixels;
+		public int[] ints;
+	}
+}
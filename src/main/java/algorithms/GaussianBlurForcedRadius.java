@@ -1,8 +1,10 @@
 package algorithms;
 import java.awt.AWTEvent;
 import java.awt.Rectangle;
-
-import ij.Prefs;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import ij.IJ;
 import ij.ImagePlus;
@@ -55,6 +57,15 @@ public class GaussianBlurForcedRadius implements ExtendedPlugInFilter, DialogLis
     private int pass;                        // Current pass
     private boolean noProgress;      // Do not show progress bar
     private boolean calledAsPlugin;
+    /** Kernels of the most recently used sigma, outer radius and max radius (shared, must not be modified)*/
+    private static final int MAX_CACHED_KERNELS = 32;
+    private static final Map<List<Double>, float[][]> kernelCache = new LinkedHashMap<List<Double>, float[][]>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Double>, float[][]> eldest) {
+            return size() > MAX_CACHED_KERNELS;
+        }
+    };
     
     /** Method to return types supported
      * @param arg unused
@@ -242,8 +253,8 @@ public class GaussianBlurForcedRadius implements ExtendedPlugInFilter, DialogLis
         pass++;
         if (pass>nPasses) pass =1;
         
-        final int numThreads = Math.min(Prefs.getThreads(), lineTo-lineFrom);
-        final Thread[] lineThreads = new Thread[numThreads];
+        final int numThreads = Math.min(FilterPool.getThreads(), lineTo-lineFrom);
+        final Runnable[] lineTasks = new Runnable[numThreads]; //task 0 runs in this thread, the others in the FilterPool
 
         /* large radius (sigma): scale down, then convolve, then scale up */
         final boolean doDownscaling = false; //sigma > 2*MIN_DOWNSCALED_SIGMA + 0.5;
@@ -260,7 +271,7 @@ public class GaussianBlurForcedRadius implements ExtendedPlugInFilter, DialogLis
         final int maxLength = doDownscaling ?
                 (length+reduceBy-1)/reduceBy + 2*(UPSCALE_K_RADIUS + 1) //downscaled line can't be longer
                 : length;
-        final float[][] gaussKernel = makeGaussianKernel(sigmaGauss, outerRadius, maxLength);
+        final float[][] gaussKernel = getGaussianKernel(sigmaGauss, outerRadius, maxLength);
         final int kRadius = gaussKernel[0].length*reduceBy;             //Gaussian kernel radius after upscaling
         final int readFrom = (writeFrom-kRadius < 0) ? 0 : writeFrom-kRadius; //not including broadening by downscale&upscale
         final int readTo = (writeTo+kRadius > length) ? length : writeTo+kRadius;
@@ -275,14 +286,13 @@ public class GaussianBlurForcedRadius implements ExtendedPlugInFilter, DialogLis
            
         for ( int t = 0; t < numThreads; ++t ) {
             final int ti = t;
-            final float[] cache1 = new float[newLength];  //holds data before convolution (after downscaling, if any)
-            final float[] cache2 = new float[newLength];  //holds data after convolution
-            
-            final Thread thread = new Thread(
-                    new Runnable() {
+            lineTasks[ ti ] = new Runnable() {
                         final public void run() { /*try{*/
+                            //line buffers of the thread running the task
+                            final float[] cache1 = FilterPool.getBuffer(FilterPool.GAUSS_INPUT, newLength, kRadius, newLength);  //holds data before convolution (after downscaling, if any)
+                            final float[] cache2 = FilterPool.getBuffer(FilterPool.GAUSS_OUTPUT, newLength, kRadius, newLength);  //holds data after convolution
                             long lastTime = System.currentTimeMillis();
-                            boolean canShowProgress = Thread.currentThread() == lineThreads[0];
+                            boolean canShowProgress = ti == 0;
                             int pixel0 = (lineFrom+ti)*lineInc;
                             for (int line=lineFrom + ti; line<lineTo; line += numThreads, pixel0+=numThreads*lineInc) {
                                 long time = System.currentTimeMillis();
@@ -308,27 +318,10 @@ public class GaussianBlurForcedRadius implements ExtendedPlugInFilter, DialogLis
                                     
                             }
                         } /*catch(Exception ex) {IJ.handleException(ex);} }*/
-                    },
-                    "GaussianBlur-"+t);
-            
-            thread.setPriority( Thread.currentThread().getPriority() );
-            lineThreads[ ti ] = thread;
-            thread.start();
-        }
-        try {
-            for ( final Thread thread : lineThreads )
-                if ( thread != null ) thread.join();
-        }
-        catch ( InterruptedException e ) {
-            for ( final Thread thread : lineThreads )
-                thread.interrupt();
-            try {
-                for ( final Thread thread : lineThreads )
-                    thread.join();
-            }
-            catch ( InterruptedException f ) {}
-            Thread.currentThread().interrupt();
+                    };
         }
+        if (numThreads > 0)
+            FilterPool.run(lineTasks); // keeps the interrupted status if interrupted
             
         showProgress(1.0);
         return;
@@ -479,7 +472,7 @@ public class GaussianBlurForcedRadius implements ExtendedPlugInFilter, DialogLis
      * @param pointInc  Increment of the pixels array index to the next point (for an ImageProcessor,
      *                  it should be <code>1</code> for a row, <code>width</code> for a column)
      */
-    final static private void convolveLine( final float[] input, final float[] pixels, final float[][] kernel, final int readFrom,
+    final static void convolveLine( final float[] input, final float[] pixels, final float[][] kernel, final int readFrom,
             final int readTo, final int writeFrom, final int writeTo, final int point0, final int pointInc) {
         final int length = input.length;
         final float first = input[0];                 //out-of-edge pixels are replaced by nearest edge pixels
@@ -524,6 +517,21 @@ public class GaussianBlurForcedRadius implements ExtendedPlugInFilter, DialogLis
         }
     }
 
+    /** Same as makeGaussianKernel, but cached for the most recently used parameters.
+     *  The kernel returned is shared and must not be modified.
+     */
+    public float[][] getGaussianKernel(final double sigma, final double outerRadius, int maxRadius) {
+        List<Double> key = Arrays.asList(sigma, outerRadius, (double) maxRadius);
+        synchronized (kernelCache) {
+            float[][] kernel = kernelCache.get(key);
+            if (kernel == null) {
+                kernel = makeGaussianKernel(sigma, outerRadius, maxRadius);
+                kernelCache.put(key, kernel);
+            }
+            return kernel;
+        }
+    }
+
     /** Create a 1-dimensional normalized Gaussian kernel with standard deviation sigma
      *  and the running sum over the kernel
      *  Note: this is one side of the kernel only, not the full kernel as used by the
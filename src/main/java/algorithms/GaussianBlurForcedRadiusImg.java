@@ -0,0 +1,315 @@
+package algorithms;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * GaussianBlurForcedRadius for imglib2 images of any dimensionality, without
+ * converting to a FloatProcessor.
+ *
+ * Each requested dimension is blurred one after the other (the blur is
+ * separable) with the same kernels as GaussianBlurForcedRadius.blurFloat
+ * (getGaussianKernel with the given outer radius, max radius the length of
+ * the dimension) and the same line convolution (out-of-image pixels are the
+ * nearest edge pixel), so the x and y blur of a 2D image matches blurFloat.
+ * Dimensions that aren't requested (e.g., z, channel or time of a stack) are
+ * left alone, so every plane of a stack is blurred at once.
+ *
+ * The lines of each dimension are split between the threads of a ForkJoinPool
+ * (the current one if called from a pool, otherwise the common pool). Each
+ * line is copied into a FilterPool buffer of the thread, convolved and copied
+ * back. ArrayImgs of FloatType are read and written directly through their
+ * float[], anything else through RandomAccesses.
+ *
+ * @author Jay Warrick
+ */
+public class GaussianBlurForcedRadiusImg {
+
+	// Number of lines below which a task isn't split any further
+	public static int MIN_LINES_PER_TASK = 64;
+
+	private boolean parallel = true;
+
+	public void setParallel(boolean parallel)
+	{
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Blur in place.
+	 *
+	 * @param img
+	 * @param sigma standard deviation of the Gaussian (pixels)
+	 * @param outerRadius forced radius of the kernel (pixels, e.g. 3 * sigma)
+	 * @param dims dimensions to blur (e.g. 0, 1 for the planes of a stack)
+	 */
+	public void blur(RandomAccessibleInterval<FloatType> img, double sigma, double outerRadius, int... dims)
+	{
+		this.blur(img, img, sigma, outerRadius, dims);
+	}
+
+	/**
+	 * Blur source into target (which can be the source).
+	 *
+	 * @param source
+	 * @param target same size as source
+	 * @param sigma standard deviation of the Gaussian (pixels)
+	 * @param outerRadius forced radius of the kernel (pixels, e.g. 3 * sigma)
+	 * @param dims dimensions to blur (e.g. 0, 1 for the planes of a stack)
+	 */
+	public void blur(RandomAccessibleInterval<FloatType> source, RandomAccessibleInterval<FloatType> target, double sigma, double outerRadius, int... dims)
+	{
+		double[] sigmas = new double[source.numDimensions()];
+		for (int d : dims)
+		{
+			sigmas[d] = sigma;
+		}
+		this.blur(source, target, sigmas, outerRadius);
+	}
+
+	/**
+	 * Blur source into target (which can be the source) with a sigma per
+	 * dimension (0 to leave the dimension alone). Same as blurFloat(ip,
+	 * sigmaX, sigmaY, outerRadius) for 2D.
+	 *
+	 * @param source
+	 * @param target same size as source
+	 * @param sigmas standard deviation of the Gaussian of each dimension
+	 * @param outerRadius forced radius of the kernel (pixels)
+	 */
+	public void blur(RandomAccessibleInterval<FloatType> source, RandomAccessibleInterval<FloatType> target, double[] sigmas, double outerRadius)
+	{
+		GaussianBlurForcedRadius gb = new GaussianBlurForcedRadius();
+		RandomAccessibleInterval<FloatType> input = source;
+		for (int d = 0; d < sigmas.length; d++)
+		{
+			if(sigmas[d] > 0 && source.dimension(d) > 1)
+			{
+				float[][] kernel = gb.getGaussianKernel(sigmas[d], outerRadius, (int) source.dimension(d));
+				this.run(new LineTask(input, target, d, kernel, 0, numLines(source, d)));
+				input = target;
+			}
+		}
+		if(input != target)
+		{
+			// Nothing was blurred
+			copy(source, target);
+		}
+	}
+
+	private void run(LineTask task)
+	{
+		if(!this.parallel || task.to - task.from <= MIN_LINES_PER_TASK)
+		{
+			task.convolveLines();
+		}
+		else if(ForkJoinTask.inForkJoinPool())
+		{
+			task.invoke();
+		}
+		else
+		{
+			ForkJoinPool.commonPool().invoke(task);
+		}
+	}
+
+	/**
+	 * @return the number of lines along dimension d
+	 */
+	public static long numLines(RandomAccessibleInterval<?> img, int d)
+	{
+		long n = 1;
+		for (int k = 0; k < img.numDimensions(); k++)
+		{
+			if(k != d)
+			{
+				n = n * img.dimension(k);
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return the float[] of an ArrayImg of FloatType, otherwise null
+	 */
+	public static float[] getFloatArray(RandomAccessibleInterval<FloatType> img)
+	{
+		if(img instanceof ArrayImg)
+		{
+			Object access = ((ArrayImg<?,?>) img).update(null);
+			if(access instanceof FloatArray)
+			{
+				return ((FloatArray) access).getCurrentStorageArray();
+			}
+		}
+		return null;
+	}
+
+	private static void copy(RandomAccessibleInterval<FloatType> source, RandomAccessibleInterval<FloatType> target)
+	{
+		float[] src = getFloatArray(source);
+		float[] dst = getFloatArray(target);
+		if(src != null && dst != null)
+		{
+			System.arraycopy(src, 0, dst, 0, src.length);
+			return;
+		}
+		Cursor<FloatType> c = Views.flatIterable(target).cursor();
+		Cursor<FloatType> s = Views.flatIterable(source).cursor();
+		while (c.hasNext())
+		{
+			c.next().set(s.next());
+		}
+	}
+
+	/**
+	 * Position of line l along dimension d (the other dimensions are
+	 * counted with the lowest fastest), relative to the min of the image.
+	 */
+	static void setLinePosition(long[] dims, int d, long l, long[] pos)
+	{
+		for (int k = 0; k < dims.length; k++)
+		{
+			if(k == d)
+			{
+				pos[k] = 0;
+			}
+			else
+			{
+				pos[k] = l % dims[k];
+				l = l / dims[k];
+			}
+		}
+	}
+
+	/**
+	 * Convolves the lines [from, to) along one dimension
+	 */
+	static class LineTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final RandomAccessibleInterval<FloatType> source;
+		private final RandomAccessibleInterval<FloatType> target;
+		private final int d;
+		private final float[][] kernel;
+		private final long from;
+		private final long to;
+
+		public LineTask(RandomAccessibleInterval<FloatType> source, RandomAccessibleInterval<FloatType> target, int d, float[][] kernel, long from, long to)
+		{
+			this.source = source;
+			this.target = target;
+			this.d = d;
+			this.kernel = kernel;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if(this.to - this.from > MIN_LINES_PER_TASK)
+			{
+				long mid = (this.from + this.to) >>> 1;
+				invokeAll(new LineTask(this.source, this.target, this.d, this.kernel, this.from, mid), new LineTask(this.source, this.target, this.d, this.kernel, mid, this.to));
+			}
+			else
+			{
+				this.convolveLines();
+			}
+		}
+
+		/**
+		 * Convolve the lines in this thread
+		 */
+		public void convolveLines()
+		{
+			final int n = this.source.numDimensions();
+			final long[] dims = new long[n];
+			this.source.dimensions(dims);
+			final int length = (int) dims[this.d];
+			final int kRadius = this.kernel[0].length;
+			final float[] cache1 = FilterPool.getBuffer(FilterPool.GAUSS_INPUT, length, kRadius, length);
+			final float[] cache2 = FilterPool.getBuffer(FilterPool.GAUSS_OUTPUT, length, kRadius, length);
+			final long[] pos = new long[n];
+
+			float[] src = getFloatArray(this.source);
+			float[] dst = getFloatArray(this.target);
+			if(src != null && dst != null)
+			{
+				// Directly through the arrays (flat index = sum of position times stride)
+				long[] strides = new long[n];
+				strides[0] = 1;
+				for (int k = 1; k < n; k++)
+				{
+					strides[k] = strides[k - 1] * dims[k - 1];
+				}
+				final int pointInc = (int) strides[this.d];
+				for (long l = this.from; l < this.to; l++)
+				{
+					setLinePosition(dims, this.d, l, pos);
+					int p0 = 0;
+					for (int k = 0; k < n; k++)
+					{
+						p0 += (int) (pos[k] * strides[k]);
+					}
+					convolveLine(src, dst, p0, pointInc, length, this.kernel, cache1, cache2);
+				}
+				return;
+			}
+
+			RandomAccess<FloatType> ra = this.source.randomAccess();
+			RandomAccess<FloatType> wa = this.target.randomAccess();
+			for (long l = this.from; l < this.to; l++)
+			{
+				setLinePosition(dims, this.d, l, pos);
+				for (int k = 0; k < n; k++)
+				{
+					pos[k] += this.source.min(k);
+				}
+				ra.setPosition(pos);
+				for (int i = 0; i < length; i++, ra.fwd(this.d))
+				{
+					cache1[i] = ra.get().getRealFloat();
+				}
+				GaussianBlurForcedRadius.convolveLine(cache1, cache2, this.kernel, 0, length, 0, length, 0, 1);
+				for (int k = 0; k < n; k++)
+				{
+					pos[k] += this.target.min(k) - this.source.min(k);
+				}
+				wa.setPosition(pos);
+				for (int i = 0; i < length; i++, wa.fwd(this.d))
+				{
+					wa.get().setReal(cache2[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Convolve the line of a flat array starting at p0 with points pointInc
+	 * apart into the same line of dst (which can be src)
+	 */
+	static void convolveLine(float[] src, float[] dst, int p0, int pointInc, int length, float[][] kernel, float[] cache1, float[] cache2)
+	{
+		for (int i = 0, p = p0; i < length; i++, p += pointInc)
+		{
+			cache1[i] = src[p];
+		}
+		GaussianBlurForcedRadius.convolveLine(cache1, cache2, kernel, 0, length, 0, length, 0, 1);
+		for (int i = 0, p = p0; i < length; i++, p += pointInc)
+		{
+			dst[p] = cache2[i];
+		}
+	}
+}
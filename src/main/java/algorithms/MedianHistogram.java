@@ -0,0 +1,176 @@
+package algorithms;
+
+/**
+ * Sliding histogram median for RankFilters2 (Huang's algorithm with the
+ * two-level histogram of Perreault and Hebert).
+ *
+ * Values are binned into at most 65536 bins: 8-bit and RGB values are their
+ * own bin, 16-bit values too, and float values are quantized with
+ * bin = round((v - offset) / step) (exact for integer valued floats with a
+ * range below 65536, otherwise the error is at most step/2). The kernel
+ * histogram is updated with the points that enter and leave the circular
+ * kernel as it moves one pixel to the right (the same points as
+ * RankFilters2.addSideSums) and the median bin is tracked from pixel to
+ * pixel, skipping blocks of 256 bins with the coarse histogram, so the cost
+ * per pixel depends on the kernel height instead of its area.
+ *
+ * Per-column histograms (as in Perreault and Hebert) would make the update
+ * O(1) but only work for square kernels, while the kernels of RankFilters2
+ * are circular.
+ *
+ * @author Jay Warrick
+ */
+class MedianHistogram {
+
+	public static final int MAX_BINS = 65536;
+
+	private final int[] hist;
+	private final int[] coarse;
+	private final double offset;
+	private final double step;
+	private final double invStep;
+	private final int maxBin;
+	private int med = 0;	// current median bin
+	private int below = 0;	// number of values in bins < med
+
+	/**
+	 * @param hist zeroed buffer of at least nBins
+	 * @param coarse zeroed buffer of at least (nBins + 255) / 256
+	 * @param nBins
+	 * @param offset value of bin 0
+	 * @param step width of a bin
+	 */
+	public MedianHistogram(int[] hist, int[] coarse, int nBins, double offset, double step)
+	{
+		this.hist = hist;
+		this.coarse = coarse;
+		this.maxBin = nBins - 1;
+		this.offset = offset;
+		this.step = step;
+		this.invStep = 1.0 / step;
+	}
+
+	/**
+	 * @return the bin of a value
+	 */
+	public int bin(float v)
+	{
+		int b = (int) ((v - this.offset) * this.invStep + 0.5);
+		return b < 0 ? 0 : (b > this.maxBin ? this.maxBin : b);
+	}
+
+	/**
+	 * @return the value of a bin
+	 */
+	public float value(int bin)
+	{
+		return (float) (this.offset + bin * this.step);
+	}
+
+	public void add(float v)
+	{
+		int b = this.bin(v);
+		this.hist[b]++;
+		this.coarse[b >> 8]++;
+		if(b < this.med)
+		{
+			this.below++;
+		}
+	}
+
+	public void remove(float v)
+	{
+		int b = this.bin(v);
+		this.hist[b]--;
+		this.coarse[b >> 8]--;
+		if(b < this.med)
+		{
+			this.below--;
+		}
+	}
+
+	/**
+	 * Add the kernel area at x (see RankFilters2.getAreaSums)
+	 */
+	public void addArea(float[] cache, int xCache0, int[] kernel)
+	{
+		for (int kk = 0; kk < kernel.length; kk++)
+		{
+			for (int p = kernel[kk++] + xCache0; p <= kernel[kk] + xCache0; p++)
+			{
+				this.add(cache[p]);
+			}
+		}
+	}
+
+	/**
+	 * Remove the kernel area at x, which leaves the histogram empty if it
+	 * only held that area
+	 */
+	public void removeArea(float[] cache, int xCache0, int[] kernel)
+	{
+		for (int kk = 0; kk < kernel.length; kk++)
+		{
+			for (int p = kernel[kk++] + xCache0; p <= kernel[kk] + xCache0; p++)
+			{
+				this.remove(cache[p]);
+			}
+		}
+	}
+
+	/**
+	 * Move the kernel from x-1 to x (see RankFilters2.addSideSums)
+	 */
+	public void moveRight(float[] cache, int xCache0, int[] kernel)
+	{
+		for (int kk = 0; kk < kernel.length; /* kk++;kk++ below */)
+		{
+			this.remove(cache[kernel[kk++] + (xCache0 - 1)]);
+			this.add(cache[kernel[kk++] + xCache0]);
+		}
+	}
+
+	/**
+	 * @param n rank (0 for the lowest value), e.g. kNPoints/2 for the median
+	 *            of an odd number of points
+	 * @return the value of rank n (must be less than the number of values)
+	 */
+	public float getNthLowest(int n)
+	{
+		final int[] hist = this.hist;
+		final int[] coarse = this.coarse;
+		int med = this.med;
+		int below = this.below;
+		// Too high, move down
+		while (below > n)
+		{
+			if((med & 255) == 0)
+			{
+				while (below - coarse[(med >> 8) - 1] > n)
+				{
+					below -= coarse[(med >> 8) - 1];
+					med -= 256;
+				}
+			}
+			med--;
+			below -= hist[med];
+		}
+		// Too low, move up
+		while (below + hist[med] <= n)
+		{
+			below += hist[med];
+			med++;
+			if((med & 255) == 0)
+			{
+				while (below + coarse[med >> 8] <= n)
+				{
+					below += coarse[med >> 8];
+					med += 256;
+				}
+			}
+		}
+		this.med = med;
+		this.below = below;
+		return this.value(med);
+	}
+}
@@ -2,12 +2,13 @@ package algorithms;
 import java.awt.AWTEvent;
 import java.awt.Rectangle;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.Macro;
-import ij.Prefs;
 import ij.gui.DialogListener;
 import ij.gui.GenericDialog;
 import ij.gui.Roi;
@@ -29,6 +30,10 @@ public class RankFilters2 implements ExtendedPlugInFilter, DialogListener {
 	public static final int	 STDEV=-2, SUM=-1, MEAN=0, MIN=1, MAX=2, VARIANCE=3, MEDIAN=4, OUTLIERS=5, DESPECKLE=6, REMOVE_NAN=7,
 			OPEN=8, CLOSE=9;
 	public static final int BRIGHT_OUTLIERS = 0, DARK_OUTLIERS = 1;
+	/** Median modes: histogram (see MedianHistogram) when faster, always exact selection or histogram whenever possible */
+	public static final int MEDIAN_AUTO = 0, MEDIAN_EXACT = 1, MEDIAN_HISTOGRAM = 2;
+	/** Kernel size (number of points) from which MEDIAN_AUTO uses the histogram median with up to 256 or more bins */
+	public static int MEDIAN_HISTOGRAM_MIN_POINTS_8BIT = 21, MEDIAN_HISTOGRAM_MIN_POINTS = 57;
 	private static final String[] outlierStrings = {"Bright","Dark"};
 	private static int HIGHEST_FILTER = CLOSE;
 	// Filter parameters
@@ -36,10 +41,21 @@ public class RankFilters2 implements ExtendedPlugInFilter, DialogListener {
 	private double threshold;
 	private int whichOutliers;
 	private int filterType;
+	private int medianMode = MEDIAN_AUTO;
+	private double medianMaxError = 0;
 	// Remember filter parameters for the next time
 	private static double[] lastRadius = new double[HIGHEST_FILTER+1]; //separate for each filter type
 	private static double lastThreshold = 50.;
 	private static int lastWhichOutliers = BRIGHT_OUTLIERS;
+	// Kernels of the most recently used radii (shared, must not be modified)
+	private static final int MAX_CACHED_KERNELS = 32;
+	private static final Map<Double, int[]> lineRadiiCache = new LinkedHashMap<Double, int[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Double, int[]> eldest) {
+			return size() > MAX_CACHED_KERNELS;
+		}
+	};
 	// 
 	// F u r t h e r   c l a s s   v a r i a b l e s
 	int flags = DOES_ALL|SUPPORTS_MASKING|KEEP_PREVIEW;
@@ -47,7 +63,7 @@ public class RankFilters2 implements ExtendedPlugInFilter, DialogListener {
 	private int nPasses = 1;			// The number of passes (color channels * stack slices)
 	private int pass;
 	// M u l t i t h r e a d i n g - r e l a t e d
-	private int numThreads = Prefs.getThreads();
+	private int numThreads = FilterPool.getThreads();
 	// Current state of processing is in class variables. Thus, stack parallelization must be done
 	// ONLY with one thread for the image (not using these class variables):
 	private int highestYinCache;		// the highest line read into the cache so far
@@ -180,6 +196,17 @@ public class RankFilters2 implements ExtendedPlugInFilter, DialogListener {
 			ip.reset();
 	}
 
+	/** How MEDIAN and OUTLIERS find the median: MEDIAN_AUTO (default), MEDIAN_EXACT or MEDIAN_HISTOGRAM */
+	public void setMedianMode(int medianMode) {
+		this.medianMode = medianMode;
+	}
+
+	/** Largest error of the median of float images allowed for the histogram median (which quantizes to 16 bits).
+	 *	Integer valued float images with a range below 65536 are exact anyway. Default 0. */
+	public void setMedianMaxError(double medianMaxError) {
+		this.medianMaxError = medianMaxError;
+	}
+
 	/** Filters an image by any method except 'despecle' or 'remove outliers'.
 	 *	@param ip	   The ImageProcessor that should be filtered (all 4 types supported)
 	 *	@param radius  Determines the kernel size, see Process>Filters>Show Circular Masks.
@@ -203,7 +230,7 @@ public class RankFilters2 implements ExtendedPlugInFilter, DialogListener {
 		Rectangle roi = ip.getRoi();
 		ImageProcessor mask = ip.getMask();
 		Rectangle roi1 = null;
-		int[] lineRadii = makeLineRadii(radius);
+		int[] lineRadii = getLineRadii(radius);
 
 		float minMaxOutliersSign = filterType==MIN ? -1f : 1f;
 		if (filterType == OUTLIERS)		//sign is -1 for high outliers: compare number with minimum
@@ -248,6 +275,7 @@ public class RankFilters2 implements ExtendedPlugInFilter, DialogListener {
 
 	// Filter a grayscale image or one channel of an RGB image with several threads
 	// Implementation: each thread uses the same input buffer (cache), always works on the next unfiltered line
+	// Threads other than this one come from the FilterPool and the cache is a FilterPool buffer of this thread.
 	// Usually, one thread reads reads several lines into the cache, while the others are processing the data.
 	// 'aborted[0]' is set if the main thread has been interrupted (during preview) or ESC pressed.
 	// 'aborted' must not be a class variable because it signals the other threads to stop; and this may be caused
@@ -263,45 +291,84 @@ public class RankFilters2 implements ExtendedPlugInFilter, DialogListener {
 		int kRadius	 = kRadius(lineRadii);
 		final int cacheWidth = roi.width+2*kRadius;
 		final int cacheHeight = kHeight + (numThreads>1 ? 2*numThreads : 0);
+		final double[] binning = getMedianBinning(ip, roi, lineRadii, filterType);
 		// 'cache' is the input buffer. Each line y in the image is mapped onto cache line y%cacheHeight
-		final float[] cache = new float[cacheWidth*cacheHeight];
+		final float[] cache = FilterPool.getBuffer(FilterPool.RANK_CACHE, cacheWidth, kRadius, cacheWidth*cacheHeight);
 		highestYinCache = Math.max(roi.y-kHeight/2, 0) - 1; //this line+1 will be read into the cache first 
 
 		final int[] yForThread = new int[numThreads];		//threads announce here which line they currently process
 		Arrays.fill(yForThread, -1);
 		yForThread[numThreads-1] = roi.y-1;					//first thread started should begin at roi.y
 		//IJ.log("going to filter lines "+roi.y+"-"+(roi.y+roi.height-1)+"; cacheHeight="+cacheHeight);
-		final Thread[] threads = new Thread[numThreads-1];	//thread number 0 is this one, not in the array
-		for (int t=numThreads-1; t>0; t--) {
+		final Runnable[] tasks = new Runnable[numThreads];	//task number 0 runs in this thread
+		for (int t=numThreads-1; t>=0; t--) {
 			final int ti=t;
-			final Thread thread = new Thread(
-					new Runnable() {
-						final public void run() {
-							doFiltering(ip, lineRadii, cache, cacheWidth, cacheHeight,
-									filterType, minMaxOutliersSign, threshold, colorChannel,
-									yForThread, ti, aborted);
-						}
-					},
-			"RankFilters-"+t);
-			thread.setPriority(Thread.currentThread().getPriority());
-			thread.start();
-			threads[ti-1] = thread;
+			tasks[ti] = new Runnable() {
+				final public void run() {
+					doFiltering(ip, lineRadii, cache, cacheWidth, cacheHeight,
+							filterType, minMaxOutliersSign, threshold, colorChannel,
+							yForThread, ti, aborted, binning);
+				}
+			};
 		}
-
-		doFiltering(ip, lineRadii, cache, cacheWidth, cacheHeight,
-				filterType, minMaxOutliersSign, threshold, colorChannel,
-				yForThread, 0, aborted);
-		for (final Thread thread : threads)
-			try {
-					if (thread != null) thread.join();
-			} catch (InterruptedException e) {
-				aborted[0] = true;
-				Thread.currentThread().interrupt();	  //keep interrupted status (PlugInFilterRunner needs it)
-			}
+		if (!FilterPool.run(tasks))
+			aborted[0] = true;		//interrupted status is kept (PlugInFilterRunner needs it)
 		showProgress(1.0, ip instanceof ColorProcessor);
 		pass++;
 	}
 
+	/** Get the bins of the histogram median {number of bins, value of bin 0, bin width}
+	 *	or null if the median should be found by selection */
+	private double[] getMedianBinning(ImageProcessor ip, Rectangle roi, int[] lineRadii, int filterType) {
+		if ((filterType != MEDIAN && filterType != OUTLIERS) || medianMode == MEDIAN_EXACT)
+			return null;
+		int kNPoints = kNPoints(lineRadii);
+		Object pixels = ip.getPixels();
+		if (pixels instanceof byte[] || pixels instanceof int[]) {	//8-bit or RGB channel
+			if (medianMode == MEDIAN_AUTO && kNPoints < MEDIAN_HISTOGRAM_MIN_POINTS_8BIT)
+				return null;
+			return new double[] {256, 0, 1};
+		}
+		if (medianMode == MEDIAN_AUTO && kNPoints < MEDIAN_HISTOGRAM_MIN_POINTS)
+			return null;
+		// range of the pixels read into the cache
+		int width = ip.getWidth();
+		int kRadius = kRadius(lineRadii);
+		int kHeight = kHeight(lineRadii);
+		int x0 = Math.max(roi.x-kRadius, 0), x1 = Math.min(roi.x+roi.width+kRadius, width);
+		int y0 = Math.max(roi.y-kHeight/2, 0), y1 = Math.min(roi.y+roi.height+kHeight/2, ip.getHeight());
+		double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+		boolean integers = true;
+		if (pixels instanceof short[]) {
+			short[] sPixels = (short[])pixels;
+			for (int y=y0; y<y1; y++)
+				for (int p=y*width+x0; p<y*width+x1; p++) {
+					int v = sPixels[p]&0xffff;
+					if (v < min) min = v;
+					if (v > max) max = v;
+				}
+		} else {
+			float[] fPixels = (float[])pixels;
+			for (int y=y0; y<y1; y++)
+				for (int p=y*width+x0; p<y*width+x1; p++) {
+					float v = fPixels[p];
+					if (Float.isNaN(v) || Float.isInfinite(v))
+						return null;
+					if (v < min) min = v;
+					if (v > max) max = v;
+					if (integers && v != Math.rint(v)) integers = false;
+				}
+		}
+		if (max < min)
+			return null;
+		if (integers && max-min < MedianHistogram.MAX_BINS)
+			return new double[] {max-min+1, min, 1};		//exact
+		double step = (max-min)/(MedianHistogram.MAX_BINS-1);
+		if (step/2 > medianMaxError || filterType == OUTLIERS)	//a slightly different median could flip whether a pixel is an outlier
+			return null;
+		return new double[] {MedianHistogram.MAX_BINS, min, step};
+	}
+
 	// Filter a grayscale image or one channel of an RGB image using one thread
 	//
 	// Synchronization: unless a thread is waiting, we avoid the overhead of 'synchronized'
@@ -325,9 +392,11 @@ public class RankFilters2 implements ExtendedPlugInFilter, DialogListener {
 	// For outliers, calculate the median only if the pixel deviates by more than the threshold
 	// from any pixel in the area. Therfore min or max is calculated; this is a much faster
 	// operation than the median.
+	// For large kernels, the median is taken from a histogram of the kernel area that is updated
+	// like the sums of the mean ('binning' is not null, see getMedianBinning and MedianHistogram).
 	private void doFiltering(ImageProcessor ip, int[] lineRadii, float[] cache, int cacheWidth, int cacheHeight,
 			int filterType, float minMaxOutliersSign, float threshold, int colorChannel,
-			int [] yForThread, int threadNumber, boolean[] aborted) {
+			int [] yForThread, int threadNumber, boolean[] aborted, double[] binning) {
 		if (aborted[0] || Thread.currentThread().isInterrupted()) return;
 		int width = ip.getWidth();
 		int height = ip.getHeight();
@@ -350,17 +419,24 @@ public class RankFilters2 implements ExtendedPlugInFilter, DialogListener {
 		boolean minOrMax = filterType == MIN || filterType == MAX;
 		boolean minOrMaxOrOutliers = minOrMax || filterType == OUTLIERS;
 		boolean sumFilter = filterType == MEAN || filterType == VARIANCE || filterType == SUM || filterType == STDEV;
-		boolean medianFilter = filterType == MEDIAN || filterType == OUTLIERS;
+		boolean medianFilter = (filterType == MEDIAN || filterType == OUTLIERS) && binning == null;	//median by selection
 		double[] sums = sumFilter ? new double[2] : null;
-		float[] medianBuf1 = (medianFilter||filterType==REMOVE_NAN) ? new float[kNPoints] : null;
-		float[] medianBuf2 = (medianFilter||filterType==REMOVE_NAN) ? new float[kNPoints] : null;
+		MedianHistogram medianHist = null;
+		if (binning != null) {
+			int nBins = (int)binning[0];
+			medianHist = new MedianHistogram(FilterPool.getIntBuffer(FilterPool.RANK_HISTOGRAM, nBins, kRadius, nBins),
+					FilterPool.getIntBuffer(FilterPool.RANK_COARSE_HISTOGRAM, nBins, kRadius, (nBins+255)/256),
+					nBins, binning[1], binning[2]);
+		}
+		float[] medianBuf1 = (medianFilter||filterType==REMOVE_NAN) ? FilterPool.getBuffer(FilterPool.RANK_MEDIAN_ABOVE, kNPoints, kRadius, kNPoints) : null;
+		float[] medianBuf2 = (medianFilter||filterType==REMOVE_NAN) ? FilterPool.getBuffer(FilterPool.RANK_MEDIAN_BELOW, kNPoints, kRadius, kNPoints) : null;
 
 		boolean smallKernel = kRadius < 2;
 
 		Object pixels = ip.getPixels();
 		boolean isFloat = pixels instanceof float[];
 		float maxValue = isFloat ? Float.NaN : (float)ip.maxValue();
-		float[] values = isFloat ? (float[])pixels : new float[roi.width];
+		float[] values = isFloat ? (float[])pixels : FilterPool.getBuffer(FilterPool.RANK_VALUES, roi.width, kRadius, roi.width);
 
 		int numThreads = yForThread.length;
 		long lastTime = System.currentTimeMillis();
@@ -445,7 +521,7 @@ public class RankFilters2 implements ExtendedPlugInFilter, DialogListener {
 
 			int cacheLineP = cacheWidth * (y % cacheHeight) + kRadius;	//points to pixel (roi.x, y)
 			filterLine(values, width, cache, cachePointers, kNPoints, cacheLineP, roi, y,	// F I L T E R
-					sums, medianBuf1, medianBuf2, minMaxOutliersSign, maxValue, isFloat, filterType,
+					sums, medianBuf1, medianBuf2, medianHist, minMaxOutliersSign, maxValue, isFloat, filterType,
 					smallKernel, sumFilter, minOrMax, minOrMaxOrOutliers, threshold);
 			if (!isFloat)		//Float images: data are written already during 'filterLine'
 				writeLineToPixels(values, pixels, roi.x+y*width, roi.width, colorChannel);	// W R I T E
@@ -469,13 +545,20 @@ public class RankFilters2 implements ExtendedPlugInFilter, DialogListener {
 	}
 
 	private void filterLine(float[] values, int width, float[] cache, int[] cachePointers, int kNPoints, int cacheLineP, Rectangle roi, int y,
-			double[] sums, float[] medianBuf1, float[] medianBuf2, float minMaxOutliersSign, float maxValue, boolean isFloat, int filterType,
+			double[] sums, float[] medianBuf1, float[] medianBuf2, MedianHistogram medianHist, float minMaxOutliersSign, float maxValue, boolean isFloat, int filterType,
 			boolean smallKernel, boolean sumFilter, boolean minOrMax, boolean minOrMaxOrOutliers, float threshold) {
 			int valuesP = isFloat ? roi.x+y*width : 0;
 			float max = 0f;
 			float median = Float.isNaN(cache[cacheLineP]) ? 0 : cache[cacheLineP];	// a first guess
 			boolean fullCalculation = true;
+			int half = kNPoints/2;
 			for (int x=0; x<roi.width; x++, valuesP++) {							// x is with respect to roi.x
+				if (medianHist != null) {											// histogram of the kernel area
+					if (x == 0)
+						medianHist.addArea(cache, x, cachePointers);
+					else
+						medianHist.moveRight(cache, x, cachePointers);
+				}
 				if (fullCalculation) {
 					fullCalculation = smallKernel;	//for small kernel, always use the full area, not incremental algorithm
 					if (minOrMaxOrOutliers)
@@ -521,12 +604,14 @@ public class RankFilters2 implements ExtendedPlugInFilter, DialogListener {
 							values[valuesP] = 0; // variance should never be negative (happens due to rounding error)
 					}
 				} else if (filterType == MEDIAN) {
-					median = getMedian(cache, x, cachePointers, medianBuf1, medianBuf2, kNPoints, median);
+					median = medianHist != null ? medianHist.getNthLowest(half) :
+						getMedian(cache, x, cachePointers, medianBuf1, medianBuf2, kNPoints, median);
 					values[valuesP] = median;
 				} else if (filterType == OUTLIERS) {
 					float v = cache[cacheLineP+x];
 					if (v*minMaxOutliersSign+threshold < max) {		//for low outliers: median can't be higher than max (minMaxOutliersSign is +1)
-						median = getMedian(cache, x, cachePointers, medianBuf1, medianBuf2, kNPoints, median);
+						median = medianHist != null ? medianHist.getNthLowest(half) :
+							getMedian(cache, x, cachePointers, medianBuf1, medianBuf2, kNPoints, median);
 						if (v*minMaxOutliersSign+threshold < median*minMaxOutliersSign)
 							v = median;					//beyond threshold (below if minMaxOutliersSign=+1), replace outlier by median
 					}
@@ -538,6 +623,8 @@ public class RankFilters2 implements ExtendedPlugInFilter, DialogListener {
 						median = values[valuesP];	//initial guess for the next point
 				}
 			} // for x
+			if (medianHist != null && roi.width > 0)
+				medianHist.removeArea(cache, roi.width-1, cachePointers);	//empty for the next line
 		}
 
 	/** Read a line into the cache (including padding in x).
@@ -827,6 +914,19 @@ public class RankFilters2 implements ExtendedPlugInFilter, DialogListener {
 		return kernel;
 	}
 
+	/** Same as makeLineRadii, but cached for the most recently used radii.
+	 *	The array returned is shared and must not be modified. */
+	protected int[] getLineRadii(double radius) {
+		synchronized(lineRadiiCache) {
+			int[] lineRadii = lineRadiiCache.get(radius);
+			if (lineRadii == null) {
+				lineRadii = makeLineRadii(radius);
+				lineRadiiCache.put(radius, lineRadii);
+			}
+			return lineRadii;
+		}
+	}
+
 	//kernel height
 	private int kHeight(int[] lineRadii) {
 		return (lineRadii.length-2)/2;
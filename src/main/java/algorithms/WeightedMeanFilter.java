@@ -0,0 +1,491 @@
+package algorithms;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import helper.objects.Pair;
+import ij.Prefs;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import utilities.ImageUtility;
+
+/**
+ * Fused version of ImageUtility.getWeightedMeanFilterImage.
+ *
+ * The local standard deviation image and the mode fit of its histogram are
+ * calculated as before (they need the whole image). Everything after that
+ * (the variance weights, the products of the weights with the image and the
+ * standard deviation, their Gaussian blurs and the final divisions,
+ * subtraction and thresholding) is done in one pass over overlapping tiles of
+ * rows. Each tile is blurred in x one row at a time into a scratch buffer
+ * (including the rows above and below the tile that the blur in y needs) and
+ * then in y one output row at a time, so only the standard deviation image,
+ * the outputs and a scratch buffer per thread of (tile rows + 2 * kernel
+ * radius) rows per blurred quantity are allocated instead of a full size copy
+ * for each intermediate image. Tiles are processed in parallel.
+ *
+ * Tiles are at least 4 kernel radii high so the rows blurred twice (the
+ * kernel radius above and below each tile) are at most half of the rows of
+ * the tile, and the number of threads is limited so that the scratch buffers
+ * of all threads together are no bigger than one full size image (at least
+ * one thread is used, whose buffers can be bigger if the kernel is large
+ * compared to the image).
+ *
+ * The kernels, edge handling (nearest edge pixel) and the order of the float
+ * operations of each pixel are the same as GaussianBlurForcedRadius.blurFloat
+ * (x then y) and the Blitter operations of the unfused version, so results
+ * match it to float rounding.
+ *
+ * @author Jay Warrick
+ */
+public class WeightedMeanFilter {
+
+	// Min number of output rows per tile
+	public static int TILE_ROWS = 128;
+
+	private int nThreads = FilterPool.getThreads();
+
+	// Blurred quantities
+	private static final int SUB_PRODUCT = 0, SUB_WEIGHTS = 1, THRESH_PRODUCT = 2, THRESH_WEIGHTS = 3, THRESH_SD = 4;
+
+	public void setThreads(int nThreads)
+	{
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	/**
+	 * Same as ImageUtility.getWeightedMeanFilterImage except that original
+	 * isn't modified.
+	 */
+	public Pair<FloatProcessor, ImageProcessor> filter(FloatProcessor original, boolean doThreshold, boolean doSubtraction, boolean doBackgroundOnly, boolean doDivision, double meanRadius, double varRadius, double subScale, double threshScale, Double nominal, Double sigma, double darkfield, Double gaussianOuterRadius)
+	{
+		if(gaussianOuterRadius == null)
+		{
+			gaussianOuterRadius = 5*meanRadius;
+		}
+		Pair<FloatProcessor, ImageProcessor> ret = new Pair<>((FloatProcessor) null, (ImageProcessor) null);
+		final int width = original.getWidth();
+		final int height = original.getHeight();
+
+		// Get the variance weight parameters
+		FloatProcessor stDev = ImageUtility.getLocalStDevImage(original, varRadius);
+		double[] params = ImageUtility.getVarianceWeightParameters(stDev, false);
+
+		final Job job = new Job();
+		job.original = (float[]) original.getPixels();
+		job.stDev = (float[]) stDev.getPixels();
+		job.width = width;
+		job.height = height;
+		job.wMed = params[0];
+		job.wMad = params[1];
+		job.subScale = subScale;
+		job.threshScale = threshScale;
+		job.doMean = doBackgroundOnly || doSubtraction || doDivision;
+		job.doLocalThreshold = doThreshold && sigma >= 0;
+		job.doSubtraction = doSubtraction;
+		job.doDivision = doDivision;
+		job.nominal = nominal;
+		job.sigma = sigma;
+		job.darkfield = darkfield;
+		job.divideByZeroValue = (float) Prefs.divideByZeroValue;
+
+		// Save a thresholded version of the weights image if desired.
+		if(doThreshold && sigma < 0)
+		{
+			// Then threshold the weights image instead of the actual image (e.g., BF images are better done this way)
+			byte[] mask = new byte[width*height];
+			double limit = 1/(1 + Math.pow(Math.abs(sigma.floatValue()), threshScale));
+			for(int i = 0; i < mask.length; i++)
+			{
+				if(ImageUtility.getWeight(job.stDev[i], job.wMed, job.wMad, threshScale) <= limit)
+				{
+					mask[i] = (byte) 255;
+				}
+			}
+			ret.p2 = new ByteProcessor(width, height, mask);
+		}
+		if(!job.doMean && !job.doLocalThreshold)
+		{
+			return ret;
+		}
+
+		if(job.doMean && job.doLocalThreshold)
+		{
+			job.channels = new int[] { SUB_PRODUCT, SUB_WEIGHTS, THRESH_PRODUCT, THRESH_WEIGHTS, THRESH_SD };
+		}
+		else if(job.doMean)
+		{
+			job.channels = new int[] { SUB_PRODUCT, SUB_WEIGHTS };
+		}
+		else
+		{
+			job.channels = new int[] { THRESH_PRODUCT, THRESH_WEIGHTS, THRESH_SD };
+		}
+		if(meanRadius > 0)
+		{
+			GaussianBlurForcedRadius gb = new GaussianBlurForcedRadius();
+			job.kernelX = gb.getGaussianKernel(meanRadius, gaussianOuterRadius, width);
+			job.kernelY = gb.getGaussianKernel(meanRadius, gaussianOuterRadius, height);
+		}
+		if(job.doMean)
+		{
+			job.result = new float[width*height];
+		}
+		if(job.doLocalThreshold)
+		{
+			job.threshold = new float[width*height];
+		}
+
+		this.run(job);
+
+		if(job.doLocalThreshold)
+		{
+			if(sigma == 0)
+			{
+				ret.p2 = new FloatProcessor(width, height, job.threshold);
+			}
+			else
+			{
+				ret.p2 = ImageUtility.getThresholdedImage(new FloatProcessor(width, height, job.threshold), -1f*sigma.floatValue(), false);
+			}
+		}
+		if(job.doMean)
+		{
+			if(!doSubtraction && doDivision)
+			{
+				this.divide(job);
+			}
+			ret.p1 = new FloatProcessor(width, height, job.result);
+		}
+		return ret;
+	}
+
+	/**
+	 * Process the tiles with nThreads threads (this one and FilterPool threads)
+	 */
+	private void run(final Job job)
+	{
+		final int kRadius = job.kernelY == null ? 0 : job.kernelY[0].length;
+		final int tileRows = Math.min(job.height, Math.max(TILE_ROWS, 4 * kRadius));
+		final int nTiles = (job.height + tileRows - 1) / tileRows;
+		final AtomicInteger nextTile = new AtomicInteger(0);
+		// Scratch rows of one thread, all threads together get at most job.height
+		int threadRows = job.channels.length * Math.min(job.height, tileRows + 2 * kRadius);
+		final int numThreads = Math.max(1, Math.min(Math.min(this.nThreads, nTiles), job.height / threadRows));
+		job.tileRows = tileRows;
+		Runnable[] tasks = new Runnable[numThreads];
+		for (int t = 0; t < numThreads; t++)
+		{
+			tasks[t] = new Runnable(){
+				@Override
+				public void run()
+				{
+					Tile tile = new Tile(job);
+					int i;
+					while ((i = nextTile.getAndIncrement()) < nTiles && !Thread.currentThread().isInterrupted())
+					{
+						tile.process(i * tileRows, Math.min(job.height, (i + 1) * tileRows));
+					}
+				}
+			};
+		}
+		FilterPool.run(tasks);
+	}
+
+	/**
+	 * Divide the original by the background (needs the mean of the whole
+	 * background image, so done after the tiles)
+	 */
+	private void divide(Job job)
+	{
+		float[] result = job.result;
+		double sum = 0;
+		for (int i = 0; i < result.length; i++)
+		{
+			sum += result[i];
+		}
+		double meanI = sum / result.length - job.darkfield;
+		for (int i = 0; i < result.length; i++)
+		{
+			float original = (float) (job.original[i] - job.darkfield);
+			float background = (float) (result[i] - job.darkfield);
+			float v = job.divide(original, background);					// copyOfOriginal (Divided)
+			v = (float) (v * meanI);
+			v = (float) (v - meanI);									// copyOfOriginal (Divided, Scaled)
+			if(job.nominal != 0)
+			{
+				v = (float) (v + job.nominal);							// copyOfOriginal (Divided, Scaled Offset)
+			}
+			result[i] = v;
+		}
+	}
+
+	/**
+	 * Inputs, parameters and outputs of one filter call
+	 */
+	static class Job {
+
+		public float[] original;
+		public float[] stDev;
+		public int width;
+		public int height;
+		public double wMed;
+		public double wMad;
+		public double subScale;
+		public double threshScale;
+		public boolean doMean;
+		public boolean doLocalThreshold;
+		public boolean doSubtraction;
+		public boolean doDivision;
+		public Double nominal;
+		public Double sigma;
+		public double darkfield;
+		public float divideByZeroValue;
+		public int[] channels; // blurred quantities that are needed
+		public int tileRows; // output rows per tile
+		public float[][] kernelX = null; // null if not blurring
+		public float[][] kernelY = null;
+		public float[] result;
+		public float[] threshold;
+
+		/**
+		 * @return a / b as Blitter.DIVIDE
+		 */
+		public float divide(float a, float b)
+		{
+			return b == 0 ? this.divideByZeroValue : a / b;
+		}
+	}
+
+	/**
+	 * Scratch buffers of one thread
+	 */
+	static class Tile {
+
+		private final Job job;
+		private final int kRadius;
+		private final float[] subWeights;
+		private final float[] threshWeights;
+		private final float[] line;
+		private final float[] blurredLine;
+		private final float[][] rows; // x blurred rows of each channel (null if not needed)
+		private final float[][] sums; // y blurred output row of each channel (null if not needed)
+
+		public Tile(Job job)
+		{
+			this.job = job;
+			this.kRadius = job.kernelY == null ? 0 : job.kernelY[0].length;
+			int nRows = Math.min(job.height, job.tileRows + 2 * this.kRadius);
+			this.subWeights = new float[job.width];
+			this.threshWeights = new float[job.width];
+			this.line = new float[job.width];
+			this.blurredLine = new float[job.width];
+			this.rows = new float[THRESH_SD + 1][];
+			this.sums = new float[THRESH_SD + 1][];
+			for (int c : job.channels)
+			{
+				this.rows[c] = new float[nRows * job.width];
+				this.sums[c] = new float[job.width];
+			}
+		}
+
+		/**
+		 * Calculate the outputs of rows [y0, y1)
+		 */
+		public void process(int y0, int y1)
+		{
+			final int w = this.job.width;
+			int r0 = Math.max(0, y0 - this.kRadius);
+			int r1 = Math.min(this.job.height, y1 + this.kRadius);
+			for (int r = r0; r < r1; r++)
+			{
+				this.blurRow(r, r - r0);
+			}
+			for (int y = y0; y < y1; y++)
+			{
+				for (int c : this.job.channels)
+				{
+					this.blurColumns(this.rows[c], r0, y, this.sums[c]);
+				}
+				int p = y * w;
+				for (int x = 0; x < w; x++, p++)
+				{
+					this.combine(p, x);
+				}
+			}
+		}
+
+		/**
+		 * Calculate the weighted values of each channel of row r and blur
+		 * them in x into row i of the scratch buffers
+		 */
+		private void blurRow(int r, int i)
+		{
+			final Job job = this.job;
+			final int w = job.width;
+			final int offset = r * w;
+			for (int x = 0; x < w; x++)
+			{
+				float sd = job.stDev[offset + x];
+				if(job.doMean)
+				{
+					this.subWeights[x] = ImageUtility.getWeight(sd, job.wMed, job.wMad, job.subScale);
+				}
+				if(job.doLocalThreshold)
+				{
+					this.threshWeights[x] = ImageUtility.getWeight(sd, job.wMed, job.wMad, job.threshScale);
+				}
+			}
+			for (int c : job.channels)
+			{
+				switch (c)
+				{
+					case SUB_PRODUCT:
+						for (int x = 0; x < w; x++)
+						{
+							this.line[x] = job.original[offset + x] * this.subWeights[x];
+						}
+						break;
+					case SUB_WEIGHTS:
+						System.arraycopy(this.subWeights, 0, this.line, 0, w);
+						break;
+					case THRESH_PRODUCT:
+						for (int x = 0; x < w; x++)
+						{
+							this.line[x] = job.original[offset + x] * this.threshWeights[x];
+						}
+						break;
+					case THRESH_WEIGHTS:
+						System.arraycopy(this.threshWeights, 0, this.line, 0, w);
+						break;
+					default:
+						for (int x = 0; x < w; x++)
+						{
+							this.line[x] = job.stDev[offset + x] * this.threshWeights[x];
+						}
+				}
+				if(job.kernelX == null)
+				{
+					System.arraycopy(this.line, 0, this.rows[c], i * w, w);
+				}
+				else
+				{
+					GaussianBlurForcedRadius.convolveLine(this.line, this.blurredLine, job.kernelX, 0, w, 0, w, 0, 1);
+					System.arraycopy(this.blurredLine, 0, this.rows[c], i * w, w);
+				}
+			}
+		}
+
+		/**
+		 * Blur row y in y (same operations as GaussianBlurForcedRadius.convolveLine
+		 * applied to each column, but a row at a time).
+		 *
+		 * @param rows x blurred rows starting at row r0
+		 * @param r0
+		 * @param y
+		 * @param out
+		 */
+		private void blurColumns(float[] rows, int r0, int y, float[] out)
+		{
+			final int w = this.job.width;
+			final int length = this.job.height;
+			final int center = (y - r0) * w;
+			if(this.job.kernelY == null)
+			{
+				System.arraycopy(rows, center, out, 0, w);
+				return;
+			}
+			final float[] kern = this.job.kernelY[0];
+			final float kern0 = kern[0];
+			final float[] kernSum = this.job.kernelY[1];
+			final int kRadius = kern.length;
+			final int firstPart = kRadius < length ? kRadius : length;
+			final int iEndInside = length - kRadius;
+			for (int x = 0; x < w; x++)
+			{
+				out[x] = rows[center + x] * kern0;
+			}
+			if(y >= firstPart && y < iEndInside)
+			{
+				// only rows within the image are addressed (the easy case)
+				for (int k = 1; k < kRadius; k++)
+				{
+					final float kk = kern[k];
+					final int above = center - k * w;
+					final int below = center + k * w;
+					for (int x = 0; x < w; x++)
+					{
+						out[x] += kk * (rows[above + x] + rows[below + x]);
+					}
+				}
+				return;
+			}
+
+			// out-of-edge rows are replaced by the nearest edge row
+			final boolean addFirst = y < kRadius;
+			final boolean addLast = y < firstPart ? y + kRadius > length : y + kRadius >= length;
+			final int first = (0 - r0) * w;
+			final int last = (length - 1 - r0) * w;
+			for (int x = 0; x < w; x++)
+			{
+				if(addFirst)
+				{
+					out[x] += kernSum[y] * rows[first + x];
+				}
+				if(addLast)
+				{
+					out[x] += kernSum[length - y - 1] * rows[last + x];
+				}
+			}
+			for (int k = 1; k < kRadius; k++)
+			{
+				final float kk = kern[k];
+				final boolean hasAbove = y - k >= 0;
+				final boolean hasBelow = y + k < length;
+				final int above = center - k * w;
+				final int below = center + k * w;
+				for (int x = 0; x < w; x++)
+				{
+					float v = 0;
+					if(hasAbove) v += rows[above + x];
+					if(hasBelow) v += rows[below + x];
+					out[x] += kk * v;
+				}
+			}
+		}
+
+		/**
+		 * Calculate the outputs of pixel p from the blurred sums
+		 */
+		private void combine(int p, int x)
+		{
+			final Job job = this.job;
+			if(job.doLocalThreshold)
+			{
+				float threshWeights = this.sums[THRESH_WEIGHTS][x];
+				float threshLocalMean = job.divide(this.sums[THRESH_PRODUCT][x], threshWeights);	// threshLocalMean (Multiplied, Summed, Divided)
+				float localSD = job.divide(this.sums[THRESH_SD][x], threshWeights);				// localSD (Multiplied, Summed, Divided)
+				float z = job.divide(threshLocalMean - job.original[p], localSD);
+				job.threshold[p] = job.sigma == 0 ? (float) (z * -1.0) : z;
+			}
+			if(job.doMean)
+			{
+				float subLocalMean = job.divide(this.sums[SUB_PRODUCT][x], this.sums[SUB_WEIGHTS][x]);	// subLocalMean (Multiplied, Summed, Divided)
+				if(job.doSubtraction)
+				{
+					float v = job.original[p] - subLocalMean;						// copyOfOriginal (Subtracted)
+					if(job.nominal != 0)
+					{
+						v = (float) (v + job.nominal);								// copyOfOriginal (Subtracted, Offset)
+					}
+					job.result[p] = v;
+				}
+				else
+				{
+					// background (divided later if doDivision)
+					job.result[p] = subLocalMean;
+				}
+			}
+		}
+	}
+}
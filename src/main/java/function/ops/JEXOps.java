@@ -158,4 +158,18 @@ public class JEXOps {
 		String NAME = "stats.pearsonsCorrelationCoefficient";
 	}
 	
+	/**
+	 * Base interface for "features.uniformLBPHistogram" operations.
+	 * <p>
+	 * Implementing classes should be annotated with:
+	 * </p>
+	 *
+	 * <pre>
+	 * @Plugin(type = JEXOps.UniformLBPHistogram.class
+	 * </pre>
+	 */
+	public interface UniformLBPHistogram extends Op {
+		String NAME = "features.uniformLBPHistogram";
+	}
+	
 }
@@ -63,6 +63,8 @@ public abstract class AbstractFeatureSet<I, O extends RealType<O>> extends Abstr
 	@Parameter(required=false)
 	private Class<? extends Op>[] prioritizedOps;
 
+	private RegionContext regionContext = null;
+
 	@Override
 	public void initialize() {
 		final List<CommandInfo> infos = new ArrayList<CommandInfo>();
@@ -75,4 +77,18 @@ public abstract class AbstractFeatureSet<I, O extends RealType<O>> extends Abstr
 		}
 	}
 
+	/**
+	 * Share intermediate results (e.g., the enclosing circle) with the other
+	 * feature sets calculated for the same region.
+	 * 
+	 * @param regionContext the context of the current region or null
+	 */
+	public void setRegionContext(RegionContext regionContext) {
+		this.regionContext = regionContext;
+	}
+
+	public RegionContext getRegionContext() {
+		return regionContext;
+	}
+
 }
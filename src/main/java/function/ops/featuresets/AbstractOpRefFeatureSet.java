@@ -48,6 +48,7 @@ import net.imagej.ops.OpRef;
 import net.imagej.ops.special.function.Functions;
 import net.imagej.ops.special.function.UnaryFunctionOp;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.DoubleType;
 
 /**
  * {@link OpRef} based {@link AbstractCachedFeatureSet}.
@@ -149,6 +150,34 @@ public abstract class AbstractOpRefFeatureSet<I, O extends RealType<O>> extends
 		return res;
 	}
 
+	/**
+	 * @return the function of each feature (in the order of the features)
+	 */
+	protected Map<NamedFeature, UnaryFunctionOp<Object, ? extends O>> getFeatureFunctions() {
+		return namedFeatureMap;
+	}
+
+	/**
+	 * Create an output for a feature that implementors calculate without
+	 * calling its function (e.g., several features fused into one pass).
+	 * 
+	 * @return a new output of the outType (DoubleType if the outType can't be
+	 *         created)
+	 */
+	@SuppressWarnings("unchecked")
+	protected O createOutput() {
+		if (outType != null) {
+			try {
+				return outType.newInstance();
+			} catch (final InstantiationException e) {
+				// e.g., an interface like RealType
+			} catch (final IllegalAccessException e) {
+				// use DoubleType
+			}
+		}
+		return (O) new DoubleType();
+	}
+
 	/**
 	 * Can be overriden by implementors to provide specialized implementations
 	 * for certain functions. For example, this method calls func.compute1
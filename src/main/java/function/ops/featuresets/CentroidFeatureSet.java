@@ -65,7 +65,12 @@ public class CentroidFeatureSet extends AbstractFeatureSet<LabelRegion, DoubleTy
 	@Override
 	public Map<NamedFeature, DoubleType> calculate(LabelRegion input) {
 		Map<NamedFeature, DoubleType> res = new LinkedHashMap<NamedFeature, DoubleType>();
-		RealLocalizable centroid = ops().geom().centroid(input);
+		RealLocalizable centroid;
+		if (this.getRegionContext() == null) {
+			centroid = ops().geom().centroid(input);
+		} else {
+			centroid = this.getRegionContext().getCentroid(input, ops());
+		}
 
 		for (int i = 0; i < getFeatures().size(); i++) {
 			res.put(new NamedFeature("Centroid of dimension#" + i), new DoubleType(centroid.getDoublePosition(i)));
@@ -41,7 +41,7 @@ import org.scijava.plugin.Plugin;
 
 import function.ops.geometry.Circle;
 import function.ops.zernike.DoubleNormalizedZernikeComputer;
-import net.imagej.ops.features.zernike.helper.ZernikeMoment;
+import function.ops.zernike.ZernikeMomentAccumulator;
 import net.imglib2.IterableInterval;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.DoubleType;
@@ -75,6 +75,8 @@ public class DoubleNormalizedZernikeFeatureSet<I extends RealType<I>>
 
 	private DoubleNormalizedZernikeComputer<I> zernikeComputer;
 
+	private ZernikeMomentAccumulator moments = null;
+
 	@Override
 	public void initialize() {
 		super.initialize();
@@ -102,21 +104,24 @@ public class DoubleNormalizedZernikeFeatureSet<I extends RealType<I>>
 	public Map<NamedFeature, DoubleType> calculate(IterableInterval<I> input) {
 		HashMap<NamedFeature, DoubleType> map = new HashMap<NamedFeature, DoubleType>();
 
-		for (int order = orderMin; order <= orderMax; order++) {
-			for (int repetition = 0; repetition <= order; repetition++) {
-				if (Math.abs(order - repetition) % 2 == 0) {
-					zernikeComputer.setOrder(order);
-					zernikeComputer.setRepetition(repetition);
-					zernikeComputer.setEnclosingCircles(this.innerCircle, this.outerCircle);
-
-					ZernikeMoment results = zernikeComputer.calculate(input);
+		if (orderMin > orderMax) {
+			return map;
+		}
 
-					map.put(new NamedFeature("DNZernikeMag_Order_" + order + "_Rep_" + repetition),
-							new DoubleType(results.getMagnitude()));
-					map.put(new NamedFeature("DNZernikePhase_Order_" + order + "_Rep_" + repetition),
-							new DoubleType(results.getPhase()));
-				}
-			}
+		// Calculate every moment in a single pass over the pixels
+		if (moments == null || moments.getOrder(0) != orderMin || moments.getOrder(moments.size() - 1) != orderMax) {
+			moments = new ZernikeMomentAccumulator(orderMin, orderMax);
+		}
+		zernikeComputer.setEnclosingCircles(this.innerCircle, this.outerCircle);
+		zernikeComputer.accumulate(input, moments);
+
+		for (int i = 0; i < moments.size(); i++) {
+			int order = moments.getOrder(i);
+			int repetition = moments.getRepetition(i);
+			map.put(new NamedFeature("DNZernikeMag_Order_" + order + "_Rep_" + repetition),
+					new DoubleType(moments.getMagnitude(i)));
+			map.put(new NamedFeature("DNZernikePhase_Order_" + order + "_Rep_" + repetition),
+					new DoubleType(moments.getPhase(i)));
 		}
 
 		return map;
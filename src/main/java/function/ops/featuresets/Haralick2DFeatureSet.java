@@ -30,20 +30,34 @@
 
 package function.ops.featuresets;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+
 import org.scijava.ItemIO;
 import org.scijava.plugin.Attr;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
+import function.ops.haralick.HaralickEngine;
 import net.imagej.ops.Contingent;
+import net.imagej.ops.Ops;
 import net.imagej.ops.features.haralick.HaralickFeature;
 import net.imagej.ops.image.cooccurrenceMatrix.MatrixOrientation2D;
+import net.imagej.ops.special.function.UnaryFunctionOp;
 import net.imglib2.IterableInterval;
 import net.imglib2.type.numeric.RealType;
 
 /**
  * {@link FeatureSet} for {@link HaralickFeature}s
  * 
+ * The co-occurrence matrix is calculated once per region by a
+ * {@link HaralickEngine} (and shared through the {@link RegionContext}, if
+ * any, with other Haralick feature sets with the same parameters) and all the
+ * features are derived from it in one sweep rather than by a separate op per
+ * feature.
+ * 
  * @author Christian Dietz, University of Konstanz
  * @author jaywarrick
  * 
@@ -150,6 +164,88 @@ public class Haralick2DFeatureSet<T, O extends RealType<O>> extends AbstractOpRe
 			@Attr(name = ATTR_TYPE, value = PKG + "Variance") })
 	private boolean isVarianceActive = true;
 	
+	private HaralickEngine engine = null;
+
+	@Override
+	public Map<NamedFeature, O> calculate(final IterableInterval<T> input) {
+		final Map<NamedFeature, UnaryFunctionOp<Object, ? extends O>> functions = this.getFeatureFunctions();
+		final double[] features = this.getHaralickFeatures(input);
+
+		final Map<NamedFeature, O> res = new HashMap<NamedFeature, O>();
+		for (final Entry<NamedFeature, UnaryFunctionOp<Object, ? extends O>> entry : functions.entrySet()) {
+			final int index = getIndex(entry.getValue());
+			if (index < 0) {
+				res.put(entry.getKey(), evalFunction(entry.getValue(), input));
+			} else {
+				final O output = this.createOutput();
+				output.setReal(features[index]);
+				res.put(entry.getKey(), output);
+			}
+		}
+		return res;
+	}
+
+	private double[] getHaralickFeatures(final IterableInterval<T> input) {
+		if (engine == null) {
+			engine = new HaralickEngine(numGreyLevels, new int[] { orientation.getValueAtDim(0) * distance },
+					new int[] { orientation.getValueAtDim(1) * distance });
+		}
+		if (this.getRegionContext() == null) {
+			engine.compute(input);
+			return engine.getFeatures(0);
+		}
+		return this.getRegionContext().get(input, RegionContext.key(RegionContext.COOCCURRENCE_MATRIX, numGreyLevels, distance, orientation), new Callable<double[]>() {
+			@Override
+			public double[] call() throws Exception {
+				engine.compute(input);
+				return engine.getFeatures(0).clone();
+			}
+		});
+	}
+
+	/**
+	 * @return the index of the feature calculated by func in the features of
+	 *         the {@link HaralickEngine} or -1 if it doesn't calculate it
+	 */
+	private static int getIndex(final Object func) {
+		if (func instanceof Ops.Haralick.ASM) {
+			return HaralickEngine.ASM;
+		} else if (func instanceof Ops.Haralick.ClusterPromenence) {
+			return HaralickEngine.CLUSTER_PROMENENCE;
+		} else if (func instanceof Ops.Haralick.ClusterShade) {
+			return HaralickEngine.CLUSTER_SHADE;
+		} else if (func instanceof Ops.Haralick.Contrast) {
+			return HaralickEngine.CONTRAST;
+		} else if (func instanceof Ops.Haralick.Correlation) {
+			return HaralickEngine.CORRELATION;
+		} else if (func instanceof Ops.Haralick.DifferenceEntropy) {
+			return HaralickEngine.DIFFERENCE_ENTROPY;
+		} else if (func instanceof Ops.Haralick.DifferenceVariance) {
+			return HaralickEngine.DIFFERENCE_VARIANCE;
+		} else if (func instanceof Ops.Haralick.Entropy) {
+			return HaralickEngine.ENTROPY;
+		} else if (func instanceof Ops.Haralick.ICM1) {
+			return HaralickEngine.ICM1;
+		} else if (func instanceof Ops.Haralick.ICM2) {
+			return HaralickEngine.ICM2;
+		} else if (func instanceof Ops.Haralick.IFDM) {
+			return HaralickEngine.IFDM;
+		} else if (func instanceof Ops.Haralick.MaxProbability) {
+			return HaralickEngine.MAX_PROBABILITY;
+		} else if (func instanceof Ops.Haralick.SumAverage) {
+			return HaralickEngine.SUM_AVERAGE;
+		} else if (func instanceof Ops.Haralick.SumEntropy) {
+			return HaralickEngine.SUM_ENTROPY;
+		} else if (func instanceof Ops.Haralick.SumVariance) {
+			return HaralickEngine.SUM_VARIANCE;
+		} else if (func instanceof Ops.Haralick.TextureHomogeneity) {
+			return HaralickEngine.TEXTURE_HOMOGENEITY;
+		} else if (func instanceof Ops.Haralick.Variance) {
+			return HaralickEngine.VARIANCE;
+		}
+		return -1;
+	}
+
 	@Override
 	public boolean conforms() {
 		return in().numDimensions() == 2;
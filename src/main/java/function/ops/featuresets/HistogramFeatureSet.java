@@ -30,6 +30,8 @@
 
 package function.ops.featuresets;
 
+import java.util.concurrent.Callable;
+
 import org.scijava.ItemIO;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
@@ -68,7 +70,16 @@ public class HistogramFeatureSet<I extends RealType<I>> extends AbstractIteratin
 	@SuppressWarnings("unchecked")
 	@Override
 	protected void preCompute(final Iterable<I> input) {
-		histogram = histogramFunc.calculate(input);
+		if (this.getRegionContext() == null) {
+			histogram = histogramFunc.calculate(input);
+			return;
+		}
+		histogram = this.getRegionContext().get(input, RegionContext.key(RegionContext.HISTOGRAM, BoundedHistogramCreate.class, numBins, BoundedHistogramCreate.SIGMA, -2.0, 2.0, true), new Callable<Histogram1d<I>>(){
+			@Override
+			public Histogram1d<I> call() throws Exception {
+				return histogramFunc.calculate(input);
+			}
+		});
 	}
 
 	@Override
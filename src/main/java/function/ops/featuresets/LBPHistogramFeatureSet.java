@@ -31,16 +31,13 @@
 
 package function.ops.featuresets;
 
-import java.util.ArrayList;
-
+import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
-import function.ops.lbp.Default8BitUniformLBP2D;
-import net.imagej.ops.image.histogram.HistogramCreate;
+import function.ops.lbp.UniformLBPHistogram2D;
 import net.imagej.ops.special.function.Functions;
 import net.imagej.ops.special.function.UnaryFunctionOp;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.histogram.Histogram1d;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.LongType;
 
@@ -54,26 +51,22 @@ import net.imglib2.type.numeric.integer.LongType;
 public class LBPHistogramFeatureSet<I extends RealType<I>> extends AbstractIteratingFeatureSet<RandomAccessibleInterval<I>, LongType>
 		implements FeatureSet<RandomAccessibleInterval<I>, LongType> {
 
-	@SuppressWarnings("rawtypes")
-	private UnaryFunctionOp<RandomAccessibleInterval<I>, ArrayList> lbpFunc;
-	
-	@SuppressWarnings("rawtypes")
-	private UnaryFunctionOp<ArrayList, Histogram1d> histFunc;
+	@Parameter(required = false)
+	private boolean parallel = false;
+
+	private UnaryFunctionOp<RandomAccessibleInterval<I>, long[]> lbpFunc;
 
-	private Histogram1d<I> histogram;
+	private long[] histogram;
 
 	@Override
 	public void initialize() {
 		super.initialize();
-		histFunc = Functions.unary(ops(), HistogramCreate.class, Histogram1d.class, ArrayList.class, 59);
-		lbpFunc = Functions.unary(ops(), Default8BitUniformLBP2D.class, ArrayList.class, in());
+		lbpFunc = Functions.unary(ops(), UniformLBPHistogram2D.class, long[].class, in(), parallel);
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	protected void preCompute(final RandomAccessibleInterval<I> input) {
-		ArrayList<LongType> codes = lbpFunc.calculate(input);
-		histogram = histFunc.calculate(codes);
+		histogram = lbpFunc.calculate(input);
 	}
 
 	@Override
@@ -83,7 +76,7 @@ public class LBPHistogramFeatureSet<I extends RealType<I>> extends AbstractItera
 
 	@Override
 	protected LongType getResultAtIndex(int i) {
-		return new LongType(histogram.frequency(i));
+		return new LongType(histogram[i]);
 	}
 
 	@Override
@@ -0,0 +1,227 @@
+package function.ops.featuresets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import function.ops.JEXOps;
+import function.ops.geometry.Circle;
+import net.imagej.ops.OpEnvironment;
+import net.imagej.ops.special.function.Functions;
+import net.imagej.ops.special.function.UnaryFunctionOp;
+import net.imglib2.IterableInterval;
+import net.imglib2.RealCursor;
+import net.imglib2.RealLocalizable;
+import net.imglib2.roi.labeling.LabelRegion;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Intermediate results of one region (e.g., the samples, enclosing circle,
+ * centroid, histogram or co-occurrence matrix) shared by all the feature
+ * sets that are calculated for the region, so each is calculated once
+ * rather than once per feature set.
+ *
+ * Open the context for a region, give it to each feature set (see
+ * AbstractFeatureSet.setRegionContext), then release it when the region is
+ * done so the intermediate results can be garbage collected. The same context
+ * can be reopened for the next region (e.g., one context per thread). The
+ * hit and miss counts add up over every region until resetCounters is called.
+ *
+ * Results are kept per input (compared by identity, e.g. the samples of a
+ * region in a channel image) as well as per key, so a context shared by the
+ * feature sets of several channels never returns a result of another
+ * channel. A failed calculation isn't kept and its exception is rethrown.
+ *
+ * @author Jay Warrick
+ */
+public class RegionContext {
+
+	public static final String SAMPLES = "Samples";
+	public static final String ENCLOSING_CIRCLE = "EnclosingCircle";
+	public static final String CENTROID = "Centroid";
+	public static final String HISTOGRAM = "Histogram";
+	public static final String COOCCURRENCE_MATRIX = "CooccurrenceMatrix";
+
+	private Object region = null;
+	private final HashMap<Object,Object> values = new HashMap<Object,Object>();
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Start caching intermediate results for a region (releasing those of the
+	 * previous region, if any).
+	 *
+	 * @param region
+	 */
+	public synchronized void open(Object region)
+	{
+		this.release();
+		this.region = region;
+	}
+
+	/**
+	 * Forget the intermediate results of the current region.
+	 */
+	public synchronized void release()
+	{
+		this.values.clear();
+		this.region = null;
+	}
+
+	/**
+	 * @return the current region or null if the context isn't open
+	 */
+	public synchronized Object getRegion()
+	{
+		return this.region;
+	}
+
+	public synchronized long getHits()
+	{
+		return this.hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return this.misses;
+	}
+
+	public synchronized void resetCounters()
+	{
+		this.hits = 0;
+		this.misses = 0;
+	}
+
+	/**
+	 * @param name e.g., HISTOGRAM
+	 * @param params the parameters the result depends on (e.g., number of bins)
+	 * @return a key for an intermediate result
+	 */
+	public static Object key(String name, Object... params)
+	{
+		List<Object> ret = new ArrayList<Object>(params.length + 1);
+		ret.add(name);
+		ret.addAll(Arrays.asList(params));
+		return ret;
+	}
+
+	/**
+	 * Get an intermediate result of the current region, calculating it if it
+	 * hasn't been calculated yet. If the context isn't open, the result is
+	 * calculated and not kept.
+	 *
+	 * @param input what the result is calculated from (compared by identity)
+	 * @param key see key(name, params)
+	 * @param calculator
+	 * @return the result
+	 * @throws IllegalStateException if the calculator threw a checked exception
+	 *             (unchecked ones are rethrown as is)
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <V> V get(Object input, Object key, Callable<V> calculator)
+	{
+		Object inputKey = Arrays.asList(new InputKey(input), key);
+		if (this.region != null && this.values.containsKey(inputKey)) {
+			this.hits++;
+			return (V) this.values.get(inputKey);
+		}
+		this.misses++;
+		V ret;
+		try {
+			ret = calculator.call();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException("Couldn't calculate " + key, e);
+		}
+		if (this.region != null) {
+			this.values.put(inputKey, ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * @param input
+	 * @return the pixel values of the region as a primitive array
+	 */
+	public double[] getSamples(final Iterable<? extends RealType<?>> input)
+	{
+		return this.get(input, key(SAMPLES), new Callable<double[]>(){
+			@Override
+			public double[] call() throws Exception
+			{
+				double[] ret = new double[16];
+				int n = 0;
+				for (RealType<?> t : input) {
+					if (n == ret.length) {
+						ret = Arrays.copyOf(ret, 2 * n);
+					}
+					ret[n] = t.getRealDouble();
+					n++;
+				}
+				return Arrays.copyOf(ret, n);
+			}
+		});
+	}
+
+	/**
+	 * @param input
+	 * @param ops
+	 * @return the smallest enclosing circle of the region (see JEXOps.SmallestEnclosingCircle)
+	 */
+	public Circle getEnclosingCircle(final IterableInterval<?> input, final OpEnvironment ops)
+	{
+		return this.get(input, key(ENCLOSING_CIRCLE), new Callable<Circle>(){
+			@Override
+			public Circle call() throws Exception
+			{
+				UnaryFunctionOp<RealCursor<?>,Circle> cirOp = Functions.unary(ops, JEXOps.SmallestEnclosingCircle.class, Circle.class, input.cursor(), (RealLocalizable) null);
+				return cirOp.calculate(input.cursor());
+			}
+		});
+	}
+
+	/**
+	 * @param input
+	 * @param ops
+	 * @return the centroid of the region
+	 */
+	public RealLocalizable getCentroid(final LabelRegion<?> input, final OpEnvironment ops)
+	{
+		return this.get(input, key(CENTROID), new Callable<RealLocalizable>(){
+			@Override
+			public RealLocalizable call() throws Exception
+			{
+				return ops.geom().centroid(input);
+			}
+		});
+	}
+
+	/**
+	 * Compares the input of a result by identity (IterableIntervals of
+	 * different channels can be equal but hold different values)
+	 */
+	static class InputKey {
+
+		private final Object input;
+
+		public InputKey(Object input)
+		{
+			this.input = input;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			return o instanceof InputKey && ((InputKey) o).input == this.input;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return System.identityHashCode(this.input);
+		}
+	}
+}
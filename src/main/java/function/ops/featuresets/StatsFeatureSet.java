@@ -30,10 +30,18 @@
 
 package function.ops.featuresets;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
 import org.scijava.plugin.Attr;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
+import function.ops.JEXOps;
+import function.ops.stats.StatsAccumulator;
+import net.imagej.ops.Ops;
+import net.imagej.ops.special.function.UnaryFunctionOp;
 import net.imglib2.IterableInterval;
 import net.imglib2.type.numeric.RealType;
 
@@ -127,8 +135,90 @@ public class StatsFeatureSet<T, O extends RealType<O>> extends AbstractOpRefFeat
 			@Attr(name = ATTR_TYPE, value = "function.ops.JEXOps$RadiusOfGyrationSquared") })
 	private boolean isRadiusOfGyrationActive = true;
 
+	private StatsAccumulator stats = null;
+
 	public StatsFeatureSet() {
 		// NB: Empty cofstruction
 	}
 
+	/**
+	 * Calculate every feature in a single pass over the pixels with a
+	 * StatsAccumulator instead of one pass per op. Features that the
+	 * accumulator doesn't know are still calculated by their op.
+	 */
+	@Override
+	public Map<NamedFeature, O> calculate(final IterableInterval<T> input) {
+		final Map<NamedFeature, UnaryFunctionOp<Object, ? extends O>> functions = this.getFeatureFunctions();
+		if (stats == null) {
+			boolean keepValues = false;
+			boolean keepPositions = false;
+			for (final UnaryFunctionOp<Object, ? extends O> func : functions.values()) {
+				keepValues = keepValues || func instanceof Ops.Stats.Median;
+				keepPositions = keepPositions || func instanceof JEXOps.RadiusOfGyrationSquared;
+			}
+			stats = new StatsAccumulator(keepValues, keepPositions);
+		}
+		stats.accumulate(input);
+
+		final Map<NamedFeature, O> res = new HashMap<NamedFeature, O>();
+		for (final Entry<NamedFeature, UnaryFunctionOp<Object, ? extends O>> entry : functions.entrySet()) {
+			final Double value = this.getValue(entry.getValue());
+			if (value == null) {
+				res.put(entry.getKey(), evalFunction(entry.getValue(), input));
+			} else {
+				final O output = this.createOutput();
+				output.setReal(value);
+				res.put(entry.getKey(), output);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return the value of the feature calculated by func or null if the
+	 *         accumulator doesn't calculate it
+	 */
+	private Double getValue(final Object func) {
+		if (func instanceof Ops.Stats.Min) {
+			return stats.getMin();
+		} else if (func instanceof Ops.Stats.Max) {
+			return stats.getMax();
+		} else if (func instanceof Ops.Stats.Mean) {
+			return stats.getMean();
+		} else if (func instanceof Ops.Stats.Sum) {
+			return stats.getSum();
+		} else if (func instanceof Ops.Stats.Skewness) {
+			return stats.getSkewness();
+		} else if (func instanceof Ops.Stats.Median) {
+			return stats.getMedian();
+		} else if (func instanceof Ops.Stats.Kurtosis) {
+			return stats.getKurtosis();
+		} else if (func instanceof Ops.Stats.StdDev) {
+			return stats.getStdDev();
+		} else if (func instanceof Ops.Stats.Variance) {
+			return stats.getVariance();
+		} else if (func instanceof Ops.Stats.SumOfLogs) {
+			return stats.getSumOfLogs();
+		} else if (func instanceof Ops.Stats.SumOfSquares) {
+			return stats.getSumOfSquares();
+		} else if (func instanceof Ops.Stats.SumOfInverses) {
+			return stats.getSumOfInverses();
+		} else if (func instanceof Ops.Stats.Moment1AboutMean) {
+			return stats.getMoment1AboutMean();
+		} else if (func instanceof Ops.Stats.Moment2AboutMean) {
+			return stats.getMoment2AboutMean();
+		} else if (func instanceof Ops.Stats.Moment3AboutMean) {
+			return stats.getMoment3AboutMean();
+		} else if (func instanceof Ops.Stats.Moment4AboutMean) {
+			return stats.getMoment4AboutMean();
+		} else if (func instanceof Ops.Stats.HarmonicMean) {
+			return stats.getHarmonicMean();
+		} else if (func instanceof Ops.Stats.GeometricMean) {
+			return stats.getGeometricMean();
+		} else if (func instanceof JEXOps.RadiusOfGyrationSquared) {
+			return stats.getRadiusOfGyrationSquared();
+		}
+		return null;
+	}
+
 }
\ No newline at end of file
@@ -40,8 +40,9 @@ import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
 import function.ops.geometry.Circle;
+import function.ops.zernike.ZernikeBasisCache;
 import function.ops.zernike.ZernikeComputer;
-import net.imagej.ops.features.zernike.helper.ZernikeMoment;
+import function.ops.zernike.ZernikeMomentAccumulator;
 import net.imglib2.IterableInterval;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.DoubleType;
@@ -69,6 +70,10 @@ public class ZernikeFeatureSet<I extends RealType<I>>
 
 	private ZernikeComputer<I> zernikeComputer;
 
+	private ZernikeMomentAccumulator moments = null;
+
+	private ZernikeBasisCache basisCache = null;
+
 	@Override
 	public void initialize() {
 		super.initialize();
@@ -96,21 +101,29 @@ public class ZernikeFeatureSet<I extends RealType<I>>
 	public Map<NamedFeature, DoubleType> calculate(IterableInterval<I> input) {
 		HashMap<NamedFeature, DoubleType> map = new HashMap<NamedFeature, DoubleType>();
 
-		for (int order = orderMin; order <= orderMax; order++) {
-			for (int repetition = 0; repetition <= order; repetition++) {
-				if (Math.abs(order - repetition) % 2 == 0) {
-					zernikeComputer.setOrder(order);
-					zernikeComputer.setRepetition(repetition);
-					zernikeComputer.setEnclosingCircle(this.enclosingCircle);
-
-					ZernikeMoment results = zernikeComputer.calculate(input);
+		if (orderMin > orderMax) {
+			return map;
+		}
 
-					map.put(new NamedFeature("ZernikeMag_Order_" + order + "_Rep_" + repetition),
-							new DoubleType(results.getMagnitude()));
-					map.put(new NamedFeature("ZernikePhase_Order_" + order + "_Rep_" + repetition),
-							new DoubleType(results.getPhase()));
-				}
-			}
+		// Calculate every moment in a single pass over the pixels
+		if (moments == null || moments.getOrder(0) != orderMin || moments.getOrder(moments.size() - 1) != orderMax) {
+			moments = new ZernikeMomentAccumulator(orderMin, orderMax);
+		}
+		Circle circle = this.enclosingCircle;
+		if (circle == null && this.getRegionContext() != null) {
+			circle = this.getRegionContext().getEnclosingCircle(input, ops());
+		}
+		zernikeComputer.setEnclosingCircle(circle);
+		zernikeComputer.setBasisCache(this.basisCache);
+		zernikeComputer.accumulate(input, moments);
+
+		for (int i = 0; i < moments.size(); i++) {
+			int order = moments.getOrder(i);
+			int repetition = moments.getRepetition(i);
+			map.put(new NamedFeature("ZernikeMag_Order_" + order + "_Rep_" + repetition),
+					new DoubleType(moments.getMagnitude(i)));
+			map.put(new NamedFeature("ZernikePhase_Order_" + order + "_Rep_" + repetition),
+					new DoubleType(moments.getPhase(i)));
 		}
 
 		return map;
@@ -121,4 +134,13 @@ public class ZernikeFeatureSet<I extends RealType<I>>
 		this.enclosingCircle = c;
 	}
 
+	/**
+	 * Use the cached basis stencils of a ZernikeBasisCache (can be shared by
+	 * many feature sets) or null to evaluate the basis at every pixel.
+	 */
+	public void setBasisCache(ZernikeBasisCache basisCache)
+	{
+		this.basisCache = basisCache;
+	}
+
 }
@@ -0,0 +1,347 @@
+package function.ops.featuresets.wrappers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import function.ops.featuresets.AbstractFeatureSet;
+import function.ops.featuresets.FeatureSet;
+import function.ops.featuresets.NamedFeature;
+import function.ops.featuresets.RegionContext;
+import helper.objects.Canceler;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.roi.Regions;
+import net.imglib2.roi.labeling.ImgLabeling;
+import net.imglib2.roi.labeling.LabelRegion;
+import net.imglib2.roi.labeling.LabelRegions;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import tables.DimensionMap;
+
+/**
+ * Calculates a list of feature sets for every region of a labeling (e.g.,
+ * from FeatureUtils.getLabeling) on a ForkJoinPool.
+ *
+ * The regions are split recursively between the threads of the pool. Ops
+ * aren't thread safe, so each thread makes its own instance of every feature
+ * set (see FeatureSetFactory) and its own RegionContext, which lets the
+ * feature sets of a region share intermediate results. Results are handed to
+ * the FeatureSink as soon as each region is done (e.g., straight to a
+ * WriterWrapper, see toWriter) rather than collected in memory.
+ *
+ * @author Jay Warrick
+ */
+public class FeatureExtractor<T extends RealType<T>> {
+
+	// Number of regions below which a task isn't split any further
+	public static int MIN_REGIONS_PER_TASK = 8;
+
+	private final ImgLabeling<Integer,IntType> labeling;
+	private final RandomAccessibleInterval<T> image;
+	private final List<FeatureSetFactory<T>> factories = new ArrayList<FeatureSetFactory<T>>();
+	private int nThreads = Runtime.getRuntime().availableProcessors();
+	private Canceler canceler = null;
+	private Progress progress = null;
+
+	/**
+	 * Makes the feature set of each thread.
+	 */
+	public interface FeatureSetFactory<T extends RealType<T>> {
+
+		/**
+		 * @return true if the feature set takes the LabelRegion itself (e.g.,
+		 *         geometric features), false if it takes the pixel values of
+		 *         the image in the region
+		 */
+		public boolean isRegionFeatureSet();
+
+		/**
+		 * Make a new feature set. Called once by each thread.
+		 *
+		 * @param region an example region
+		 * @param values the pixel values of the image in the example region
+		 * @return the feature set
+		 */
+		public FeatureSet<?,?> create(LabelRegion<Integer> region, IterableInterval<T> values);
+	}
+
+	/**
+	 * Receives the results. Called concurrently by the threads of the pool.
+	 */
+	public interface FeatureSink {
+
+		public void put(DimensionMap map, double value);
+	}
+
+	/**
+	 * Told how many regions are done. Called concurrently by the threads of
+	 * the pool, once per percent.
+	 */
+	public interface Progress {
+
+		public void progress(int done, int total);
+	}
+
+	/**
+	 * Class constructor
+	 *
+	 * @param labeling the regions
+	 * @param image the intensity image measured in each region
+	 */
+	public FeatureExtractor(ImgLabeling<Integer,IntType> labeling, RandomAccessibleInterval<T> image)
+	{
+		this.labeling = labeling;
+		this.image = image;
+	}
+
+	public void addFeatureSet(FeatureSetFactory<T> factory)
+	{
+		this.factories.add(factory);
+	}
+
+	public void setThreads(int nThreads)
+	{
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	public void setCanceler(Canceler canceler)
+	{
+		this.canceler = canceler;
+	}
+
+	public void setProgress(Progress progress)
+	{
+		this.progress = progress;
+	}
+
+	/**
+	 * @param writer
+	 * @return a sink that writes each result to the WriterWrapper
+	 */
+	public static FeatureSink toWriter(final WriterWrapper writer)
+	{
+		return new FeatureSink(){
+			@Override
+			public void put(DimensionMap map, double value)
+			{
+				WriterWrapper.write(writer, map, value);
+			}
+		};
+	}
+
+	/**
+	 * Calculate every feature set for every region. Each result is put in
+	 * the sink with the dims of mapM plus Id (the label of the region) and
+	 * Measurement (the name of the feature).
+	 *
+	 * @param mapM dims of the image
+	 * @param sink
+	 * @return false if canceled or a feature set failed
+	 */
+	public boolean run(DimensionMap mapM, FeatureSink sink)
+	{
+		// LabelRegions isn't thread safe, so get every region up front
+		LabelRegions<Integer> regions = new LabelRegions<Integer>(this.labeling);
+		List<LabelRegion<Integer>> list = new ArrayList<LabelRegion<Integer>>();
+		for (Integer label : regions.getExistingLabels())
+		{
+			LabelRegion<Integer> region = regions.getLabelRegion(label);
+			region.size(); // calculate the region now rather than on a worker thread
+			list.add(region);
+		}
+		if(list.isEmpty() || this.factories.isEmpty())
+		{
+			return true;
+		}
+
+		Job job = new Job(list, mapM, sink);
+		ForkJoinPool pool = new ForkJoinPool(this.nThreads);
+		try
+		{
+			pool.invoke(new RegionTask(job, 0, list.size()));
+		}
+		catch (RuntimeException e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+		return !job.isCanceled();
+	}
+
+	/**
+	 * The state of one run shared by its tasks
+	 */
+	class Job {
+
+		public final List<LabelRegion<Integer>> regions;
+		public final DimensionMap mapM;
+		public final FeatureSink sink;
+		public final AtomicInteger done = new AtomicInteger(0);
+		public final AtomicInteger percent = new AtomicInteger(-1);
+		public volatile boolean failed = false;
+		public final ThreadLocal<Worker> workers = new ThreadLocal<Worker>();
+
+		public Job(List<LabelRegion<Integer>> regions, DimensionMap mapM, FeatureSink sink)
+		{
+			this.regions = regions;
+			this.mapM = mapM;
+			this.sink = sink;
+		}
+
+		public boolean isCanceled()
+		{
+			return this.failed || (canceler != null && canceler.isCanceled());
+		}
+
+		public Worker getWorker()
+		{
+			Worker ret = this.workers.get();
+			if(ret == null)
+			{
+				ret = new Worker(this.regions.get(0));
+				this.workers.set(ret);
+			}
+			return ret;
+		}
+
+		public void regionDone()
+		{
+			int n = this.done.incrementAndGet();
+			if(progress == null)
+			{
+				return;
+			}
+			int p = (int) (100L * n / this.regions.size());
+			int last = this.percent.get();
+			if(p > last && this.percent.compareAndSet(last, p))
+			{
+				progress.progress(n, this.regions.size());
+			}
+		}
+	}
+
+	/**
+	 * The feature sets of one thread
+	 */
+	class Worker {
+
+		public final List<FeatureSet<?,?>> featureSets = new ArrayList<FeatureSet<?,?>>();
+		public final RegionContext context = new RegionContext();
+
+		// DimensionMap of each feature, made once per thread
+		private final List<Map<NamedFeature,DimensionMap>> featureMaps = new ArrayList<Map<NamedFeature,DimensionMap>>();
+
+		public Worker(LabelRegion<Integer> example)
+		{
+			// Op creation goes through shared services, so make one thread's feature sets at a time
+			synchronized (FeatureExtractor.this)
+			{
+				IterableInterval<T> values = Regions.sample(example, image);
+				for (FeatureSetFactory<T> factory : factories)
+				{
+					FeatureSet<?,?> featureSet = factory.create(example, values);
+					if(featureSet instanceof AbstractFeatureSet)
+					{
+						((AbstractFeatureSet<?,?>) featureSet).setRegionContext(this.context);
+					}
+					this.featureSets.add(featureSet);
+					this.featureMaps.add(new HashMap<NamedFeature,DimensionMap>());
+				}
+			}
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public void calculate(LabelRegion<Integer> region, DimensionMap mapM, FeatureSink sink)
+		{
+			this.context.open(region);
+			try
+			{
+				IterableInterval<T> values = Regions.sample(region, image);
+				String id = "" + region.getLabel();
+				for (int i = 0; i < this.featureSets.size(); i++)
+				{
+					FeatureSet featureSet = this.featureSets.get(i);
+					Object input = factories.get(i).isRegionFeatureSet() ? region : values;
+					Map<NamedFeature,? extends RealType<?>> results = (Map<NamedFeature,? extends RealType<?>>) featureSet.calculate(input);
+					Map<NamedFeature,DimensionMap> maps = this.featureMaps.get(i);
+					for (Entry<NamedFeature,? extends RealType<?>> result : results.entrySet())
+					{
+						DimensionMap featureMap = maps.get(result.getKey());
+						if(featureMap == null)
+						{
+							featureMap = mapM.copy();
+							featureMap.put("Measurement", result.getKey().getName());
+							maps.put(result.getKey(), featureMap);
+						}
+						DimensionMap newMap = featureMap.copy();
+						newMap.put("Id", id);
+						sink.put(newMap, result.getValue().getRealDouble());
+					}
+				}
+			}
+			finally
+			{
+				this.context.release();
+			}
+		}
+	}
+
+	/**
+	 * Calculates the regions [from, to), splitting the range between threads
+	 */
+	class RegionTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Job job;
+		private final int from;
+		private final int to;
+
+		public RegionTask(Job job, int from, int to)
+		{
+			this.job = job;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if(this.to - this.from > MIN_REGIONS_PER_TASK)
+			{
+				int mid = (this.from + this.to) >>> 1;
+				invokeAll(new RegionTask(this.job, this.from, mid), new RegionTask(this.job, mid, this.to));
+				return;
+			}
+			Worker worker = this.job.getWorker();
+			for (int i = this.from; i < this.to; i++)
+			{
+				if(this.job.isCanceled())
+				{
+					return;
+				}
+				try
+				{
+					worker.calculate(this.job.regions.get(i), this.job.mapM, this.job.sink);
+				}
+				catch (RuntimeException e)
+				{
+					e.printStackTrace();
+					this.job.failed = true;
+					return;
+				}
+				this.job.regionDone();
+			}
+		}
+	}
+}
@@ -1,6 +1,11 @@
 package function.ops.featuresets.wrappers;
 
+import java.util.List;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import helper.objects.JEXCSVReader;
 import helper.objects.JEXCSVWriter;
@@ -10,27 +15,219 @@ import tables.DimensionMap;
 import utilities.Logs;
 import weka.core.converters.JEXTableWriter;
 
+/**
+ * Collects feature values from many threads into a single CSV (and optionally
+ * ARFF) table.
+ * 
+ * Writes don't share a lock. Each thread fills its own buffer of rows (the dim
+ * values of each row in header order plus a primitive double value) and hands
+ * full blocks of rows to a background thread, which is the only one writing to
+ * the JEXCSVWriter. close must be called after all writes have returned. It
+ * writes the partly filled buffers and waits for the background thread.
+ * 
+ * If the background thread fails to write a block, it keeps taking (and
+ * dropping) blocks so writers never wait on a full queue forever, and the
+ * following writes and close throw an IllegalStateException with the error.
+ */
 public class WriterWrapper {
 	
+	// Rows per block handed to the flusher
+	public static int BLOCK_SIZE = 1024;
+	// Blocks waiting to be written before writers have to wait for the flusher
+	public static int MAX_PENDING_BLOCKS = 64;
+	
 	public JEXCSVWriter writer = null;
-	public Set<String> header = null;
+	public volatile Set<String> header = null;
+	
+	private String[] headerKeys = null;
+	private final ThreadLocal<Block> shards = new ThreadLocal<Block>();
+	private final ConcurrentLinkedQueue<Block> openBlocks = new ConcurrentLinkedQueue<Block>();
+	private BlockingQueue<Block> pending = null;
+	private Thread flusher = null;
+	private volatile Throwable error = null;
 	
-	public static synchronized void write(WriterWrapper writer, DimensionMap map, Double value)
+	public static void write(WriterWrapper writer, DimensionMap map, Double value)
 	{
-		if (writer.writer == null) {
-			writer.writer = new JEXCSVWriter();
-			writer.writer.writeHeader(map);
+		if (writer.header == null) {
+			writer.start(map);
+		}
+		Block block = writer.shards.get();
+		if (block == null) {
+			block = writer.newBlock();
+		}
+		block.add(writer.makeRow(map), value);
+		if (block.size == BLOCK_SIZE) {
+			writer.openBlocks.remove(block);
+			writer.put(block);
+			writer.newBlock();
+		}
+	}
+	
+	/**
+	 * Write many rows at once (e.g., every feature of every cell of an image).
+	 * The rows go into the buffer of the calling thread, which is looked up
+	 * once rather than once per row.
+	 * 
+	 * @param writer
+	 * @param maps dims of each row
+	 * @param values value of each row (same order as maps)
+	 */
+	public static void write(WriterWrapper writer, List<DimensionMap> maps, double[] values)
+	{
+		if (maps.isEmpty()) {
+			return;
 		}
-		DimensionMap temp = map.copy();
 		if (writer.header == null) {
-			writer.header = map.copy().keySet();
+			writer.start(maps.get(0));
+		}
+		Block block = writer.shards.get();
+		if (block == null) {
+			block = writer.newBlock();
+		}
+		int i = 0;
+		for (DimensionMap map : maps) {
+			block.add(writer.makeRow(map), values[i]);
+			i++;
+			if (block.size == BLOCK_SIZE) {
+				writer.openBlocks.remove(block);
+				writer.put(block);
+				block = writer.newBlock();
+			}
+		}
+	}
+	
+	/**
+	 * Write the header and start the flusher on the first write
+	 */
+	private synchronized void start(DimensionMap map)
+	{
+		if (this.header != null) {
+			return;
+		}
+		this.writer = new JEXCSVWriter();
+		this.writer.writeHeader(map);
+		this.headerKeys = map.keySet().toArray(new String[map.size()]);
+		this.pending = new ArrayBlockingQueue<Block>(MAX_PENDING_BLOCKS);
+		this.flusher = new Thread(new Runnable(){
+			@Override
+			public void run()
+			{
+				WriterWrapper.this.flush();
+			}
+		}, "WriterWrapper-flusher");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+		this.header = map.copy().keySet();
+	}
+	
+	private Block newBlock()
+	{
+		Block block = new Block(BLOCK_SIZE);
+		this.shards.set(block);
+		this.openBlocks.add(block);
+		return block;
+	}
+	
+	private void put(Block block)
+	{
+		this.checkError();
+		this.enqueue(block);
+	}
+	
+	private void checkError()
+	{
+		if (this.error != null) {
+			throw new IllegalStateException("Writing the feature table failed", this.error);
+		}
+	}
+	
+	private void enqueue(Block block)
+	{
+		try
+		{
+			this.pending.put(block);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			// Write it on this thread rather than lose it
+			synchronized (this.writer)
+			{
+				block.writeTo(this.writer);
+			}
+		}
+	}
+	
+	/**
+	 * Runs on the flusher thread until it receives an empty block. Only the
+	 * first error is kept and the blocks after it are dropped.
+	 */
+	private void flush()
+	{
+		while (true) {
+			Block block;
+			try
+			{
+				block = this.pending.take();
+			}
+			catch (InterruptedException e)
+			{
+				// Keep taking blocks, otherwise writers would wait forever
+				continue;
+			}
+			if (block.size == 0) {
+				return;
+			}
+			if (this.error != null) {
+				continue;
+			}
+			try
+			{
+				synchronized (this.writer)
+				{
+					block.writeTo(this.writer);
+				}
+			}
+			catch (Throwable t)
+			{
+				Logs.log("Couldn't write the feature table: " + t, WriterWrapper.class);
+				t.printStackTrace();
+				this.error = t;
+			}
+		}
+	}
+	
+	/**
+	 * The dim values of the map in the order of the keys of the header,
+	 * using "NA" for header keys that are missing from the map (i.e., the
+	 * values of the map with missing header keys set to "NA"), with an
+	 * empty slot at the end for the value.
+	 */
+	private String[] makeRow(DimensionMap map)
+	{
+		if (map.size() == this.headerKeys.length) {
+			// Usual case: the keys match the header so the values are already in order
+			String[] row = new String[this.headerKeys.length + 1];
+			int i = 0;
+			for (Entry<String,String> e : map.entrySet()) {
+				if (!e.getKey().equals(this.headerKeys[i])) {
+					row = null;
+					break;
+				}
+				row[i] = e.getValue();
+				i++;
+			}
+			if (row != null) {
+				return row;
+			}
 		}
-		for (String s : writer.header) {
+		DimensionMap temp = map.copy();
+		for (String s : this.headerKeys) {
 			if (!map.containsKey(s)) {
 				temp.put(s, "NA");
 			}
 		}
-		writer.writer.write(temp, value.toString());
+		return temp.values().toArray(new String[temp.size() + 1]);
 	}
 	
 	public static synchronized Pair<String,String> close(WriterWrapper writer, boolean saveArff)
@@ -40,7 +237,9 @@ public class WriterWrapper {
 		{
 			return new Pair<String,String>(null, null);
 		}
+		writer.finish();
 		writer.writer.close();
+		writer.checkError();
 		String csvPath = writer.writer.getPath();
 		
 		String arffPath = null;
@@ -88,4 +287,63 @@ public class WriterWrapper {
 		
 		return new Pair<String,String>(csvPath, arffPath);
 	}
+	
+	/**
+	 * Hand the partly filled blocks to the flusher and wait for it to write everything
+	 */
+	private void finish()
+	{
+		if (this.flusher == null) {
+			return;
+		}
+		Block block;
+		while ((block = this.openBlocks.poll()) != null) {
+			if (block.size > 0 && this.error == null) {
+				this.enqueue(block);
+			}
+		}
+		this.enqueue(new Block(0));
+		try
+		{
+			this.flusher.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		this.flusher = null;
+	}
+	
+	/**
+	 * Rows buffered by one thread
+	 */
+	static class Block {
+		
+		public final String[][] rows;
+		public final double[] values;
+		// volatile so close sees the rows written by the thread that owns the block
+		public volatile int size = 0;
+		
+		public Block(int capacity)
+		{
+			this.rows = new String[capacity][];
+			this.values = new double[capacity];
+		}
+		
+		public void add(String[] row, double value)
+		{
+			this.rows[this.size] = row;
+			this.values[this.size] = value;
+			this.size = this.size + 1;
+		}
+		
+		public void writeTo(JEXCSVWriter writer)
+		{
+			for (int i = 0; i < this.size; i++) {
+				String[] row = this.rows[i];
+				row[row.length - 1] = Double.toString(this.values[i]);
+				writer.write(row);
+			}
+		}
+	}
 }
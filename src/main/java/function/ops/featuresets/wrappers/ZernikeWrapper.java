@@ -1,12 +1,21 @@
 package function.ops.featuresets.wrappers;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import IJ2.IJ2PluginUtility;
 import function.ops.featuresets.NamedFeature;
 import function.ops.featuresets.ZernikeFeatureSet;
 import function.ops.geometry.Circle;
+import function.ops.zernike.ZernikeBasisCache;
 import helper.objects.Canceler;
 import net.imglib2.IterableInterval;
 import net.imglib2.type.numeric.RealType;
@@ -14,63 +23,197 @@ import net.imglib2.type.numeric.real.DoubleType;
 import tables.DimensionMap;
 
 public class ZernikeWrapper<T extends RealType<T>> {
-	
+
 
 
 	public ZernikeFeatureSet<T> opZernike = null;
 	private int zernikeMomentMin, zernikeMomentMax;
-	
+	private int nThreads = Runtime.getRuntime().availableProcessors();
+	private ZernikeBasisCache basisCache = null;
+
+	// One feature set per worker thread for putZernikes
+	private List<ZernikeFeatureSet<T>> workerOps = new ArrayList<ZernikeFeatureSet<T>>();
+
 	public void setMinMoment(int min)
 	{
 		this.zernikeMomentMin = min;
 	}
-	
+
 	public void setMaxMoment(int max)
 	{
 		this.zernikeMomentMax = max;
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * @param nThreads number of threads used by putZernikes
+	 */
+	public void setThreads(int nThreads)
+	{
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	/**
+	 * Calculate the moments with the cached basis stencils of a
+	 * ZernikeBasisCache (approximate, see ZernikeBasisCache) or null to
+	 * evaluate the basis at every pixel (the default).
+	 */
+	public void setBasisCache(ZernikeBasisCache basisCache)
+	{
+		this.basisCache = basisCache;
+		if (this.opZernike != null) {
+			this.opZernike.setBasisCache(basisCache);
+		}
+		for (ZernikeFeatureSet<T> op : this.workerOps) {
+			op.setBasisCache(basisCache);
+		}
+	}
+
 	public boolean putZernike(WriterWrapper writer, DimensionMap mapM, int id, int label, IterableInterval<T> vals, Circle circle, Canceler canceler) {
 		if (canceler.isCanceled()) {
 			return false;
 		}
 		if (this.opZernike == null) {
-			opZernike = IJ2PluginUtility.ij().op().op(ZernikeFeatureSet.class, vals, zernikeMomentMin, zernikeMomentMax);
+			opZernike = this.makeOp(vals);
 		}
 
 		// Set the enclosing circle for this cell
 		opZernike.setEnclosingCircle(circle);
 
 		Map<NamedFeature, DoubleType> results = opZernike.calculate(vals);
+		DimensionMap cellMap = mapM.copy();
+		cellMap.put("Id", "" + id);
+		cellMap.put("Label", "" + label);
 		for (Entry<NamedFeature, DoubleType> result : results.entrySet()) {
-			DimensionMap newMap = mapM.copyAndSet("Measurement=" + result.getKey().getName());
-			newMap.put("Id", "" + id);
-			newMap.put("Label", "" + label);
+			DimensionMap newMap = cellMap.copy();
+			newMap.put("Measurement", result.getKey().getName());
 			WriterWrapper.write(writer, newMap, result.getValue().get());
 		}
+		return true;
+	}
 
-		// Set the enclosing circle for this cell
-		opZernike.setEnclosingCircle(circle);
+	/**
+	 * Calculate the Zernike features of every cell of an image on a pool of
+	 * threads (one ZernikeFeatureSet per thread) and write all the results at
+	 * once when every cell is done.
+	 *
+	 * @param writer
+	 * @param mapM dims of the image (Id, Label and Measurement are added for each row)
+	 * @param cells the cells of the image
+	 * @param canceler
+	 * @return false if canceled (nothing is written)
+	 */
+	public boolean putZernikes(WriterWrapper writer, DimensionMap mapM, final List<Cell<T>> cells, final Canceler canceler) {
+		if (canceler.isCanceled()) {
+			return false;
+		}
+		if (cells.isEmpty()) {
+			return true;
+		}
 
-		results = opZernike.calculate(vals);
-		for (Entry<NamedFeature, DoubleType> result : results.entrySet()) {
-			DimensionMap newMap = mapM.copyAndSet("Measurement=" + result.getKey().getName());
-			newMap.put("Id", "" + id);
-			newMap.put("Label", "" + label);
-			WriterWrapper.write(writer, newMap, result.getValue().get());
+		int nWorkers = Math.min(this.nThreads, cells.size());
+		while (this.workerOps.size() < nWorkers) {
+			this.workerOps.add(this.makeOp(cells.get(0).region));
 		}
+		final List<NamedFeature> features = this.workerOps.get(0).getFeatures();
+		final double[][] results = new double[cells.size()][];
 
-		// Set the enclosing circle for this cell
-		opZernike.setEnclosingCircle(circle);
+		// Each worker takes the next cell until there are none left
+		final AtomicInteger next = new AtomicInteger(0);
+		List<Callable<Boolean>> workers = new ArrayList<Callable<Boolean>>();
+		for (int w = 0; w < nWorkers; w++) {
+			final ZernikeFeatureSet<T> op = this.workerOps.get(w);
+			workers.add(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					int i;
+					while ((i = next.getAndIncrement()) < cells.size()) {
+						if (canceler.isCanceled()) {
+							return false;
+						}
+						Cell<T> cell = cells.get(i);
+						op.setEnclosingCircle(cell.circle);
+						Map<NamedFeature, DoubleType> result = op.calculate(cell.region);
+						double[] values = new double[features.size()];
+						int j = 0;
+						for (NamedFeature feature : features) {
+							DoubleType value = result.get(feature);
+							values[j] = value == null ? Double.NaN : value.get();
+							j++;
+						}
+						results[i] = values;
+					}
+					return true;
+				}
+			});
+		}
 
-		results = opZernike.calculate(vals);
-		for (Entry<NamedFeature, DoubleType> result : results.entrySet()) {
-			DimensionMap newMap = mapM.copyAndSet("Measurement=" + result.getKey().getName());
-			newMap.put("Id", "" + id);
-			newMap.put("Label", "" + label);
-			WriterWrapper.write(writer, newMap, result.getValue().get());
+		ExecutorService executor = Executors.newFixedThreadPool(nWorkers);
+		try {
+			for (Future<Boolean> f : executor.invokeAll(workers)) {
+				if (!f.get()) {
+					return false;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+			return false;
+		} finally {
+			executor.shutdownNow();
+		}
+		if (canceler.isCanceled()) {
+			return false;
 		}
+
+		// The dims of each feature are made once for the image and only Id and Label are set per cell
+		List<DimensionMap> featureMaps = new ArrayList<DimensionMap>();
+		for (NamedFeature feature : features) {
+			DimensionMap featureMap = mapM.copy();
+			featureMap.put("Measurement", feature.getName());
+			featureMaps.add(featureMap);
+		}
+		List<DimensionMap> maps = new ArrayList<DimensionMap>(cells.size() * features.size());
+		double[] values = new double[cells.size() * features.size()];
+		for (int i = 0; i < cells.size(); i++) {
+			String id = "" + cells.get(i).id;
+			String label = "" + cells.get(i).label;
+			for (int j = 0; j < features.size(); j++) {
+				DimensionMap newMap = featureMaps.get(j).copy();
+				newMap.put("Id", id);
+				newMap.put("Label", label);
+				values[maps.size()] = results[i][j];
+				maps.add(newMap);
+			}
+		}
+		WriterWrapper.write(writer, maps, values);
 		return true;
 	}
+
+	@SuppressWarnings("unchecked")
+	private ZernikeFeatureSet<T> makeOp(IterableInterval<T> vals) {
+		ZernikeFeatureSet<T> op = IJ2PluginUtility.ij().op().op(ZernikeFeatureSet.class, vals, zernikeMomentMin, zernikeMomentMax);
+		op.setBasisCache(this.basisCache);
+		return op;
+	}
+
+	/**
+	 * A cell of an image for putZernikes
+	 */
+	public static class Cell<T extends RealType<T>> {
+
+		public final int id;
+		public final int label;
+		public final IterableInterval<T> region;
+		public final Circle circle;
+
+		public Cell(int id, int label, IterableInterval<T> region, Circle circle)
+		{
+			this.id = id;
+			this.label = label;
+			this.region = region;
+			this.circle = circle;
+		}
+	}
 }
@@ -0,0 +1,293 @@
+package function.ops.haralick;
+
+import java.util.Arrays;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Calculates the gray level co-occurrence matrices (GLCM) of a region for
+ * several offsets (direction times distance) in a single pass and the
+ * Haralick features of each matrix in a single sweep over the matrix.
+ *
+ * The pixels of the region are quantized into numGreyLevels levels between
+ * the min and max of the region (as CooccurrenceMatrix2D of imagej-ops) into
+ * an int grid covering the bounding box of the region (-1 outside the
+ * region). Each pixel of the grid is then paired with the pixel at each
+ * offset and the pair is counted in the int[] matrix of that offset (pairs
+ * are ordered, i.e., the matrix isn't made symmetric, and both pixels must
+ * be in the region). The grid, matrices and feature arrays are reused from
+ * region to region, so an engine should be kept per thread.
+ *
+ * Features follow the imagej-ops Haralick ops, where p(i,j) is the matrix
+ * divided by the number of pairs, px and py are its marginals, p(x+y)(k) sums
+ * p(i,j) with (i + 1) + (j + 1) = k, p(x-y)(k) sums p(i,j) with |i - j| = k
+ * and entropies use the natural log of p + Double.MIN_NORMAL. Since every
+ * p(i,j) > 0 has px(i) > 0 and py(j) > 0, HXY1 and HXY2 of the information
+ * measures of correlation both equal HX + HY, which saves a sweep.
+ *
+ * @author Jay Warrick
+ */
+public class HaralickEngine {
+
+	public static final int ASM = 0;
+	public static final int CLUSTER_PROMENENCE = 1;
+	public static final int CLUSTER_SHADE = 2;
+	public static final int CONTRAST = 3;
+	public static final int CORRELATION = 4;
+	public static final int DIFFERENCE_ENTROPY = 5;
+	public static final int DIFFERENCE_VARIANCE = 6;
+	public static final int ENTROPY = 7;
+	public static final int ICM1 = 8;
+	public static final int ICM2 = 9;
+	public static final int IFDM = 10;
+	public static final int MAX_PROBABILITY = 11;
+	public static final int SUM_AVERAGE = 12;
+	public static final int SUM_ENTROPY = 13;
+	public static final int SUM_VARIANCE = 14;
+	public static final int TEXTURE_HOMOGENEITY = 15;
+	public static final int VARIANCE = 16;
+	public static final int NUM_FEATURES = 17;
+
+	private static final double EPSILON = Double.MIN_NORMAL;
+
+	private final int numGreyLevels;
+	private final int[] dx;
+	private final int[] dy;
+
+	// Quantized bounding box of the current region
+	private int[] grid = new int[0];
+	private int width = 0;
+	private int height = 0;
+
+	// One count matrix (numGreyLevels^2, row major) per offset
+	private final int[][] counts;
+	private final int[] nPairs;
+
+	// Scratch for the feature sweep
+	private final double[] px;
+	private final double[] py;
+	private final double[] pxPlusY;
+	private final double[] pxMinusY;
+	private final double[][] features;
+
+	/**
+	 * Class constructor
+	 *
+	 * @param numGreyLevels size of each matrix
+	 * @param dx offset in x of each matrix (e.g., orientation x times distance)
+	 * @param dy offset in y of each matrix
+	 */
+	public HaralickEngine(int numGreyLevels, int[] dx, int[] dy) {
+		this.numGreyLevels = numGreyLevels;
+		this.dx = dx.clone();
+		this.dy = dy.clone();
+		this.counts = new int[dx.length][numGreyLevels * numGreyLevels];
+		this.nPairs = new int[dx.length];
+		this.px = new double[numGreyLevels];
+		this.py = new double[numGreyLevels];
+		this.pxPlusY = new double[2 * numGreyLevels + 1];
+		this.pxMinusY = new double[numGreyLevels];
+		this.features = new double[dx.length][NUM_FEATURES];
+	}
+
+	public int getNumGreyLevels() {
+		return this.numGreyLevels;
+	}
+
+	public int getNumOffsets() {
+		return this.dx.length;
+	}
+
+	/**
+	 * Calculate the matrices and features of a 2D region.
+	 *
+	 * @param region
+	 *            (values must be RealTypes)
+	 */
+	public void compute(IterableInterval<?> region) {
+		this.quantize(region);
+		this.countPairs();
+		for (int m = 0; m < this.counts.length; m++) {
+			this.sweep(m);
+		}
+	}
+
+	/**
+	 * @param m index of the offset
+	 * @return the features of the matrix of the offset (see ASM etc.), valid
+	 *         until the next call to compute
+	 */
+	public double[] getFeatures(int m) {
+		return this.features[m];
+	}
+
+	/**
+	 * @param m index of the offset
+	 * @return the counts of the matrix of the offset (row major), valid until
+	 *         the next call to compute
+	 */
+	public int[] getCounts(int m) {
+		return this.counts[m];
+	}
+
+	public int getNumPairs(int m) {
+		return this.nPairs[m];
+	}
+
+	private void quantize(IterableInterval<?> region) {
+		this.width = (int) region.dimension(0);
+		this.height = (int) region.dimension(1);
+		int size = this.width * this.height;
+		if (this.grid.length < size) {
+			this.grid = new int[size];
+		}
+		Arrays.fill(this.grid, 0, size, -1);
+
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		Cursor<?> c = region.cursor();
+		while (c.hasNext()) {
+			double v = ((RealType<?>) c.next()).getRealDouble();
+			min = Math.min(min, v);
+			max = Math.max(max, v);
+		}
+		double diff = max - min;
+
+		long minX = region.min(0);
+		long minY = region.min(1);
+		c = region.localizingCursor();
+		while (c.hasNext()) {
+			c.fwd();
+			int bin = (int) (((((RealType<?>) c.get()).getRealDouble() - min) / diff) * this.numGreyLevels);
+			int x = (int) (c.getLongPosition(0) - minX);
+			int y = (int) (c.getLongPosition(1) - minY);
+			this.grid[y * this.width + x] = bin < this.numGreyLevels - 1 ? bin : this.numGreyLevels - 1;
+		}
+	}
+
+	private void countPairs() {
+		final int g = this.numGreyLevels;
+		final int nOffsets = this.dx.length;
+		for (int m = 0; m < nOffsets; m++) {
+			Arrays.fill(this.counts[m], 0);
+			this.nPairs[m] = 0;
+		}
+		for (int y = 0; y < this.height; y++) {
+			int row = y * this.width;
+			for (int x = 0; x < this.width; x++) {
+				int a = this.grid[row + x];
+				if (a < 0) {
+					continue;
+				}
+				for (int m = 0; m < nOffsets; m++) {
+					int sx = x + this.dx[m];
+					int sy = y + this.dy[m];
+					if (sx < 0 || sy < 0 || sx >= this.width || sy >= this.height) {
+						continue;
+					}
+					int b = this.grid[sy * this.width + sx];
+					if (b >= 0) {
+						this.counts[m][a * g + b]++;
+						this.nPairs[m]++;
+					}
+				}
+			}
+		}
+	}
+
+	private void sweep(int m) {
+		final int g = this.numGreyLevels;
+		final int[] matrix = this.counts[m];
+		final double[] f = this.features[m];
+		Arrays.fill(this.px, 0);
+		Arrays.fill(this.py, 0);
+		Arrays.fill(this.pxPlusY, 0);
+		Arrays.fill(this.pxMinusY, 0);
+		double norm = this.nPairs[m] > 0 ? 1.0 / this.nPairs[m] : 0;
+
+		// One sweep over the matrix for everything that needs p(i,j)
+		double asm = 0, entropy = 0, ifdm = 0, homogeneity = 0, maxP = 0, sumIJ = 0;
+		for (int i = 0; i < g; i++) {
+			int row = i * g;
+			for (int j = 0; j < g; j++) {
+				double p = matrix[row + j] * norm;
+				if (p == 0) {
+					continue;
+				}
+				int d = i > j ? i - j : j - i;
+				this.px[i] = this.px[i] + p;
+				this.py[j] = this.py[j] + p;
+				this.pxPlusY[i + j + 2] = this.pxPlusY[i + j + 2] + p;
+				this.pxMinusY[d] = this.pxMinusY[d] + p;
+				asm = asm + p * p;
+				entropy = entropy + p * Math.log(p + EPSILON);
+				ifdm = ifdm + p / (1 + d * d);
+				homogeneity = homogeneity + p / (1 + d);
+				maxP = Math.max(maxP, p);
+				sumIJ = sumIJ + i * (double) j * p;
+			}
+		}
+		entropy = -entropy;
+
+		// The rest only needs the marginals
+		double meanX = 0, meanY = 0, hx = 0, hy = 0;
+		for (int i = 0; i < g; i++) {
+			meanX = meanX + i * this.px[i];
+			meanY = meanY + i * this.py[i];
+			hx = hx - this.px[i] * Math.log(this.px[i] + EPSILON);
+			hy = hy - this.py[i] * Math.log(this.py[i] + EPSILON);
+		}
+		double varX = 0, varY = 0;
+		for (int i = 0; i < g; i++) {
+			varX = varX + (i - meanX) * (i - meanX) * this.px[i];
+			varY = varY + (i - meanY) * (i - meanY) * this.py[i];
+		}
+
+		// Cluster shade and prominence are moments of i + j about meanX + meanY
+		double sumAverage = 0, sumEntropy = 0, shade = 0, prominence = 0;
+		for (int k = 2; k <= 2 * g; k++) {
+			double p = this.pxPlusY[k];
+			sumAverage = sumAverage + k * p;
+			sumEntropy = sumEntropy - p * Math.log(p + EPSILON);
+			double s = k - 2 - meanX - meanY;
+			shade = shade + s * s * s * p;
+			prominence = prominence + s * s * s * s * p;
+		}
+		double sumVariance = 0;
+		for (int k = 2; k <= 2 * g; k++) {
+			sumVariance = sumVariance + (k - sumAverage) * (k - sumAverage) * this.pxPlusY[k];
+		}
+
+		double contrast = 0, diffMean = 0, diffEntropy = 0;
+		for (int k = 0; k < g; k++) {
+			double p = this.pxMinusY[k];
+			contrast = contrast + k * k * p;
+			diffMean = diffMean + k * p;
+			diffEntropy = diffEntropy - p * Math.log(p + EPSILON);
+		}
+		double diffVariance = 0;
+		for (int k = 0; k < g; k++) {
+			diffVariance = diffVariance + (k - diffMean) * (k - diffMean) * this.pxMinusY[k];
+		}
+
+		f[ASM] = asm;
+		f[CLUSTER_PROMENENCE] = prominence;
+		f[CLUSTER_SHADE] = shade;
+		f[CONTRAST] = contrast;
+		f[CORRELATION] = (sumIJ - meanX * meanY) / Math.sqrt(varX * varY);
+		f[DIFFERENCE_ENTROPY] = diffEntropy;
+		f[DIFFERENCE_VARIANCE] = diffVariance;
+		f[ENTROPY] = entropy;
+		f[ICM1] = (entropy - (hx + hy)) / Math.max(hx, hy);
+		f[ICM2] = Math.sqrt(1 - Math.exp(-2 * (hx + hy - entropy)));
+		f[IFDM] = ifdm;
+		f[MAX_PROBABILITY] = maxP;
+		f[SUM_AVERAGE] = sumAverage;
+		f[SUM_ENTROPY] = sumEntropy;
+		f[SUM_VARIANCE] = sumVariance;
+		f[TEXTURE_HOMOGENEITY] = homogeneity;
+		f[VARIANCE] = varX;
+	}
+}
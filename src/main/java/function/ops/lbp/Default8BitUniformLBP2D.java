@@ -38,10 +38,7 @@ import org.scijava.plugin.Plugin;
 
 import net.imagej.ops.Ops;
 import net.imagej.ops.features.lbp2d.AbstractLBP2DFeature;
-import net.imagej.ops.features.lbp2d.DefaultLBP2D;
 import net.imagej.ops.features.lbp2d.LBP2DFeature;
-import net.imagej.ops.special.function.Functions;
-import net.imagej.ops.special.function.UnaryFunctionOp;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.LongType;
@@ -77,30 +74,26 @@ public class Default8BitUniformLBP2D<I extends RealType<I>> extends AbstractLBP2
 			47, 48, 58, 49, 58, 58, 58, 50, 51, 52, 58, 53, 54, 55, 56, 57 };
 
 	
-	@SuppressWarnings("rawtypes")
-	private UnaryFunctionOp<RandomAccessibleInterval, ArrayList> lbp2dOp;
-
-	@Override
-	public void initialize() {
-		lbp2dOp = Functions.unary(ops(), DefaultLBP2D.class, ArrayList.class, in(), 1, 256);
-	}
-
 	@Override
 	public ArrayList<LongType> createOutput(RandomAccessibleInterval<I> input) {
 		return new ArrayList<>();
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Adds the uniform code of each pixel to the output (one element per
+	 * pixel). Use UniformLBPHistogram2D to get the histogram of the codes
+	 * directly without making an element per pixel.
+	 */
 	@Override
 	public void compute(RandomAccessibleInterval<I> input,
 		ArrayList<LongType> output)
 	{
-		ArrayList<LongType> numberList = lbp2dOp.calculate(input);
-		for(int i = 0; i < numberList.size(); i++)
+		long[] hist = UniformLBPHistogram2D.histogram(input, false);
+		for(int i = 0; i < hist.length; i++)
 		{
-			long num = numberList.get(i).getIntegerLong();
+			long num = hist[i];
 			for(long l = 0; l < num; l++)
-			output.add(new LongType(uniformLookupTable[i]));
+			output.add(new LongType(i));
 		}
 	}
 }
\ No newline at end of file
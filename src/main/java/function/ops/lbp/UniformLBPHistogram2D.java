@@ -0,0 +1,178 @@
+package function.ops.lbp;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import function.ops.JEXOps;
+import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Histogram of the uniform (8,1) local binary pattern codes of a 2D image,
+ * calculated directly into a long[59] (bins 0-57 are the uniform patterns
+ * and bin 58 is every non-uniform pattern, see
+ * Default8BitUniformLBP2D.uniformLookupTable).
+ *
+ * The pixels of each row are copied into a primitive buffer (along with the
+ * rows above and below, padded with zeros like the extendZero view of
+ * DefaultLBP2D), the 8 bit code of each pixel is built by comparing it to its
+ * neighbors (bit set if the neighbor is >= the pixel, in the clockwise order
+ * of ClockwiseDistanceNeighborhoodIterator starting at the upper left) and the
+ * bin of the code is looked up and counted. Nothing is allocated per pixel.
+ *
+ * If parallel is true, the rows are split into strips that are counted on
+ * the ForkJoinPool (the current one if called from a pool, e.g., by
+ * FeatureExtractor, otherwise the common pool) and the histograms of the
+ * strips are added up.
+ *
+ * @author Jay Warrick
+ * @param <I>
+ */
+@Plugin(type = JEXOps.UniformLBPHistogram.class, label = "Uniform (8,1) LBP Histogram")
+public class UniformLBPHistogram2D<I extends RealType<I>> extends AbstractUnaryFunctionOp<RandomAccessibleInterval<I>, long[]> implements JEXOps.UniformLBPHistogram
+{
+	public static final int BINS = 59;
+
+	// Number of rows below which a strip isn't split any further
+	public static int MIN_ROWS_PER_TASK = 64;
+
+	private static final int[] LUT = new int[256];
+	static {
+		for (int i = 0; i < 256; i++) {
+			LUT[i] = (int) Default8BitUniformLBP2D.uniformLookupTable[i];
+		}
+	}
+
+	@Parameter(required = false)
+	private boolean parallel = false;
+
+	@Override
+	public long[] calculate(RandomAccessibleInterval<I> input) {
+		return histogram(input, this.parallel);
+	}
+
+	/**
+	 * @param input 2D image
+	 * @param parallel true to count strips of rows in parallel
+	 * @return the histogram of uniform LBP codes (59 bins)
+	 */
+	public static <I extends RealType<I>> long[] histogram(RandomAccessibleInterval<I> input, boolean parallel) {
+		long height = input.dimension(1);
+		if (!parallel || height <= MIN_ROWS_PER_TASK) {
+			long[] ret = new long[BINS];
+			accumulate(input, 0, height, ret);
+			return ret;
+		}
+		StripTask<I> task = new StripTask<I>(input, 0, height);
+		if (ForkJoinTask.inForkJoinPool()) {
+			return task.invoke();
+		}
+		return ForkJoinPool.commonPool().invoke(task);
+	}
+
+	/**
+	 * Add the codes of rows [fromRow, toRow) (relative to the min of the
+	 * input) to the histogram.
+	 *
+	 * @param input 2D image
+	 * @param fromRow
+	 * @param toRow
+	 * @param hist 59 bins
+	 */
+	public static <I extends RealType<I>> void accumulate(RandomAccessibleInterval<I> input, long fromRow, long toRow, long[] hist) {
+		if (toRow <= fromRow) {
+			return;
+		}
+		int width = (int) input.dimension(0);
+		long x0 = input.min(0);
+		long y0 = input.min(1);
+		RandomAccess<I> ra = Views.extendZero(input).randomAccess();
+
+		double[] above = new double[width + 2];
+		double[] row = new double[width + 2];
+		double[] below = new double[width + 2];
+		readRow(ra, x0 - 1, y0 + fromRow - 1, above);
+		readRow(ra, x0 - 1, y0 + fromRow, row);
+		for (long y = fromRow; y < toRow; y++) {
+			readRow(ra, x0 - 1, y0 + y + 1, below);
+			accumulateRow(above, row, below, width, hist);
+			double[] temp = above;
+			above = row;
+			row = below;
+			below = temp;
+		}
+	}
+
+	private static <I extends RealType<I>> void readRow(RandomAccess<I> ra, long x, long y, double[] buffer) {
+		ra.setPosition(x, 0);
+		ra.setPosition(y, 1);
+		for (int i = 0; i < buffer.length; i++) {
+			buffer[i] = ra.get().getRealDouble();
+			ra.fwd(0);
+		}
+	}
+
+	/**
+	 * Count the codes of one row. Each buffer holds the row padded with one
+	 * pixel on each side (i.e., pixel x of the row is at x + 1). Bits 0-7
+	 * are the neighbors clockwise from the upper left.
+	 */
+	static void accumulateRow(double[] above, double[] row, double[] below, int width, long[] hist) {
+		for (int x = 1; x <= width; x++) {
+			double c = row[x];
+			int code = 0;
+			if (above[x - 1] >= c) code |= 1;
+			if (above[x] >= c) code |= 2;
+			if (above[x + 1] >= c) code |= 4;
+			if (row[x + 1] >= c) code |= 8;
+			if (below[x + 1] >= c) code |= 16;
+			if (below[x] >= c) code |= 32;
+			if (below[x - 1] >= c) code |= 64;
+			if (row[x - 1] >= c) code |= 128;
+			hist[LUT[code]]++;
+		}
+	}
+
+	/**
+	 * Counts the rows [from, to), splitting them between threads
+	 */
+	static class StripTask<I extends RealType<I>> extends RecursiveTask<long[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final RandomAccessibleInterval<I> input;
+		private final long from;
+		private final long to;
+
+		public StripTask(RandomAccessibleInterval<I> input, long from, long to) {
+			this.input = input;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected long[] compute() {
+			if (this.to - this.from > MIN_ROWS_PER_TASK) {
+				long mid = (this.from + this.to) >>> 1;
+				StripTask<I> left = new StripTask<I>(this.input, this.from, mid);
+				left.fork();
+				long[] ret = new StripTask<I>(this.input, mid, this.to).compute();
+				long[] other = left.join();
+				for (int i = 0; i < BINS; i++) {
+					ret[i] = ret[i] + other[i];
+				}
+				return ret;
+			}
+			long[] ret = new long[BINS];
+			accumulate(this.input, this.from, this.to, ret);
+			return ret;
+		}
+	}
+}
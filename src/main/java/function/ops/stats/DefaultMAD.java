@@ -30,59 +30,51 @@
 
 package function.ops.stats;
 
-import java.util.Vector;
-
+import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
 import function.ops.JEXOps;
 import net.imagej.ops.Op;
-import net.imagej.ops.Ops;
-import net.imagej.ops.special.chain.RTs;
 import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
-import net.imagej.ops.special.function.UnaryFunctionOp;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.ValuePair;
 
 /**
- * {@link Op} to calculate the {@code stats.stdDev} using
- * {@code stats.variance}.
+ * {@link Op} to calculate the median and the median absolute deviation (MAD,
+ * scaled by 1.4826 to estimate the standard deviation of normal data).
+ * 
+ * The values are copied into a reusable primitive buffer and the median and
+ * the median of the absolute deviations are found with quickselect (or a
+ * histogram for integer valued data, see {@link SampleBuffer}), so nothing is
+ * allocated per pixel. The median is the (n/2)th smallest value, as the
+ * {@code stats.median} op.
  * 
  * @author Daniel Seebacher (University of Konstanz)
  * @author Christian Dietz (University of Konstanz)
  * @param <I> input type
- * @param <O> output type
  */
 @Plugin(type = JEXOps.MAD.class, label = "Statistics: MAD")
 public class DefaultMAD<I extends RealType<I>>
 	extends AbstractUnaryFunctionOp<Iterable<I>, ValuePair<Double, Double>> implements JEXOps.MAD
 {
 	
-	private UnaryFunctionOp<Iterable<I>, DoubleType> median1;
-	private UnaryFunctionOp<Iterable<DoubleType>, DoubleType> median2;
-
-	@Override
-	public void initialize() {
-		median1 = RTs.function(ops(), Ops.Stats.Median.class, in());
-		median2 = RTs.function(ops(), Ops.Stats.Median.class, new Vector<DoubleType>());
-	}
+	/**
+	 * Bin integer values with a wide range into a histogram (see
+	 * {@link SampleBuffer}) rather than finding the exact values.
+	 */
+	@Parameter(required = false)
+	private boolean approximate = false;
+	
+	private final SampleBuffer buffer = new SampleBuffer();
 
 	@Override
 	public ValuePair<Double,Double> calculate(final Iterable<I> input) {
 		
-		DoubleType med = this.median1.calculate(input);
-		Double mad = this.mad(input, med.getRealDouble());
-		return new ValuePair<Double,Double>(med.getRealDouble(), mad);
-	}
-	
-	private Double mad(Iterable<I> values, double med)
-	{
-		Vector<DoubleType> diffs = new Vector<DoubleType>();
-		for (I d : values)
-		{
-			diffs.add(new DoubleType(Math.abs(d.getRealDouble() - med)));
-		}
-		return 1.4826 * median2.calculate(diffs).getRealDouble();
+		this.buffer.setApproximate(this.approximate);
+		this.buffer.fill(input);
+		double med = this.buffer.median();
+		double mad = 1.4826 * this.buffer.mad(med);
+		return new ValuePair<Double,Double>(med, mad);
 	}
 
 }
@@ -63,13 +63,20 @@ AbstractUnaryFunctionOp<Iterable<I>, ValuePair<Double,Double>> implements JEXOps
 	@Parameter(min = "0", max = "100")
 	private double upperPercentile;
 
+	/**
+	 * Bin integer values with a wide range into a histogram (see
+	 * {@link SampleBuffer}) rather than finding the exact values.
+	 */
+	@Parameter(required = false)
+	private boolean approximate = false;
+
 	private UnaryFunctionOp<Iterable<I>, ValuePair<Double,Double>> limitsOp;
 
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@Override
 	public void initialize() {
 		limitsOp = (UnaryFunctionOp) Functions.unary(ops(), DefaultQuantileLimits.class, ValuePair.class,
-				in() == null ? Iterable.class : in(), lowerPercentile/100.0, upperPercentile/100.0);
+				in() == null ? Iterable.class : in(), lowerPercentile/100.0, upperPercentile/100.0, approximate);
 	}
 
 	@Override
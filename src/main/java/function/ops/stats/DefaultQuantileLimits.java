@@ -35,22 +35,22 @@ import org.scijava.plugin.Plugin;
 
 import function.ops.JEXOps;
 import net.imagej.ops.Op;
-import net.imagej.ops.Ops;
-import net.imagej.ops.special.computer.Computers;
-import net.imagej.ops.special.computer.UnaryComputerOp;
 import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.ValuePair;
 
 /**
- * {@link Op} to calculate the n-th {@code stats.percentile}.
+ * {@link Op} to calculate a lower and upper {@code stats.quantile}.
+ * 
+ * The values are copied once into a reusable primitive buffer and both
+ * quantiles are found with quickselect (or a histogram for integer valued
+ * data, see {@link SampleBuffer}). The qth quantile is the (n*q)th smallest
+ * value, as the {@code stats.quantile} op.
  * 
  * @author Daniel Seebacher (University of Konstanz)
  * @author Christian Dietz (University of Konstanz)
  * @author Jan Eglinger
  * @param <I> input type
- * @param <O> output type
  */
 @Plugin(type = JEXOps.Limits.class, label = "Statistics: Quantile Limits")
 public class DefaultQuantileLimits<I extends RealType<I>> extends
@@ -63,24 +63,21 @@ public class DefaultQuantileLimits<I extends RealType<I>> extends
 	@Parameter(min = "0.0", max = "1.0")
 	private double upperQuantile;
 	
-	private UnaryComputerOp<Iterable<I>, DoubleType> lowerOp;
-	private UnaryComputerOp<Iterable<I>, DoubleType> upperOp;
-
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	@Override
-	public void initialize() {
-		lowerOp = (UnaryComputerOp) Computers.unary(ops(), Ops.Stats.Quantile.class, out(),
-				in() == null ? Iterable.class : in(), lowerQuantile);
-		upperOp = (UnaryComputerOp) Computers.unary(ops(), Ops.Stats.Quantile.class, out(),
-				in() == null ? Iterable.class : in(), upperQuantile);
-	}
+	/**
+	 * Bin integer values with a wide range into a histogram (see
+	 * {@link SampleBuffer}) rather than finding the exact values.
+	 */
+	@Parameter(required = false)
+	private boolean approximate = false;
+	
+	private final SampleBuffer buffer = new SampleBuffer();
 	
 	@Override
 	public ValuePair<Double, Double> calculate(final Iterable<I> input) {
-		DoubleType ll = new DoubleType(0.0d);
-		DoubleType ul = new DoubleType(0.0d);
-		lowerOp.compute(input, ll);
-		upperOp.compute(input, ul);
-		return new ValuePair<>(ll.getRealDouble(), ul.getRealDouble());
+		this.buffer.setApproximate(this.approximate);
+		this.buffer.fill(input);
+		double ll = this.buffer.quantile(this.lowerQuantile);
+		double ul = this.buffer.quantile(this.upperQuantile);
+		return new ValuePair<>(ll, ul);
 	}
 }
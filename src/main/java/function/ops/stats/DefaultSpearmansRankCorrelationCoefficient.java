@@ -13,7 +13,6 @@ import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.Pair;
-import sc.fiji.coloc.algorithms.SpearmanRankCorrelation;
 import utilities.FeatureUtils;
 
 @Plugin(type = JEXOps.SpearmansRankCorrelationCoefficient.class, priority = Priority.NORMAL)
@@ -34,11 +33,19 @@ implements JEXOps.SpearmansRankCorrelationCoefficient {
 		return new DoubleType(r);
 	}
 
-	// The Static method of the help class is not thread-safe so it causes errors when running multiple threads.
-	// This will funnel calls to the helper class through a synchronized method call.
+	// One calculator (and its scratch buffers) per thread, so no locking is needed
+	private static final ThreadLocal<SpearmanCalculator<?>> calculators = new ThreadLocal<SpearmanCalculator<?>>(){
+		@Override
+		protected SpearmanCalculator<?> initialValue()
+		{
+			return new SpearmanCalculator<DoubleType>();
+		}
+	};
+
+	@SuppressWarnings("unchecked")
 	public static <T extends RealType<T>, C extends Cursor<T> & PairIterator<T>> double calculateSpearmanRank(C c)
 	{
-		SpearmanCalculator<T> spc = new SpearmanCalculator<>();
+		SpearmanCalculator<T> spc = (SpearmanCalculator<T>) calculators.get();
 		double r = spc.calculateSpearmanRank(c);
 		return r;
 	}
@@ -64,14 +71,13 @@ implements JEXOps.SpearmansRankCorrelationCoefficient {
 		return data;
 	}
 
-	// The Static method of the help class is not thread-safe so it causes errors when running multiple threads.
-	// This will funnel calls to the helper class through a synchronized method call.
-	public static synchronized <T extends RealType<T>, C extends Cursor<T> & PairIterator<T>> double calculateSpearmanRankSynchronized(C c)
+	/**
+	 * @deprecated calculateSpearmanRank is thread safe, use it instead
+	 */
+	@Deprecated
+	public static <T extends RealType<T>, C extends Cursor<T> & PairIterator<T>> double calculateSpearmanRankSynchronized(C c)
 	{
-		double[][] data = getPairedData(c);
-		SpearmanRankCorrelation<DoubleType> sc = new SpearmanRankCorrelation<>();
-		double r = sc.calculateSpearmanRank(data);
-		return r;
+		return calculateSpearmanRank(c);
 	}
 
 }
\ No newline at end of file
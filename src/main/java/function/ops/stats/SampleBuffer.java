@@ -0,0 +1,167 @@
+package function.ops.stats;
+
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Reusable primitive copy of the values of an Iterable of RealTypes for order
+ * statistics (median, quantiles, MAD) without boxing a value per pixel.
+ *
+ * Order statistics are found with quickselect (see StatsAccumulator.select).
+ * When every value is an integer and the range of values is at most
+ * MAX_HISTOGRAM_BINS, they are found exactly from a histogram of the values
+ * instead (linear time). If approximate is set, larger ranges of integer
+ * values are binned into MAX_HISTOGRAM_BINS bins and the center of the bin
+ * is returned, which is within (bin width - 1) / 2 of the exact answer.
+ *
+ * A SampleBuffer isn't thread safe. Ops that use one keep their own.
+ *
+ * @author Jay Warrick
+ */
+public class SampleBuffer {
+
+	public static int MAX_HISTOGRAM_BINS = 1 << 16;
+
+	private double[] values = new double[1024];
+	private int n = 0;
+	private double min = 0;
+	private double max = 0;
+	private boolean integers = true;
+	private boolean approximate = false;
+
+	private int[] counts = new int[0];
+
+	public void setApproximate(boolean approximate) {
+		this.approximate = approximate;
+	}
+
+	/**
+	 * Copy the values (replacing any previous ones)
+	 *
+	 * @param input
+	 * @return the number of values
+	 */
+	public int fill(Iterable<? extends RealType<?>> input) {
+		this.n = 0;
+		this.min = Double.POSITIVE_INFINITY;
+		this.max = Double.NEGATIVE_INFINITY;
+		this.integers = true;
+		for (RealType<?> t : input) {
+			this.put(t.getRealDouble());
+		}
+		return this.n;
+	}
+
+	private void put(double x) {
+		if (this.n == this.values.length) {
+			double[] temp = new double[2 * this.values.length];
+			System.arraycopy(this.values, 0, temp, 0, this.n);
+			this.values = temp;
+		}
+		this.values[this.n] = x;
+		this.n++;
+		if (x < this.min) {
+			this.min = x;
+		}
+		if (x > this.max) {
+			this.max = x;
+		}
+		this.integers = this.integers && x == Math.rint(x);
+	}
+
+	public int size() {
+		return this.n;
+	}
+
+	/**
+	 * @param k
+	 * @return the kth smallest value (0 based) or NaN if there are no values
+	 */
+	public double select(int k) {
+		if (this.n == 0) {
+			return Double.NaN;
+		}
+		double width = this.getBinWidth();
+		if (width > 0) {
+			return this.selectFromHistogram(k, width);
+		}
+		return StatsAccumulator.select(this.values, 0, this.n - 1, k);
+	}
+
+	/**
+	 * @return the (n/2)th smallest value (as the Median op)
+	 */
+	public double median() {
+		return this.select(this.n / 2);
+	}
+
+	/**
+	 * @param q quantile between 0 and 1
+	 * @return the (n*q)th smallest value (as the Quantile op)
+	 */
+	public double quantile(double q) {
+		return this.select(Math.max(0, Math.min(this.n - 1, (int) (this.n * q))));
+	}
+
+	/**
+	 * Median absolute deviation from the median (not scaled). The values are
+	 * replaced by their absolute deviations.
+	 *
+	 * @param median
+	 * @return the median of |x - median|
+	 */
+	public double mad(double median) {
+		if (this.n == 0) {
+			return Double.NaN;
+		}
+		double newMax = 0;
+		boolean newIntegers = this.integers && median == Math.rint(median);
+		for (int i = 0; i < this.n; i++) {
+			double d = Math.abs(this.values[i] - median);
+			this.values[i] = d;
+			newMax = Math.max(newMax, d);
+		}
+		this.min = 0;
+		this.max = newMax;
+		this.integers = newIntegers;
+		return this.median();
+	}
+
+	/**
+	 * @return the width of the histogram bins or 0 if order statistics
+	 *         should be found with quickselect
+	 */
+	private double getBinWidth() {
+		if (!this.integers) {
+			return 0;
+		}
+		double range = this.max - this.min + 1;
+		if (range <= MAX_HISTOGRAM_BINS) {
+			// The histogram is only worth it if it is smaller than the values
+			return range <= 4L * this.n ? 1 : 0;
+		}
+		return this.approximate ? Math.ceil(range / MAX_HISTOGRAM_BINS) : 0;
+	}
+
+	private double selectFromHistogram(int k, double width) {
+		int nBins = (int) Math.ceil((this.max - this.min + 1) / width);
+		if (this.counts.length < nBins) {
+			this.counts = new int[nBins];
+		}
+		final int[] c = this.counts;
+		for (int i = 0; i < nBins; i++) {
+			c[i] = 0;
+		}
+		for (int i = 0; i < this.n; i++) {
+			c[(int) ((this.values[i] - this.min) / width)]++;
+		}
+		long total = 0;
+		for (int i = 0; i < nBins; i++) {
+			total = total + c[i];
+			if (total > k) {
+				// Exact for a width of 1, otherwise the center of the bin
+				return this.min + i * width + (width - 1) / 2;
+			}
+		}
+		return this.max;
+	}
+}
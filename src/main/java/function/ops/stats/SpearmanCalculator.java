@@ -1,13 +1,10 @@
 package function.ops.stats;
 
 import java.util.Arrays;
-import java.util.Comparator;
 
 import net.imglib2.Cursor;
 import net.imglib2.PairIterator;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.type.numeric.real.DoubleType;
-import sc.fiji.coloc.algorithms.SpearmanRankCorrelation;
 
 /*
 * This code has been heavily adapted from Numerical Recipces: The Art of Scientific Computing.
@@ -17,6 +14,8 @@ import sc.fiji.coloc.algorithms.SpearmanRankCorrelation;
 * Adapted from code written by Dan White and Tom Kazimiers
 * 
 * Slightly adapted from code by Leonard Guizetti to eliminate static temporary variables that prevented threading.
+*
+* Ranks are found with index sorts on primitive arrays rather than by sorting boxed rows.
 * 
 * @author Jay Warrick
 */
@@ -32,12 +31,15 @@ public class SpearmanCalculator<T extends RealType< T >> {
 	double tStatisticSpearman;
 	int dfSpearman;
 
-	// create two paired arrays: one with raw pixel values and one for the corresponding ranks
-	double[][] data;
-	double[] ch1raw;
-	double[] ch2raw;
-	double[] ch1ranks;
-	double[] ch2ranks;
+	// Reusable scratch buffers: raw values and ranks of each channel in
+	// pixel order plus the index sort buffers. They only grow, so reuse a
+	// calculator (e.g., one per thread) to avoid allocating for each region.
+	double[] ch1raw = new double[0];
+	double[] ch2raw = new double[0];
+	double[] ch1ranks = new double[0];
+	double[] ch2ranks = new double[0];
+	int[] order = new int[0];
+	int[] temp = new int[0];
 
 	/**
 	 * Calculates Spearman's Rank Correlation Coefficient (Spearman's rho) for
@@ -48,25 +50,18 @@ public class SpearmanCalculator<T extends RealType< T >> {
 	 */
 	public <C extends Cursor<T> & PairIterator<T>> double calculateSpearmanRank(C cursor) {
 		
-		SpearmanRankCorrelation<DoubleType> sc = new SpearmanRankCorrelation<>();
-
-		// Step 0: Count the pixels first.
 		int n = 0;
 		while (cursor.hasNext()) {
-			n++;
 			cursor.fwd();
-		}
-		cursor.reset();
-
-		data = new double[n][2];
-
-		for (int i = 0; i < n; i++) {
-			cursor.fwd();
-			data[i][0] = cursor.getFirst().getRealDouble();
-			data[i][1] = cursor.getSecond().getRealDouble();
+			if (n == ch1raw.length) {
+				this.ensureCapacity(Math.max(1024, 2 * n));
+			}
+			ch1raw[n] = cursor.getFirst().getRealDouble();
+			ch2raw[n] = cursor.getSecond().getRealDouble();
+			n++;
 		}
 
-		return sc.calculateSpearmanRank(data);
+		return this.calculateSpearmanRank(ch1raw, ch2raw, n);
 	}
 
 	/**
@@ -78,65 +73,120 @@ public class SpearmanCalculator<T extends RealType< T >> {
 	 */
 	public double calculateSpearmanRank(double[][] data) {
 		final int n = data.length;
-		ch1raw = new double[n];
-		ch2raw = new double[n];
-		ch1ranks = new double[n];
-		ch2ranks = new double[n];
+		this.ensureCapacity(n);
+		for (int i = 0; i < n; i++) {
+			ch1raw[i] = data[i][0];
+			ch2raw[i] = data[i][1];
+		}
+		return this.calculateSpearmanRank(ch1raw, ch2raw, n);
+	}
 
+	/**
+	 * Calculates Spearman's Rank Correlation Coefficient (Spearman's rho) for
+	 * the pairs (x[i], y[i]), i < n.
+	 *
+	 * @param x values of the first channel (not modified)
+	 * @param y values of the second channel (not modified)
+	 * @param n number of pairs
+	 * @return Spearman's rank correlation coefficient (rho) value
+	 */
+	public double calculateSpearmanRank(double[] x, double[] y, int n) {
+		
 		/**
 		 * Here's the concept. Rank-transform the data, then run 
 		 * the Pearson correlation on the transformed data.
 		 * 
-		 * 1) We will sort the dataset by one column, extract the 
-		 *    column values and rank them, and replace the data by 
-		 *    the ranks.
-		 * 2) Repeat the process now with the remaining column.
+		 * 1) Sort the indices of the pixels by the values of one
+		 *    channel, rank the values in that order (averaging
+		 *    ties as rankValues does) and store each rank at the
+		 *    index of its pixel.
+		 * 2) Repeat the process with the other channel.
 		 * 3) Calculate the coefficient from the individual rank
 		 *    columns, the t-statistic and the df's of the test.
 		 */
+		this.ensureCapacity(n);
+		this.rank(x, n, ch1ranks);
+		this.rank(y, n, ch2ranks);
 		
-		// Step 1: Sort the raw data, by column #2 (arbitrary choice).
-		Arrays.sort(data, new Comparator<double[]>() {
-			@Override
-			public int compare(double[] row1, double[] row2) {
-				return Double.compare(row1[1], row2[1]);
-			}
-		});
+		rhoValue = calculateRho(ch1ranks, ch2ranks, n);
+		tStatisticSpearman = getTStatistic(rhoValue, n);
+		dfSpearman = getSpearmanDF(n);
 		
-		for (int i = 0; i < n; i++) {
-			ch2raw[i] = data[i][1];
+		return rhoValue;
+	}
+
+	private void ensureCapacity(int n) {
+		if (ch1raw.length >= n) {
+			return;
 		}
-		
-		// Rank the data then replace them into the dataset.
-		ch2ranks = rankValues(ch2raw);
+		ch1raw = Arrays.copyOf(ch1raw, n);
+		ch2raw = Arrays.copyOf(ch2raw, n);
+		ch1ranks = new double[n];
+		ch2ranks = new double[n];
+		order = new int[n];
+		temp = new int[n];
+	}
+
+	/**
+	 * Rank values[0..n-1] (1 based, tied values get the average of their
+	 * ranks) and put the rank of values[i] in ranks[i].
+	 */
+	private void rank(double[] values, int n, double[] ranks) {
 		for (int i = 0; i < n; i++) {
-			data[i][1] = ch2ranks[i];
+			order[i] = i;
 		}
+		sortIndices(values, order, temp, 0, n);
 		
-		// Step 2: Repeat step 1 with the other data column.
-		Arrays.sort(data, new Comparator<double[]>() {
-			@Override
-			public int compare(double[] row1, double[] row2) {
-				return Double.compare(row1[0], row2[0]);
+		int start = 0;
+		while (start < n) {
+			int end = start + 1;
+			while (end < n && values[order[end]] == values[order[start]]) {
+				end++;
 			}
-		});
-		
-		for (int i = 0; i < n; i++) {
-			ch1raw[i] = data[i][0];
+			// ranks start + 1 ... end averaged
+			double avg = 0.5 * (start + 1 + end);
+			for (int j = start; j < end; j++) {
+				ranks[order[j]] = avg;
+			}
+			start = end;
 		}
-		
-		ch1ranks = rankValues(ch1raw);
-		for (int i = 0; i < n; i++) {
-			data[i][0] = ch1ranks[i];
-			ch2ranks[i] = data[i][1];
+	}
+
+	/**
+	 * Stable merge sort of idx[from..to-1] by values[idx[i]] without boxing.
+	 */
+	private static void sortIndices(double[] values, int[] idx, int[] buffer, int from, int to) {
+		if (to - from <= 16) {
+			// insertion sort for short runs
+			for (int i = from + 1; i < to; i++) {
+				int cur = idx[i];
+				double v = values[cur];
+				int j = i - 1;
+				while (j >= from && Double.compare(values[idx[j]], v) > 0) {
+					idx[j + 1] = idx[j];
+					j--;
+				}
+				idx[j + 1] = cur;
+			}
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		sortIndices(values, idx, buffer, from, mid);
+		sortIndices(values, idx, buffer, mid, to);
+		if (Double.compare(values[idx[mid - 1]], values[idx[mid]]) <= 0) {
+			return; // already in order
+		}
+		System.arraycopy(idx, from, buffer, from, to - from);
+		int i = from, j = mid, k = from;
+		while (i < mid && j < to) {
+			idx[k++] = Double.compare(values[buffer[j]], values[buffer[i]]) < 0 ? buffer[j++] : buffer[i++];
+		}
+		while (i < mid) {
+			idx[k++] = buffer[i++];
+		}
+		while (j < to) {
+			idx[k++] = buffer[j++];
 		}
-		
-		// Step 3: Compute statistics.
-		rhoValue = calculateRho(ch1ranks, ch2ranks);
-		tStatisticSpearman = getTStatistic(rhoValue, n);
-		dfSpearman = getSpearmanDF(n);
-		
-		return rhoValue;
 	}
 
 	/**
@@ -228,9 +278,20 @@ public class SpearmanCalculator<T extends RealType< T >> {
 	 * @return Spearman's rho.
 	 */
 	public static double calculateRho(double[] x, double[] y) {
+		return calculateRho(x, y, x.length); // the lengths should be the same for each array
+	}
+
+	/**
+	 * Calculates Spearman's rho (Pearson's correlation coefficient on ranked data).
+	 *
+	 * @param x - One array of rankings (may include ties)
+	 * @param y - ditto.
+	 * @param len - number of rankings to use from each array
+	 * @return Spearman's rho.
+	 */
+	public static double calculateRho(double[] x, double[] y, int len) {
 		// Define some variables.
 		double rho;
-		int len = x.length; // the lengths should be the same for each array
 		double mean_x = 0.0, mean_y = 0.0;
 		double sum_x = 0.0, sum_y = 0.0;
 		double sd_x = 0.0, sd_y = 0.0, sd_xy = 0.0;
@@ -0,0 +1,317 @@
+package function.ops.stats;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Calculates the first order statistics of StatsFeatureSet in a single pass
+ * over the pixels of a region.
+ *
+ * The mean and the 2nd, 3rd and 4th moments about the mean are updated for
+ * each pixel with the numerically stable one-pass formulas of Welford and
+ * Pebay (no sum of squares minus square of sums), along with the min, max,
+ * sums of logs and inverses and the intensity weighted spatial moments needed
+ * for the radius of gyration. When order statistics are needed, the pixel
+ * values are also copied into a primitive array in the same pass and the
+ * median is found with quickselect.
+ *
+ * The definitions follow the corresponding imagej-ops stats ops (e.g.,
+ * Variance and StdDev use n - 1, MomentNAboutMean uses n, Skewness and
+ * Kurtosis divide by powers of StdDev and the median is the (n/2)th smallest
+ * value).
+ *
+ * @author Jay Warrick
+ */
+public class StatsAccumulator {
+
+	private final boolean keepValues;
+	private final boolean keepPositions;
+
+	private long n = 0;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+	private double sum = 0;
+	private double mean = 0;
+	private double m2 = 0;
+	private double m3 = 0;
+	private double m4 = 0;
+	private double sumOfSquares = 0;
+	private double sumOfLogs = 0;
+	private double sumOfInverses = 0;
+
+	// Intensity weighted sums of positions relative to the first pixel
+	private double originX = 0;
+	private double originY = 0;
+	private double sumX = 0;
+	private double sumY = 0;
+	private double sumXX = 0;
+	private double sumYY = 0;
+
+	private double[] values = new double[0];
+
+	/**
+	 * @param keepValues
+	 *            true to copy the values for order statistics (e.g., the median)
+	 * @param keepPositions
+	 *            true to calculate the spatial moments (e.g., the radius of gyration)
+	 */
+	public StatsAccumulator(boolean keepValues, boolean keepPositions) {
+		this.keepValues = keepValues;
+		this.keepPositions = keepPositions;
+	}
+
+	public void reset() {
+		this.n = 0;
+		this.min = Double.POSITIVE_INFINITY;
+		this.max = Double.NEGATIVE_INFINITY;
+		this.sum = 0;
+		this.mean = 0;
+		this.m2 = 0;
+		this.m3 = 0;
+		this.m4 = 0;
+		this.sumOfSquares = 0;
+		this.sumOfLogs = 0;
+		this.sumOfInverses = 0;
+		this.originX = 0;
+		this.originY = 0;
+		this.sumX = 0;
+		this.sumY = 0;
+		this.sumXX = 0;
+		this.sumYY = 0;
+	}
+
+	/**
+	 * Reset and accumulate every pixel of the region in one pass.
+	 *
+	 * @param ii
+	 *            the region (values must be RealTypes)
+	 */
+	public void accumulate(IterableInterval<?> ii) {
+		this.reset();
+		if (this.keepValues && this.values.length < ii.size()) {
+			this.values = new double[(int) ii.size()];
+		}
+		final Cursor<?> cur = this.keepPositions ? ii.localizingCursor() : ii.cursor();
+		while (cur.hasNext()) {
+			cur.fwd();
+			double x = ((RealType<?>) cur.get()).getRealDouble();
+			if (this.keepPositions) {
+				this.addPosition(x, cur.getDoublePosition(0), cur.numDimensions() > 1 ? cur.getDoublePosition(1) : 0);
+			}
+			this.add(x);
+		}
+	}
+
+	/**
+	 * Add one value (see accumulate)
+	 */
+	public void add(double x) {
+		if (this.keepValues) {
+			if (this.n == this.values.length) {
+				double[] temp = new double[Math.max(16, 2 * this.values.length)];
+				System.arraycopy(this.values, 0, temp, 0, this.values.length);
+				this.values = temp;
+			}
+			this.values[(int) this.n] = x;
+		}
+
+		long n1 = this.n;
+		this.n++;
+		double delta = x - this.mean;
+		double deltaN = delta / this.n;
+		double deltaN2 = deltaN * deltaN;
+		double term1 = delta * deltaN * n1;
+		this.mean = this.mean + deltaN;
+		this.m4 = this.m4 + term1 * deltaN2 * ((double) this.n * this.n - 3 * this.n + 3) + 6 * deltaN2 * this.m2 - 4 * deltaN * this.m3;
+		this.m3 = this.m3 + term1 * deltaN * (this.n - 2) - 3 * deltaN * this.m2;
+		this.m2 = this.m2 + term1;
+
+		this.min = Math.min(this.min, x);
+		this.max = Math.max(this.max, x);
+		this.sum = this.sum + x;
+		this.sumOfSquares = this.sumOfSquares + x * x;
+		this.sumOfLogs = this.sumOfLogs + Math.log(x);
+		this.sumOfInverses = this.sumOfInverses + 1 / x;
+	}
+
+	private void addPosition(double value, double x, double y) {
+		if (this.n == 0) {
+			this.originX = x;
+			this.originY = y;
+		}
+		double dx = x - this.originX;
+		double dy = y - this.originY;
+		this.sumX = this.sumX + value * dx;
+		this.sumY = this.sumY + value * dy;
+		this.sumXX = this.sumXX + value * dx * dx;
+		this.sumYY = this.sumYY + value * dy * dy;
+	}
+
+	public long getN() {
+		return this.n;
+	}
+
+	public double getMin() {
+		return this.n == 0 ? Double.NaN : this.min;
+	}
+
+	public double getMax() {
+		return this.n == 0 ? Double.NaN : this.max;
+	}
+
+	public double getSum() {
+		return this.sum;
+	}
+
+	public double getMean() {
+		return this.n == 0 ? Double.NaN : this.mean;
+	}
+
+	public double getVariance() {
+		return this.m2 / (this.n - 1);
+	}
+
+	public double getStdDev() {
+		return Math.sqrt(this.getVariance());
+	}
+
+	public double getMoment1AboutMean() {
+		return this.n == 0 ? Double.NaN : 0;
+	}
+
+	public double getMoment2AboutMean() {
+		return this.m2 / this.n;
+	}
+
+	public double getMoment3AboutMean() {
+		return this.m3 / this.n;
+	}
+
+	public double getMoment4AboutMean() {
+		return this.m4 / this.n;
+	}
+
+	public double getSkewness() {
+		double std = this.getStdDev();
+		if (std == 0) {
+			return Double.NaN;
+		}
+		return this.getMoment3AboutMean() / (std * std * std);
+	}
+
+	public double getKurtosis() {
+		double std = this.getStdDev();
+		if (std == 0) {
+			return Double.NaN;
+		}
+		return this.getMoment4AboutMean() / (std * std * std * std);
+	}
+
+	public double getSumOfSquares() {
+		return this.sumOfSquares;
+	}
+
+	public double getSumOfLogs() {
+		return this.sumOfLogs;
+	}
+
+	public double getSumOfInverses() {
+		return this.sumOfInverses;
+	}
+
+	public double getHarmonicMean() {
+		return this.n / this.sumOfInverses;
+	}
+
+	public double getGeometricMean() {
+		return Math.exp(this.sumOfLogs / this.n);
+	}
+
+	/**
+	 * @return (CentralMoment20 + CentralMoment02) / Moment00 (requires keepPositions)
+	 */
+	public double getRadiusOfGyrationSquared() {
+		double central20 = this.sumXX - this.sumX * this.sumX / this.sum;
+		double central02 = this.sumYY - this.sumY * this.sumY / this.sum;
+		return (central20 + central02) / this.sum;
+	}
+
+	/**
+	 * @return the (n/2)th smallest value (requires keepValues)
+	 */
+	public double getMedian() {
+		if (this.n == 0) {
+			return Double.NaN;
+		}
+		return this.getOrderStatistic((int) (this.n / 2));
+	}
+
+	/**
+	 * @param k
+	 * @return the kth smallest value (0 based, requires keepValues)
+	 */
+	public double getOrderStatistic(int k) {
+		return select(this.values, 0, (int) this.n - 1, k);
+	}
+
+	/**
+	 * Find the kth smallest value of a[from..to] (inclusive) with quickselect
+	 * (median of three pivot, three way partition so repeated values, which
+	 * are common in integer images, don't slow it down). a is partially
+	 * reordered.
+	 *
+	 * @param a
+	 * @param from
+	 * @param to
+	 * @param k
+	 *            index in a of the value to find (from <= k <= to)
+	 * @return the kth smallest value
+	 */
+	public static double select(double[] a, int from, int to, int k) {
+		int left = from;
+		int right = to;
+		while (right > left) {
+			double pivot = medianOfThree(a[left], a[(left + right) >>> 1], a[right]);
+
+			// a[left..lt-1] < pivot, a[lt..gt] == pivot, a[gt+1..right] > pivot
+			int lt = left;
+			int gt = right;
+			int i = left;
+			while (i <= gt) {
+				if (a[i] < pivot) {
+					swap(a, lt, i);
+					lt++;
+					i++;
+				} else if (a[i] > pivot) {
+					swap(a, i, gt);
+					gt--;
+				} else {
+					i++;
+				}
+			}
+
+			if (k < lt) {
+				right = lt - 1;
+			} else if (k > gt) {
+				left = gt + 1;
+			} else {
+				return pivot;
+			}
+		}
+		return a[k];
+	}
+
+	private static double medianOfThree(double a, double b, double c) {
+		if (a < b) {
+			return b < c ? b : (a < c ? c : a);
+		}
+		return a < c ? a : (b < c ? c : b);
+	}
+
+	private static void swap(double[] a, int i, int j) {
+		double temp = a[i];
+		a[i] = a[j];
+		a[j] = temp;
+	}
+}
@@ -37,7 +37,6 @@ import net.imagej.ops.Op;
 import net.imagej.ops.features.zernike.helper.Polynom;
 import net.imagej.ops.features.zernike.helper.ZernikeMoment;
 import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
-import net.imagej.types.BigComplex;
 import net.imglib2.IterableInterval;
 import net.imglib2.RealCursor;
 import net.imglib2.RealLocalizable;
@@ -100,20 +99,28 @@ AbstractUnaryFunctionOp<IterableInterval<T>, ZernikeMoment>
 
 	@Override
 	public ZernikeMoment calculate(IterableInterval<T> ii) {
+		ZernikeMomentAccumulator moments = new ZernikeMomentAccumulator(new int[] { order }, new int[] { repetition });
+		this.accumulate(ii, moments);
+		return moments.getMoment(0);
+	}
 
-		// Compute pascal's triangle for binomal coefficients: d[x][y] equals (x
-		// over y)
-		double[][] d = computePascalsTriangle(order);
+	/**
+	 * Calculate all the moments of the accumulator in a single pass over the
+	 * pixels (see ZernikeMomentAccumulator). setEnclosingCircles must be
+	 * called first.
+	 * 
+	 * @param ii
+	 *            the region
+	 * @param moments
+	 *            the moments to calculate (reset before accumulating)
+	 */
+	public void accumulate(IterableInterval<T> ii, ZernikeMomentAccumulator moments) {
 
-		// initialize zernike moment
-		ZernikeMoment moment = initZernikeMoment(order, repetition, d);
+		moments.reset();
 
 		// get the cursor of the iterable interval
 		final RealCursor<? extends RealType<?>> cur = ii.localizingCursor();
 
-		// count number of pixel inside the unit circle
-		int count = 0;
-		
 		// To produces expected results, we will treat the outer circle provided as the true
 		// outer circle where the norm radius will be 1. Thus, when we typically use the 
 		// equivalent radius of the whole cell, we should actually pass an outercircle with
@@ -125,139 +132,55 @@ AbstractUnaryFunctionOp<IterableInterval<T>, ZernikeMoment>
 		
 		double inner = outer*this.innerRadiusToOuterRadiusRatio;
 
+		final double centerX = this.innerCircle.getCenter().getDoublePosition(0);
+		final double centerY = this.innerCircle.getCenter().getDoublePosition(1);
+		final double r1 = this.innerCircle.getRadius();
+
 		// run over iterable interval
 		while (cur.hasNext()) {
 			cur.fwd();
 
-			double[] radii = this.getRadii(cur);
+			final double dx2 = cur.getDoublePosition(0) - centerX;
+			final double dy2 = cur.getDoublePosition(1) - centerY;
+			final double r = Math.sqrt(dx2*dx2+dy2*dy2);
 
-			final double r1 = innerCircle.getRadius();
+			// cos and sin of the angle theta from the center of the inner circle (theta = atan2(0, 0) = 0 at the center)
+			final double cosTheta = r > 0 ? dx2 / r : 1;
+			final double sinTheta = r > 0 ? dy2 / r : 0;
 
 			double normRad = -1;
-			if(radii[0] <= r1)
+			if(r <= r1)
 			{
 				// then we are within the inner circle
-				normRad = (inner)*(radii[0]/r1);
-			}
-			else if(radii[0] <= radii[1])
-			{
-				// we are outside the inner and within the bounds of the outer circle
-				normRad = (outer-inner)*((radii[0]-r1)/(radii[1]-r1)) + (inner);
+				normRad = (inner)*(r/r1);
 			}
 			else
 			{
-				// we are outside the bounds of the outer circle
-				// Skip the pixel and exclude it from the calculation
-				continue;
+				final double R = this.getOuterRadius(cosTheta, sinTheta);
+				if(r <= R)
+				{
+					// we are outside the inner and within the bounds of the outer circle
+					normRad = (outer-inner)*((r-r1)/(R-r1)) + (inner);
+				}
+				else
+				{
+					// we are outside the bounds of the outer circle
+					// Skip the pixel and exclude it from the calculation
+					continue;
+				}
 			}
 
 			// get current pixel value
 			double pixel = cur.get().getRealDouble();
 
 			if (pixel >= 0.0) {
-				// increment number of pixel inside the unit circle
-				count++;
-
-				// calculate the desired moment
-				// evaluate radial polynom at the normalized radial position normRad
-				final double rad = moment.getP().evaluate(normRad);
-
-				// p * rad * exp(-1i * m * theta);
-				final BigComplex product = multiplyExp(pixel, rad, radii[2], moment.getM());
-
-				// add together
-				moment.getZm().add(product);
+				// add pixel * rad * exp(-1i * m * theta) to every moment at the normalized radial position normRad
+				moments.add(pixel, normRad, cosTheta, sinTheta);
 			}
 
 		}
 
-		// normalization
-		normalize(moment.getZm(), moment.getN(), count);
-
-		return moment;
-	}
-
-	/**
-	 * 
-	 * Multiplication of pixel * rad * exp(-m*theta) using eulers formula
-	 * (pixel*rad) * (cos(m*theta) - i*sin(m*theta))
-	 * 
-	 * @param _pixel
-	 *            Current pixel
-	 * @param _rad
-	 *            Computed value of radial polynom,
-	 * @param _theta
-	 *            Angle of current position
-	 * @param _m
-	 *            Repitition m
-	 * @return Computed term
-	 */
-	private BigComplex multiplyExp(final double _pixel, final double _rad, final double _theta, final int _m) {
-		BigComplex c = new BigComplex();
-		c.setReal(_pixel * _rad * Math.cos(_m * _theta));
-		c.setImag(-(_pixel * _rad * Math.sin(_m * _theta)));
-		return c;
-	}
-
-	/**
-	 * 
-	 * Normalization of all calculated zernike moments in complex representation
-	 * 
-	 * @param _complex
-	 *            Complex representation of zernike moment
-	 * @param _n
-	 *            Order n
-	 * @param _count
-	 *            Number of pixel within unit circle
-	 */
-	private void normalize(BigComplex _complex, int _n, int _count) {
-		_complex.setReal(_complex.getRealDouble() * (_n + 1) / _count);
-		_complex.setImag(_complex.getImaginaryDouble() * (_n + 1) / _count);
-	}
-
-	/**
-	 * 
-	 * Initialize a zernike moment with a given order and repition
-	 * 
-	 * @param _order
-	 *            Order n
-	 * @param _repitition
-	 *            Repitition m
-	 * @param _d
-	 *            Pascal matrix
-	 * @return Empty Zernike moment of order n and repitition m
-	 */
-	private ZernikeMoment initZernikeMoment(final int _order, final int _repitition, final double[][] _d) {
-
-		if (_order - Math.abs(_repitition) % 2 != 0) {
-			// throw new IllegalArgumentException("This combination of order an
-			// repitition is not valid!");
-		}
-
-		return createZernikeMoment(_d, _order, _repitition);
-	}
-
-	/**
-	 * 
-	 * Create one zernike moment of order n and repitition m with suitable
-	 * radial polynom
-	 * 
-	 * @param _d
-	 *            Pascal matrix
-	 * @param _n
-	 *            Order n
-	 * @param _m
-	 *            Repition m
-	 * @return Empty Zernike moment of order n and repition m
-	 */
-	private ZernikeMoment createZernikeMoment(double[][] _d, int _n, int _m) {
-		ZernikeMoment p = new ZernikeMoment();
-		p.setM(_m);
-		p.setN(_n);
-		p.setP(createRadialPolynom(_n, _m, _d));
-		BigComplex complexNumber = new BigComplex();
-		p.setZm(complexNumber);
-		return p;
+		// normalization (done by the accumulator)
 	}
 
 	/**
@@ -349,23 +272,7 @@ AbstractUnaryFunctionOp<IterableInterval<T>, ZernikeMoment>
 		if(r > this.innerCircle.getRadius())
 		{
 			// Then calculate the distance to the outer circle, R, from the center of the inner circle as we'll need it later
-			final double b = -2*Math.cos(theta)*this.x1 -2*Math.sin(theta)*this.y1;
-			// Calculate quandratic formula
-			if(b*b > 4*this.c)
-			{
-				R = (-1*b + Math.sqrt(b*b-4.0*this.c))/(2.0);
-			}
-			else
-			{
-				R = (-1*b - Math.sqrt(b*b-4.0*this.c))/(2.0);
-			}
-			
-			// In case the inner circle extends past the outer circle in some spots
-			// use the max of the two radii to define the outer radius of the outer circle.
-			// Any points outside R then will be ignored, and in the case where the
-			// inner extends past the outer, points outside the inner will be ignored
-			// as well.
-			R = Math.max(this.innerCircle.getRadius(), R);
+			R = this.getOuterRadius(Math.cos(theta), Math.sin(theta));
 		}
 		// Otherwise, R is never needed subsequently so no need to calculate/change (see calculate)
 		
@@ -378,4 +285,34 @@ AbstractUnaryFunctionOp<IterableInterval<T>, ZernikeMoment>
 
 	}
 
+	/**
+	 * Distance, R, from the center of the inner circle to the perimeter of the
+	 * outer circle in the direction theta (see notes above).
+	 * 
+	 * @param cosTheta
+	 * @param sinTheta
+	 * @return R
+	 */
+	private double getOuterRadius(double cosTheta, double sinTheta)
+	{
+		final double b = -2*cosTheta*this.x1 -2*sinTheta*this.y1;
+		double R;
+		// Calculate quandratic formula
+		if(b*b > 4*this.c)
+		{
+			R = (-1*b + Math.sqrt(b*b-4.0*this.c))/(2.0);
+		}
+		else
+		{
+			R = (-1*b - Math.sqrt(b*b-4.0*this.c))/(2.0);
+		}
+		
+		// In case the inner circle extends past the outer circle in some spots
+		// use the max of the two radii to define the outer radius of the outer circle.
+		// Any points outside R then will be ignored, and in the case where the
+		// inner extends past the outer, points outside the inner will be ignored
+		// as well.
+		return Math.max(this.innerCircle.getRadius(), R);
+	}
+
 }
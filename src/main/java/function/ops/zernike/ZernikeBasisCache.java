@@ -0,0 +1,311 @@
+package function.ops.zernike;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+/**
+ * Cache of precomputed Zernike basis images (stencils) for batch processing
+ * of many cells.
+ *
+ * A stencil holds R(n,m)(r) * exp(-i*m*theta) of each moment (as float
+ * real/imaginary planes) on the pixel grid around a circle. The radius and
+ * the sub-pixel offset of the center of the circle are rounded to a multiple
+ * of the quantum so cells of similar size share a stencil, and the moments
+ * of a cell become a dot product of its pixels with the planes of the stencil
+ * (see ZernikeComputer.accumulate), with no polynomial evaluation per pixel.
+ *
+ * Stencils are evicted least recently used first once the total size of the
+ * cached stencils exceeds the memory budget. The cache is thread safe and can
+ * be shared by many ZernikeComputers.
+ *
+ * Because the circle is rounded, the moments are approximate. With the
+ * default quantum of 0.1 pixels the error is typically well under 1% of the
+ * largest moment of a cell, but moments that are nearly 0 (e.g., order 1 of
+ * a symmetric cell) can have a large relative error. Use a smaller quantum
+ * for more accuracy and fewer cache hits.
+ *
+ * @author Jay Warrick
+ */
+public class ZernikeBasisCache {
+
+	public static long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+	public static double DEFAULT_QUANTUM = 0.1;
+
+	private final double quantum;
+	private long memoryBudget;
+	private long bytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	// access order so the first entry is the least recently used
+	private final LinkedHashMap<Key,Stencil> stencils = new LinkedHashMap<Key,Stencil>(16, 0.75f, true);
+
+	public ZernikeBasisCache() {
+		this(DEFAULT_MEMORY_BUDGET, DEFAULT_QUANTUM);
+	}
+
+	/**
+	 * Class constructor
+	 *
+	 * @param memoryBudget
+	 *            maximum number of bytes of stencils to keep
+	 * @param quantum
+	 *            the radius and center of circles are rounded to a multiple
+	 *            of this many pixels (e.g., 0.1)
+	 */
+	public ZernikeBasisCache(long memoryBudget, double quantum) {
+		if (!(quantum > 0)) {
+			throw new IllegalArgumentException("The quantum must be greater than 0. quantum=" + quantum);
+		}
+		this.memoryBudget = Math.max(0, memoryBudget);
+		this.quantum = quantum;
+	}
+
+	public double getQuantum() {
+		return this.quantum;
+	}
+
+	public synchronized void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = Math.max(0, memoryBudget);
+		this.evict();
+	}
+
+	public synchronized long getMemoryBudget() {
+		return this.memoryBudget;
+	}
+
+	/**
+	 * @return the number of bytes of cached stencils
+	 */
+	public synchronized long getBytes() {
+		return this.bytes;
+	}
+
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	public synchronized void clear() {
+		this.stencils.clear();
+		this.bytes = 0;
+	}
+
+	/**
+	 * Get the stencil of the moments for a circle, making it if it isn't
+	 * cached. The stencil is made outside the lock of the cache so other
+	 * threads aren't held up.
+	 *
+	 * @param centerX
+	 * @param centerY
+	 * @param radius
+	 * @param moments
+	 *            the moments to calculate (the planes of the stencil are in
+	 *            the same order)
+	 * @return the stencil
+	 */
+	public Stencil get(double centerX, double centerY, double radius, ZernikeMomentAccumulator moments) {
+		long kr = Math.max(1, Math.round(radius / this.quantum));
+		long kx = Math.round(centerX / this.quantum);
+		long ky = Math.round(centerY / this.quantum);
+		int originX = (int) Math.floor(kx * this.quantum);
+		int originY = (int) Math.floor(ky * this.quantum);
+		Key key = new Key(kr, Math.round((kx * this.quantum - originX) / this.quantum), Math.round((ky * this.quantum - originY) / this.quantum), moments);
+
+		Stencil ret;
+		synchronized (this) {
+			ret = this.stencils.get(key);
+			if (ret != null) {
+				this.hits++;
+				return ret.at(originX, originY);
+			}
+			this.misses++;
+		}
+
+		ret = new Stencil(kr * this.quantum, key.fx * this.quantum, key.fy * this.quantum, moments);
+
+		synchronized (this) {
+			Stencil other = this.stencils.get(key);
+			if (other != null) {
+				return other.at(originX, originY);
+			}
+			if (ret.getBytes() <= this.memoryBudget) {
+				this.stencils.put(key, ret);
+				this.bytes = this.bytes + ret.getBytes();
+				this.evict();
+			}
+		}
+		return ret.at(originX, originY);
+	}
+
+	private void evict() {
+		Iterator<Entry<Key,Stencil>> itr = this.stencils.entrySet().iterator();
+		while (this.bytes > this.memoryBudget && itr.hasNext()) {
+			this.bytes = this.bytes - itr.next().getValue().getBytes();
+			itr.remove();
+		}
+	}
+
+	/**
+	 * The basis of each moment on the (2 * half + 1)^2 pixel grid around a
+	 * circle. Pixel (x, y) of the image is at index
+	 * (y - minY) * side + (x - minX) of each plane.
+	 */
+	public static class Stencil {
+
+		public final int half;
+		public final int side;
+		public final float[][] real;
+		public final float[][] imag;
+
+		// Position of the stencil in the image (see 'at')
+		public final int minX;
+		public final int minY;
+
+		private Stencil(Stencil stencil, int originX, int originY) {
+			this.half = stencil.half;
+			this.side = stencil.side;
+			this.real = stencil.real;
+			this.imag = stencil.imag;
+			this.minX = originX - this.half;
+			this.minY = originY - this.half;
+		}
+
+		/**
+		 * @param radius
+		 *            radius of the circle
+		 * @param fx
+		 *            x of the center of the circle minus the origin pixel (0 <= fx < 1)
+		 * @param fy
+		 *            y of the center of the circle minus the origin pixel (0 <= fy < 1)
+		 * @param moments
+		 */
+		Stencil(double radius, double fx, double fy, ZernikeMomentAccumulator moments) {
+			this.half = (int) Math.ceil(radius) + 1;
+			this.side = 2 * this.half + 1;
+			this.minX = -this.half;
+			this.minY = -this.half;
+			int n = moments.size();
+			this.real = new float[n][this.side * this.side];
+			this.imag = new float[n][this.side * this.side];
+
+			// Use a copy so the accumulator of the caller isn't disturbed
+			ZernikeMomentAccumulator basis = moments.copy();
+			double[] re = new double[n];
+			double[] im = new double[n];
+			int p = 0;
+			for (int y = -this.half; y <= this.half; y++) {
+				for (int x = -this.half; x <= this.half; x++) {
+					final double xm = (x - fx) / radius;
+					final double ym = (y - fy) / radius;
+					final double r = Math.sqrt(xm * xm + ym * ym);
+					basis.evaluate(r, r > 0 ? xm / r : 1, r > 0 ? ym / r : 0, re, im);
+					for (int i = 0; i < n; i++) {
+						this.real[i][p] = (float) re[i];
+						this.imag[i][p] = (float) im[i];
+					}
+					p++;
+				}
+			}
+		}
+
+		/**
+		 * @return this stencil positioned with its origin pixel at (originX, originY) of the image
+		 */
+		Stencil at(int originX, int originY) {
+			return new Stencil(this, originX, originY);
+		}
+
+		public long getBytes() {
+			return 2L * this.real.length * this.side * this.side * 4;
+		}
+
+		/**
+		 * @return the index of pixel (x, y) of the image in the planes or -1 if it is outside the stencil
+		 */
+		public int index(int x, int y) {
+			int i = x - this.minX;
+			int j = y - this.minY;
+			if (i < 0 || j < 0 || i >= this.side || j >= this.side) {
+				return -1;
+			}
+			return j * this.side + i;
+		}
+
+		/**
+		 * Dot product of the pixels with the planes of each moment.
+		 *
+		 * @param pixels
+		 *            pixel values (0 where there is no pixel) on the grid of the stencil
+		 * @param from
+		 *            first index of pixels that might be non-zero
+		 * @param to
+		 *            one past the last index of pixels that might be non-zero
+		 * @param realSums
+		 *            filled with the real part of each moment
+		 * @param imagSums
+		 *            filled with the imaginary part of each moment
+		 */
+		public void dot(double[] pixels, int from, int to, double[] realSums, double[] imagSums) {
+			for (int i = 0; i < this.real.length; i++) {
+				final float[] re = this.real[i];
+				final float[] im = this.imag[i];
+				double sumRe = 0;
+				double sumIm = 0;
+				for (int p = from; p < to; p++) {
+					sumRe = sumRe + pixels[p] * re[p];
+					sumIm = sumIm + pixels[p] * im[p];
+				}
+				realSums[i] = sumRe;
+				imagSums[i] = sumIm;
+			}
+		}
+	}
+
+	static class Key {
+
+		final long radius;
+		final long fx;
+		final long fy;
+		final int[] orders;
+		final int[] repetitions;
+		private final int hash;
+
+		Key(long radius, long fx, long fy, ZernikeMomentAccumulator moments) {
+			this.radius = radius;
+			this.fx = fx;
+			this.fy = fy;
+			this.orders = new int[moments.size()];
+			this.repetitions = new int[moments.size()];
+			for (int i = 0; i < moments.size(); i++) {
+				this.orders[i] = moments.getOrder(i);
+				this.repetitions[i] = moments.getRepetition(i);
+			}
+			int h = Long.hashCode(radius);
+			h = 31 * h + Long.hashCode(fx);
+			h = 31 * h + Long.hashCode(fy);
+			h = 31 * h + Arrays.hashCode(this.orders);
+			h = 31 * h + Arrays.hashCode(this.repetitions);
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return this.radius == k.radius && this.fx == k.fx && this.fy == k.fy && Arrays.equals(this.orders, k.orders) && Arrays.equals(this.repetitions, k.repetitions);
+		}
+	}
+}
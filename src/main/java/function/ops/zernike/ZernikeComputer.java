@@ -29,6 +29,8 @@
  */
 package function.ops.zernike;
 
+import java.util.Arrays;
+
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
@@ -40,7 +42,6 @@ import net.imagej.ops.features.zernike.helper.ZernikeMoment;
 import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
 import net.imagej.ops.special.function.Functions;
 import net.imagej.ops.special.function.UnaryFunctionOp;
-import net.imagej.types.BigComplex;
 import net.imglib2.IterableInterval;
 import net.imglib2.RealCursor;
 import net.imglib2.RealLocalizable;
@@ -65,6 +66,13 @@ public class ZernikeComputer<T extends RealType<T>> extends
 	
 	@Parameter(required = false)
 	private Circle enclosingCircle = null;
+
+	private ZernikeBasisCache basisCache = null;
+
+	// Pixels of the region on the grid of a stencil (see accumulateWithStencil)
+	private double[] window = new double[0];
+	private double[] realSums = new double[0];
+	private double[] imagSums = new double[0];
 	
 	@Override
 	public void initialize() {
@@ -73,6 +81,21 @@ public class ZernikeComputer<T extends RealType<T>> extends
 
 	@Override
 	public ZernikeMoment calculate(IterableInterval<T> ii) {
+		ZernikeMomentAccumulator moments = new ZernikeMomentAccumulator(new int[] { order }, new int[] { repetition });
+		this.accumulate(ii, moments);
+		return moments.getMoment(0);
+	}
+
+	/**
+	 * Calculate all the moments of the accumulator in a single pass over the
+	 * pixels (see ZernikeMomentAccumulator).
+	 * 
+	 * @param ii
+	 *            the region
+	 * @param moments
+	 *            the moments to calculate (reset before accumulating)
+	 */
+	public void accumulate(IterableInterval<T> ii, ZernikeMomentAccumulator moments) {
 		
 		Circle circle = enclosingCircle;
 		if(circle == null)
@@ -83,164 +106,90 @@ public class ZernikeComputer<T extends RealType<T>> extends
 		
 		final double centerX = circle.getCenter().getDoublePosition(0);
 		final double centerY = circle.getCenter().getDoublePosition(1);
+		final double radius = circle.getRadius();
 
-		// Compute pascal's triangle for binomal coefficients: d[x][y] equals (x
-		// over y)
-		double[][] d = computePascalsTriangle(order);
+		moments.reset();
 
-		// initialize zernike moment
-		ZernikeMoment moment = initZernikeMoment(order, repetition, d);
+		if (this.basisCache != null) {
+			this.accumulateWithStencil(ii, moments, this.basisCache.get(centerX, centerY, radius, moments), centerX, centerY, radius);
+			return;
+		}
 
 		// get the cursor of the iterable interval
 		final RealCursor<? extends RealType<?>> cur = ii.localizingCursor();
 
-		// count number of pixel inside the unit circle
-		int count = 0;
-
 		// run over itarble interval
 		while (cur.hasNext()) {
 			cur.fwd();
 
 			// get 2d centered coordinates
-			final double x = cur.getDoublePosition(0);
-			final double y = cur.getDoublePosition(1);
-
-			final double xm = (x - centerX) / circle.getRadius();
-			final double ym = (y - centerY) / circle.getRadius();
+			final double xm = (cur.getDoublePosition(0) - centerX) / radius;
+			final double ym = (cur.getDoublePosition(1) - centerY) / radius;
 
 			final double r = Math.sqrt(xm * xm + ym * ym);
 
-			// calculate theta for this position
-			final double theta = Math.atan2(ym, xm);
-
-			// get current pixel value
-			double pixel = cur.get().getRealDouble();
-
-//			if (pixel >= 0.0) {
-				// increment number of pixel inside the unit circle
-				count++;
-
-				// calculate the desired moment
-				// evaluate radial polynom at position r
-				final double rad = moment.getP().evaluate(r);
-
-				// p * rad * exp(-1i * m * theta);
-				final BigComplex product = multiplyExp(pixel, rad, theta, moment.getM());
-
-				// add together
-				moment.getZm().add(product);
-//			}
+			// cos and sin of theta for this position (theta = atan2(0, 0) = 0 at the center)
+			final double cosTheta = r > 0 ? xm / r : 1;
+			final double sinTheta = r > 0 ? ym / r : 0;
 
+			// add pixel * rad * exp(-1i * m * theta) to every moment
+			moments.add(cur.get().getRealDouble(), r, cosTheta, sinTheta);
 		}
 
-		// normalization
+		// normalization (done by the accumulator)
 		// I checked that this normalization approach produces
 		// size scale invariance.
 		// If one divides by the mean intensity after all this, 
 		// then one achieves intensity/contrast invariance.
 		// i.e., the measure provided here will double if all intensities are doubled.
-		try
-		{
-			
-			normalize(moment.getZm(), moment.getN(), count);
-			
-		}
-		catch(NumberFormatException e)
-		{
-			System.out.println(count);
-			System.out.println(moment);
-			System.out.println(moment.getN());
-			System.out.println(moment.getZm());
-			System.out.println(moment.getZm().getRealDouble());
-			System.out.println(moment.getZm().getImaginaryDouble());
-			e.printStackTrace();
-			System.out.println("WTF Number format exception");
-		}
-
-		return moment;
-	}
-
-	/**
-	 * 
-	 * Multiplication of pixel * rad * exp(-m*theta) using eulers formula
-	 * (pixel*rad) * (cos(m*theta) - i*sin(m*theta))
-	 * 
-	 * @param _pixel
-	 *            Current pixel
-	 * @param _rad
-	 *            Computed value of radial polynom,
-	 * @param _theta
-	 *            Angle of current position
-	 * @param _m
-	 *            Repitition m
-	 * @return Computed term
-	 */
-	private BigComplex multiplyExp(final double _pixel, final double _rad, final double _theta, final int _m) {
-		BigComplex c = new BigComplex();
-		c.setReal(_pixel * _rad * Math.cos(_m * _theta));
-		c.setImag(-(_pixel * _rad * Math.sin(_m * _theta)));
-		return c;
 	}
 
 	/**
-	 * 
-	 * Normalization of all calculated zernike moments in complex representation
-	 * 
-	 * @param _complex
-	 *            Complex representation of zernike moment
-	 * @param _n
-	 *            Order n
-	 * @param _count
-	 *            Number of pixel within unit circle
+	 * Accumulate the moments as the dot product of the pixels with a cached
+	 * stencil. Pixels outside the stencil or not on the pixel grid are
+	 * accumulated directly.
 	 */
-	private void normalize(BigComplex _complex, int _n, int _count) {
-		_complex.setReal(_complex.getRealDouble() * (_n + 1) / _count);
-		_complex.setImag(_complex.getImaginaryDouble() * (_n + 1) / _count);
-	}
-
-	/**
-	 * 
-	 * Initialize a zernike moment with a given order and repition
-	 * 
-	 * @param _order
-	 *            Order n
-	 * @param _repitition
-	 *            Repitition m
-	 * @param _d
-	 *            Pascal matrix
-	 * @return Empty Zernike moment of order n and repitition m
-	 */
-	private ZernikeMoment initZernikeMoment(final int _order, final int _repitition, final double[][] _d) {
-
-		if (_order - Math.abs(_repitition) % 2 != 0) {
-			// throw new IllegalArgumentException("This combination of order an
-			// repitition is not valid!");
+	private void accumulateWithStencil(IterableInterval<T> ii, ZernikeMomentAccumulator moments, ZernikeBasisCache.Stencil stencil, double centerX, double centerY, double radius) {
+		int length = stencil.side * stencil.side;
+		if (this.window.length < length) {
+			this.window = new double[length];
+		}
+		if (this.realSums.length < moments.size()) {
+			this.realSums = new double[moments.size()];
+			this.imagSums = new double[moments.size()];
 		}
 
-		return createZernikeMoment(_d, _order, _repitition);
-	}
+		// Scatter the pixels onto the grid of the stencil
+		int from = length;
+		int to = 0;
+		int count = 0;
+		final RealCursor<? extends RealType<?>> cur = ii.localizingCursor();
+		while (cur.hasNext()) {
+			cur.fwd();
+			final double x = cur.getDoublePosition(0);
+			final double y = cur.getDoublePosition(1);
+			int p = -1;
+			if (x == Math.rint(x) && y == Math.rint(y)) {
+				p = stencil.index((int) x, (int) y);
+			}
+			if (p < 0) {
+				final double xm = (x - centerX) / radius;
+				final double ym = (y - centerY) / radius;
+				final double r = Math.sqrt(xm * xm + ym * ym);
+				moments.add(cur.get().getRealDouble(), r, r > 0 ? xm / r : 1, r > 0 ? ym / r : 0);
+				continue;
+			}
+			this.window[p] = this.window[p] + cur.get().getRealDouble();
+			from = Math.min(from, p);
+			to = Math.max(to, p + 1);
+			count++;
+		}
 
-	/**
-	 * 
-	 * Create one zernike moment of order n and repitition m with suitable
-	 * radial polynom
-	 * 
-	 * @param _d
-	 *            Pascal matrix
-	 * @param _n
-	 *            Order n
-	 * @param _m
-	 *            Repition m
-	 * @return Empty Zernike moment of order n and repition m
-	 */
-	private ZernikeMoment createZernikeMoment(double[][] _d, int _n, int _m) {
-		ZernikeMoment p = new ZernikeMoment();
-		p.setM(_m);
-		p.setN(_n);
-		p.setP(createRadialPolynom(_n, _m, _d));
-		BigComplex complexNumber = new BigComplex();
-		p.setZm(complexNumber);
-		return p;
+		if (count > 0) {
+			stencil.dot(this.window, from, to, this.realSums, this.imagSums);
+			moments.add(this.realSums, this.imagSums, count);
+			Arrays.fill(this.window, from, to, 0);
+		}
 	}
 
 	/**
@@ -250,7 +199,7 @@ public class ZernikeComputer<T extends RealType<T>> extends
 	 *            maximal order of pascal's triangle
 	 * @return pascal's triangle
 	 */
-	private double[][] computePascalsTriangle(int _max) {
+	public static double[][] computePascalsTriangle(int _max) {
 		double[][] d = new double[_max + 1][_max + 1];
 		for (int n = 0; n <= _max; n++) {
 			for (int k = 0; k <= n; k++) {
@@ -296,6 +245,18 @@ public class ZernikeComputer<T extends RealType<T>> extends
 		this.enclosingCircle = circle;
 	}
 
+	/**
+	 * Calculate the moments with the cached basis stencils of a
+	 * ZernikeBasisCache (approximate, see ZernikeBasisCache) instead of
+	 * evaluating the basis at every pixel.
+	 * 
+	 * @param basisCache
+	 *            the cache or null to evaluate the basis at every pixel
+	 */
+	public void setBasisCache(ZernikeBasisCache basisCache) {
+		this.basisCache = basisCache;
+	}
+
 	/**
 	 * 
 	 * Creates a radial polynom for zernike moment with order n and repitition m
@@ -0,0 +1,279 @@
+package function.ops.zernike;
+
+import net.imagej.ops.features.zernike.helper.ZernikeMoment;
+import net.imagej.types.BigComplex;
+
+/**
+ * Accumulates many Zernike moments in a single pass over the pixels of a
+ * region. For each pixel, the radial polynomials of every order up to the
+ * maximum order are found with the recurrence
+ *
+ * R(n,m)(r) = r * (R(n-1,|m-1|)(r) + R(n-1,m+1)(r)) - R(n-2,m)(r)
+ *
+ * and cos(m*theta) and sin(m*theta) are found with the angle addition
+ * recurrence from cos(theta) and sin(theta), so no polynomial evaluation,
+ * trig function or object allocation is needed per pixel. The moments are
+ * summed in primitive real/imaginary accumulators.
+ *
+ * Used by ZernikeComputer and DoubleNormalizedZernikeComputer, which
+ * determine r and theta of each pixel.
+ *
+ * @author Jay Warrick
+ */
+public class ZernikeMomentAccumulator {
+
+	private final int[] orders;
+	private final int[] repetitions;
+	private final int maxOrder;
+	private final int maxRepetition;
+
+	private final double[] real;
+	private final double[] imag;
+	private int count = 0;
+
+	// Work space for each pixel, R[n][m] and cos/sin(m*theta)
+	private final double[][] radial;
+	private final double[] cos;
+	private final double[] sin;
+
+	/**
+	 * Accumulate all moments with orderMin <= n <= orderMax and 0 <= m <= n
+	 * with n - m even (i.e., the moments of ZernikeFeatureSet in the same order).
+	 *
+	 * @param orderMin
+	 * @param orderMax
+	 */
+	public ZernikeMomentAccumulator(int orderMin, int orderMax) {
+		this(getOrders(orderMin, orderMax, true), getOrders(orderMin, orderMax, false));
+	}
+
+	/**
+	 * Accumulate the moments with the given orders and repetitions
+	 *
+	 * @param orders
+	 *            order n of each moment
+	 * @param repetitions
+	 *            repetition m of each moment (|m| <= n and n - |m| even)
+	 */
+	public ZernikeMomentAccumulator(int[] orders, int[] repetitions) {
+		if (orders.length != repetitions.length) {
+			throw new IllegalArgumentException("Each order must have a repetition.");
+		}
+		this.orders = orders.clone();
+		this.repetitions = repetitions.clone();
+		int nMax = 0, mMax = 0;
+		for (int i = 0; i < orders.length; i++) {
+			int m = Math.abs(repetitions[i]);
+			if (m > orders[i] || (orders[i] - m) % 2 != 0) {
+				throw new IllegalArgumentException("This combination of order and repetition is not valid! n=" + orders[i] + " m=" + repetitions[i]);
+			}
+			nMax = Math.max(nMax, orders[i]);
+			mMax = Math.max(mMax, m);
+		}
+		this.maxOrder = nMax;
+		this.maxRepetition = mMax;
+		this.real = new double[orders.length];
+		this.imag = new double[orders.length];
+		this.radial = new double[nMax + 1][nMax + 2];
+		this.cos = new double[mMax + 1];
+		this.sin = new double[mMax + 1];
+	}
+
+	private static int[] getOrders(int orderMin, int orderMax, boolean orders) {
+		int n = 0;
+		for (int order = orderMin; order <= orderMax; order++) {
+			n = n + order / 2 + 1;
+		}
+		int[] ret = new int[n];
+		int i = 0;
+		for (int order = orderMin; order <= orderMax; order++) {
+			for (int repetition = 0; repetition <= order; repetition++) {
+				if (Math.abs(order - repetition) % 2 == 0) {
+					ret[i] = orders ? order : repetition;
+					i++;
+				}
+			}
+		}
+		return ret;
+	}
+
+	public void reset() {
+		for (int i = 0; i < this.real.length; i++) {
+			this.real[i] = 0;
+			this.imag[i] = 0;
+		}
+		this.count = 0;
+	}
+
+	/**
+	 * Add pixel * R(n,m)(r) * exp(-i*m*theta) to each moment
+	 *
+	 * @param pixel
+	 *            pixel value
+	 * @param r
+	 *            normalized radius
+	 * @param cosTheta
+	 *            cos(theta) (1 at r = 0)
+	 * @param sinTheta
+	 *            sin(theta) (0 at r = 0)
+	 */
+	public void add(double pixel, double r, double cosTheta, double sinTheta) {
+		this.computeBases(r, cosTheta, sinTheta);
+		final double[][] R = this.radial;
+		final double[] c = this.cos;
+		final double[] s = this.sin;
+		for (int i = 0; i < this.orders.length; i++) {
+			int m = this.repetitions[i];
+			double pr = pixel * R[this.orders[i]][Math.abs(m)];
+			this.real[i] = this.real[i] + pr * c[Math.abs(m)];
+			// exp(-i*m*theta) = cos(m*theta) - i*sin(m*theta) and sin(-x) = -sin(x)
+			this.imag[i] = this.imag[i] - (m < 0 ? -pr : pr) * s[Math.abs(m)];
+		}
+		this.count++;
+	}
+
+	/**
+	 * Add sums of pixel * R(n,m)(r) * exp(-i*m*theta) that were calculated
+	 * elsewhere (e.g., with a ZernikeBasisCache stencil) to the moments.
+	 *
+	 * @param realSums
+	 *            real part for each moment
+	 * @param imagSums
+	 *            imaginary part for each moment
+	 * @param n
+	 *            number of pixels summed
+	 */
+	public void add(double[] realSums, double[] imagSums, int n) {
+		for (int i = 0; i < this.orders.length; i++) {
+			this.real[i] = this.real[i] + realSums[i];
+			this.imag[i] = this.imag[i] + imagSums[i];
+		}
+		this.count = this.count + n;
+	}
+
+	/**
+	 * Evaluate R(n,m)(r) * exp(-i*m*theta) of each moment at one position
+	 *
+	 * @param r
+	 *            normalized radius
+	 * @param cosTheta
+	 *            cos(theta) (1 at r = 0)
+	 * @param sinTheta
+	 *            sin(theta) (0 at r = 0)
+	 * @param realParts
+	 *            filled with the real part for each moment
+	 * @param imagParts
+	 *            filled with the imaginary part for each moment
+	 */
+	public void evaluate(double r, double cosTheta, double sinTheta, double[] realParts, double[] imagParts) {
+		this.computeBases(r, cosTheta, sinTheta);
+		for (int i = 0; i < this.orders.length; i++) {
+			int m = this.repetitions[i];
+			double rad = this.radial[this.orders[i]][Math.abs(m)];
+			realParts[i] = rad * this.cos[Math.abs(m)];
+			imagParts[i] = -(m < 0 ? -rad : rad) * this.sin[Math.abs(m)];
+		}
+	}
+
+	/**
+	 * Fill the work space with R(n,m)(r) and cos/sin(m*theta)
+	 */
+	private void computeBases(double r, double cosTheta, double sinTheta) {
+		final double[][] R = this.radial;
+
+		// Radial polynomials. R[n][m] is 0 for m > n so the recurrence can
+		// read R[n-1][n] and R[n-1][n+1] (the extra column).
+		R[0][0] = 1;
+		for (int n = 1; n <= this.maxOrder; n++) {
+			for (int m = n % 2; m <= n; m = m + 2) {
+				double ret = r * (R[n - 1][Math.abs(m - 1)] + R[n - 1][m + 1]);
+				if (m <= n - 2) {
+					ret = ret - R[n - 2][m];
+				}
+				R[n][m] = ret;
+			}
+		}
+
+		// cos(m*theta) and sin(m*theta)
+		final double[] c = this.cos;
+		final double[] s = this.sin;
+		c[0] = 1;
+		s[0] = 0;
+		for (int m = 1; m <= this.maxRepetition; m++) {
+			c[m] = c[m - 1] * cosTheta - s[m - 1] * sinTheta;
+			s[m] = s[m - 1] * cosTheta + c[m - 1] * sinTheta;
+		}
+	}
+
+	/**
+	 * Count a pixel (in the normalization) without adding it to the moments
+	 * (e.g., a pixel at a position where every moment is 0)
+	 */
+	public void addCount() {
+		this.count++;
+	}
+
+	public int getCount() {
+		return this.count;
+	}
+
+	public int size() {
+		return this.orders.length;
+	}
+
+	public int getOrder(int i) {
+		return this.orders[i];
+	}
+
+	public int getRepetition(int i) {
+		return this.repetitions[i];
+	}
+
+	/**
+	 * @return a new accumulator for the same moments
+	 */
+	public ZernikeMomentAccumulator copy() {
+		return new ZernikeMomentAccumulator(this.orders, this.repetitions);
+	}
+
+	/**
+	 * @return the normalized real part of moment i (i.e., multiplied by (n + 1) / count)
+	 */
+	public double getReal(int i) {
+		return this.real[i] * (this.orders[i] + 1) / this.count;
+	}
+
+	/**
+	 * @return the normalized imaginary part of moment i (i.e., multiplied by (n + 1) / count)
+	 */
+	public double getImaginary(int i) {
+		return this.imag[i] * (this.orders[i] + 1) / this.count;
+	}
+
+	public double getMagnitude(int i) {
+		double re = this.getReal(i);
+		double im = this.getImaginary(i);
+		return Math.sqrt(re * re + im * im);
+	}
+
+	public double getPhase(int i) {
+		return Math.atan2(this.getImaginary(i), this.getReal(i));
+	}
+
+	/**
+	 * @return moment i as a (normalized) ZernikeMoment
+	 */
+	public ZernikeMoment getMoment(int i) {
+		int n = this.orders[i];
+		int m = this.repetitions[i];
+		ZernikeMoment moment = new ZernikeMoment();
+		moment.setN(n);
+		moment.setM(m);
+		moment.setP(ZernikeComputer.createRadialPolynom(n, m, ZernikeComputer.computePascalsTriangle(n)));
+		BigComplex zm = new BigComplex();
+		zm.setReal(this.getReal(i));
+		zm.setImag(this.getImaginary(i));
+		moment.setZm(zm);
+		return moment;
+	}
+}
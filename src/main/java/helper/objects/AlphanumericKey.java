@@ -0,0 +1,159 @@
+package helper.objects;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Precomputed "collation key" for the alphanumeric sort order of
+ * StringUtility.compareString. The string is split once into runs of digits
+ * and non-digits, and digit runs are parsed to longs, so comparing two keys is
+ * mostly integer comparisons (e.g., "Time=12" vs "Time=112").
+ *
+ * Use this when the same values are compared many times, such as sorting dim
+ * values (see AlphanumericKey.sort). Results are always identical to
+ * StringUtility.compareString.
+ *
+ * @author Jay Warrick
+ *
+ */
+public final class AlphanumericKey implements Comparable<AlphanumericKey> {
+
+	public final String source;
+
+	// parsed value of each digit run, -1 for non-digit runs or digit runs too long for a long
+	private final long[] values;
+	// start index of each run in source (plus a final entry for source.length())
+	private final int[] starts;
+	private final boolean[] digits;
+
+	/**
+	 * Class constructor
+	 * Split the string into runs of digits and non-digits.
+	 *
+	 * @param source
+	 */
+	public AlphanumericKey(String source)
+	{
+		this.source = source;
+		ArrayList<Integer> runStarts = new ArrayList<Integer>();
+		int index = 0;
+		while (index < source.length())
+		{
+			runStarts.add(index);
+			index = StringUtility.endOfRun(source, index, Character.isDigit(source.charAt(index)));
+		}
+		int n = runStarts.size();
+		this.starts = new int[n + 1];
+		this.values = new long[n];
+		this.digits = new boolean[n];
+		for (int i = 0; i < n; i++)
+		{
+			this.starts[i] = runStarts.get(i);
+		}
+		this.starts[n] = source.length();
+		for (int i = 0; i < n; i++)
+		{
+			this.digits[i] = Character.isDigit(source.charAt(this.starts[i]));
+			this.values[i] = this.digits[i] ? parseRun(source, this.starts[i], this.starts[i + 1]) : -1;
+		}
+	}
+
+	/**
+	 * Sort a list of strings alphanumerically, computing the key of each
+	 * distinct value only once.
+	 *
+	 * @param strings
+	 */
+	public static void sort(List<String> strings)
+	{
+		HashMap<String,AlphanumericKey> keys = new HashMap<String,AlphanumericKey>();
+		ArrayList<AlphanumericKey> toSort = new ArrayList<AlphanumericKey>(strings.size());
+		for (String s : strings)
+		{
+			AlphanumericKey key = keys.get(s);
+			if(key == null)
+			{
+				key = new AlphanumericKey(s);
+				keys.put(s, key);
+			}
+			toSort.add(key);
+		}
+		Collections.sort(toSort);
+		for (int i = 0; i < toSort.size(); i++)
+		{
+			strings.set(i, toSort.get(i).source);
+		}
+	}
+
+	@Override
+	public int compareTo(AlphanumericKey that)
+	{
+		int n = Math.min(this.values.length, that.values.length);
+		for (int i = 0; i < n; i++)
+		{
+			int result;
+			if(this.digits[i] && that.digits[i])
+			{
+				if(this.values[i] >= 0 && that.values[i] >= 0)
+				{
+					result = Long.compare(this.values[i], that.values[i]);
+				}
+				else
+				{
+					result = StringUtility.compareDigitRuns(this.source, this.starts[i], this.starts[i + 1], that.source, that.starts[i], that.starts[i + 1]);
+				}
+			}
+			else
+			{
+				result = StringUtility.compareRuns(this.source, this.starts[i], this.starts[i + 1], that.source, that.starts[i], that.starts[i + 1]);
+			}
+			if(result != 0)
+			{
+				return result;
+			}
+		}
+		return this.source.length() - that.source.length();
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if(o instanceof AlphanumericKey)
+		{
+			return this.source.equals(((AlphanumericKey) o).source);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return this.source.hashCode();
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.source;
+	}
+
+	/**
+	 * Parse a run of digits, returning -1 if it doesn't fit in a long
+	 */
+	private static long parseRun(String s, int start, int end)
+	{
+		long ret = 0;
+		for (int i = start; i < end; i++)
+		{
+			int d = Character.digit(s.charAt(i), 10);
+			if(ret > (Long.MAX_VALUE - d) / 10)
+			{
+				return -1;
+			}
+			ret = ret * 10 + d;
+		}
+		return ret;
+	}
+}
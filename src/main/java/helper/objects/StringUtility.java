@@ -8,7 +8,6 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map.Entry;
@@ -258,7 +257,7 @@ public class StringUtility implements Comparator<String> {
 
 	public static void sortStringList(List<String> strings)
 	{
-		Collections.sort(strings, new StringUtility());
+		AlphanumericKey.sort(strings);
 	}
 
 	/**
@@ -292,92 +291,121 @@ public class StringUtility implements Comparator<String> {
 	/**
 	 * Alphanumeric string sorter
 	 * 
+	 * Strings are compared run by run where a run is a maximal sequence of
+	 * digits or of non-digits. Two digit runs are compared by numeric value,
+	 * anything else is compared character by character. If all runs match,
+	 * the shorter string comes first (e.g., "a1" &lt; "a01").
+	 * 
+	 * This walks both strings in place and doesn't allocate. See
+	 * AlphanumericKey for a cached version for values that are compared
+	 * over and over (e.g., dim values).
+	 * 
 	 * @param thisString
 	 * @param thatString
 	 * @return
 	 */
 	public static int compareString(String thisString, String thatString)
 	{
-		String string1 = thisString;
-		String string2 = thatString;
-
-		if(string2 == null || string1 == null)
+		if(thatString == null || thisString == null)
 		{
 			return 0;
 		}
-
-		int lengthFirstStr = string1.length();
-		int lengthSecondStr = string2.length();
-
+		
+		int length1 = thisString.length();
+		int length2 = thatString.length();
 		int index1 = 0;
 		int index2 = 0;
-
-		while (index1 < lengthFirstStr && index2 < lengthSecondStr)
+		
+		while (index1 < length1 && index2 < length2)
 		{
-			char ch1 = string1.charAt(index1);
-			char ch2 = string2.charAt(index2);
-
-			int maxLength = Math.max(lengthFirstStr, lengthSecondStr);
-			char[] space1 = new char[maxLength];
-			char[] space2 = new char[maxLength];
-
-			int loc1 = 0;
-			int loc2 = 0;
-
-			do
-			{
-				space1[loc1++] = ch1;
-				index1++;
-
-				if(index1 < lengthFirstStr)
-				{
-					ch1 = string1.charAt(index1);
-				}
-				else
-				{
-					break;
-				}
-			}
-			while (Character.isDigit(ch1) == Character.isDigit(space1[0]));
-
-			do
-			{
-				space2[loc2++] = ch2;
-				index2++;
-
-				if(index2 < lengthSecondStr)
-				{
-					ch2 = string2.charAt(index2);
-				}
-				else
-				{
-					break;
-				}
-			}
-			while (Character.isDigit(ch2) == Character.isDigit(space2[0]));
-
-			String str1 = new String(space1);
-			String str2 = new String(space2);
-
+			boolean digits1 = Character.isDigit(thisString.charAt(index1));
+			boolean digits2 = Character.isDigit(thatString.charAt(index2));
+			int end1 = endOfRun(thisString, index1, digits1);
+			int end2 = endOfRun(thatString, index2, digits2);
+			
 			int result;
-
-			if(Character.isDigit(space1[0]) && Character.isDigit(space2[0]))
+			if(digits1 && digits2)
 			{
-				Long firstNumberToCompare = new Long(Long.parseLong(str1.trim()));
-				Long secondNumberToCompare = new Long(Long.parseLong(str2.trim()));
-				result = firstNumberToCompare.compareTo(secondNumberToCompare);
+				result = compareDigitRuns(thisString, index1, end1, thatString, index2, end2);
 			}
 			else
 			{
-				result = str1.compareTo(str2);
+				result = compareRuns(thisString, index1, end1, thatString, index2, end2);
 			}
-
+			
 			if(result != 0)
 			{
 				return result;
 			}
+			index1 = end1;
+			index2 = end2;
+		}
+		return length1 - length2;
+	}
+	
+	/**
+	 * Return the index just past the run of digits (or non-digits) starting at 'start'
+	 */
+	static int endOfRun(String s, int start, boolean digits)
+	{
+		int end = start + 1;
+		while (end < s.length() && Character.isDigit(s.charAt(end)) == digits)
+		{
+			end++;
+		}
+		return end;
+	}
+	
+	/**
+	 * Compare two runs character by character
+	 */
+	static int compareRuns(String s1, int start1, int end1, String s2, int start2, int end2)
+	{
+		int n1 = end1 - start1;
+		int n2 = end2 - start2;
+		int n = Math.min(n1, n2);
+		for (int i = 0; i < n; i++)
+		{
+			char c1 = s1.charAt(start1 + i);
+			char c2 = s2.charAt(start2 + i);
+			if(c1 != c2)
+			{
+				return c1 - c2;
+			}
+		}
+		return n1 - n2;
+	}
+	
+	/**
+	 * Compare two runs of digits by numeric value without parsing them
+	 * (i.e., works for runs of any length). Leading zeros are ignored.
+	 */
+	static int compareDigitRuns(String s1, int start1, int end1, String s2, int start2, int end2)
+	{
+		while (start1 < end1 - 1 && Character.digit(s1.charAt(start1), 10) == 0)
+		{
+			start1++;
+		}
+		while (start2 < end2 - 1 && Character.digit(s2.charAt(start2), 10) == 0)
+		{
+			start2++;
+		}
+		int n1 = end1 - start1;
+		int n2 = end2 - start2;
+		if(n1 != n2)
+		{
+			return n1 < n2 ? -1 : 1;
+		}
+		for (int i = 0; i < n1; i++)
+		{
+			int d1 = Character.digit(s1.charAt(start1 + i), 10);
+			int d2 = Character.digit(s2.charAt(start2 + i), 10);
+			if(d1 != d2)
+			{
+				return d1 < d2 ? -1 : 1;
+			}
 		}
-		return lengthFirstStr - lengthSecondStr;
+		return 0;
 	}
 
 	public static CSVList getCSVListAndRemoveWhiteSpaceOnEnds(String param)
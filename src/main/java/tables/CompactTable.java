@@ -0,0 +1,492 @@
+package tables;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * CompactTable is an alternative to Table for large tables where every lookup
+ * through a TreeMap&lt;DimensionMap,E&gt; (and thus an alphanumeric comparison
+ * of every dim value along the way) is too expensive.
+ *
+ * Each DimensionMap is encoded as a single long coordinate using the ordinals
+ * of its values within the Dims of the DimTable (see DimTable.encode). Data is
+ * stored in a plain array indexed by the coordinate when the DimTable is small
+ * enough or densely populated, otherwise in a primitive open-addressing hash
+ * map keyed by the coordinate.
+ *
+ * Filtering follows the same semantics as DimTable.getSubTable and
+ * DimTable.testUnderdefinedMap, so a filter that doesn't match the DimTable
+ * returns the whole table.
+ *
+ * @author Jay Warrick
+ *
+ */
+public class CompactTable<E> implements Iterable<DimensionMap> {
+
+	// Largest array we will allocate for dense storage
+	public static final long MAX_DENSE_SIZE = Integer.MAX_VALUE - 8;
+
+	private static final float LOAD_FACTOR = 0.6f;
+	private static final long EMPTY = -1;
+
+	public final DimTable dimTable;
+	private final long mapCount;
+
+	// dense storage, indexed directly by coordinate
+	private Object[] dense;
+
+	// sparse storage, open addressing with linear probing
+	private long[] keys;
+	private Object[] values;
+	private int mask;
+
+	private int size;
+
+	/**
+	 * Class constructor
+	 * Uses dense storage whenever the DimTable is small enough to be indexed by an array.
+	 *
+	 * @param dimTable DimTable
+	 */
+	public CompactTable(DimTable dimTable)
+	{
+		this(dimTable, -1);
+	}
+
+	/**
+	 * Class constructor
+	 * Uses dense storage if the expected number of entries fills at least half of
+	 * the DimTable, otherwise uses a primitive hash map sized for expectedSize.
+	 *
+	 * @param dimTable DimTable
+	 * @param expectedSize expected number of entries (negative if unknown)
+	 */
+	public CompactTable(DimTable dimTable, int expectedSize)
+	{
+		this.dimTable = dimTable;
+		Long count = dimTable.mapCountLong();
+		// An empty DimTable still holds one (empty) DimensionMap
+		this.mapCount = (count == null) ? -1 : Math.max(1, count);
+		boolean useDense = this.mapCount >= 0 && this.mapCount <= MAX_DENSE_SIZE && (expectedSize < 0 || 2L * expectedSize >= this.mapCount);
+		if(useDense)
+		{
+			this.dense = new Object[(int) this.mapCount];
+		}
+		else
+		{
+			this.initSparse(Math.max(expectedSize, 16));
+		}
+		this.size = 0;
+	}
+
+	/**
+	 * Class constructor
+	 * Copy the data of a Table into a CompactTable with the same DimTable.
+	 *
+	 * @param table Table
+	 */
+	public CompactTable(Table<E> table)
+	{
+		this(table.dimTable, table.data.size());
+		for (Entry<DimensionMap,E> e : table.data.entrySet())
+		{
+			this.put(e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * @return true if the data is stored in an array indexed directly by coordinate
+	 */
+	public boolean isDense()
+	{
+		return this.dense != null;
+	}
+
+	/**
+	 * @return the number of non-null entries
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Return the coordinate of the map within this table (see DimTable.encode)
+	 *
+	 * @param map DimensionMap
+	 * @return the coordinate or -1 if the map doesn't exist in this table
+	 */
+	public long coordinate(DimensionMap map)
+	{
+		return this.dimTable.encode(map);
+	}
+
+	/**
+	 * Put a value in the table. Putting a null value removes the entry.
+	 *
+	 * @param map DimensionMap (can be overdefined)
+	 * @param value E
+	 * @return false if the map isn't part of this DimTable
+	 */
+	public boolean put(DimensionMap map, E value)
+	{
+		return this.put(this.dimTable.encode(map), value);
+	}
+
+	/**
+	 * Put a value in the table at the given coordinate. Putting a null value removes the entry.
+	 *
+	 * @param coordinate long
+	 * @param value E
+	 * @return false if the coordinate is out of range
+	 */
+	public boolean put(long coordinate, E value)
+	{
+		if(coordinate < 0 || (this.mapCount >= 0 && coordinate >= this.mapCount))
+		{
+			return false;
+		}
+		if(value == null)
+		{
+			this.remove(coordinate);
+			return true;
+		}
+		if(this.dense != null)
+		{
+			if(this.dense[(int) coordinate] == null)
+			{
+				this.size++;
+			}
+			this.dense[(int) coordinate] = value;
+			return true;
+		}
+		int slot = this.slot(coordinate);
+		while (this.keys[slot] != EMPTY)
+		{
+			if(this.keys[slot] == coordinate)
+			{
+				this.values[slot] = value;
+				return true;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		this.keys[slot] = coordinate;
+		this.values[slot] = value;
+		this.size++;
+		if(this.size > LOAD_FACTOR * this.keys.length)
+		{
+			this.rehash(this.keys.length * 2);
+		}
+		return true;
+	}
+
+	/**
+	 * Same as 'get(map)' for symmetry with Table.
+	 *
+	 * @param map DimensionMap
+	 * @return the value or null
+	 */
+	public E getData(DimensionMap map)
+	{
+		return this.get(this.dimTable.encode(map));
+	}
+
+	/**
+	 * @param map DimensionMap (can be overdefined)
+	 * @return the value or null
+	 */
+	public E get(DimensionMap map)
+	{
+		return this.get(this.dimTable.encode(map));
+	}
+
+	/**
+	 * @param coordinate long
+	 * @return the value or null
+	 */
+	@SuppressWarnings("unchecked")
+	public E get(long coordinate)
+	{
+		if(coordinate < 0)
+		{
+			return null;
+		}
+		if(this.dense != null)
+		{
+			if(coordinate >= this.dense.length)
+			{
+				return null;
+			}
+			return (E) this.dense[(int) coordinate];
+		}
+		int slot = this.slot(coordinate);
+		while (this.keys[slot] != EMPTY)
+		{
+			if(this.keys[slot] == coordinate)
+			{
+				return (E) this.values[slot];
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Remove the entry at the given coordinate.
+	 *
+	 * @param coordinate long
+	 * @return the removed value or null
+	 */
+	@SuppressWarnings("unchecked")
+	public E remove(long coordinate)
+	{
+		if(coordinate < 0)
+		{
+			return null;
+		}
+		if(this.dense != null)
+		{
+			if(coordinate >= this.dense.length)
+			{
+				return null;
+			}
+			E ret = (E) this.dense[(int) coordinate];
+			if(ret != null)
+			{
+				this.dense[(int) coordinate] = null;
+				this.size--;
+			}
+			return ret;
+		}
+		int slot = this.slot(coordinate);
+		while (this.keys[slot] != EMPTY)
+		{
+			if(this.keys[slot] == coordinate)
+			{
+				E ret = (E) this.values[slot];
+				this.deleteSlot(slot);
+				this.size--;
+				return ret;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Return a new CompactTable for the subtable defined by the filter.
+	 * The filter follows the same rules as DimTable.getSubTable(filter).
+	 *
+	 * @param filter DimensionMap
+	 * @return the filtered CompactTable
+	 */
+	public CompactTable<E> getSubTable(DimensionMap filter)
+	{
+		DimTable sub = this.dimTable.getSubTable(filter);
+		CompactTable<E> ret = new CompactTable<E>(sub, this.size);
+		for (Dim d : sub)
+		{
+			if(d.size() == 0)
+			{
+				return ret;
+			}
+		}
+		int[][] parentOrdinals = this.getParentOrdinals(sub);
+		long[] strides = this.dimTable.getStrides();
+		int[] index = new int[sub.size()];
+		long subCoordinate = 0;
+		do
+		{
+			long parentCoordinate = this.parentCoordinate(parentOrdinals, strides, index);
+			if(parentCoordinate >= 0)
+			{
+				E value = this.get(parentCoordinate);
+				if(value != null)
+				{
+					ret.put(subCoordinate, value);
+				}
+			}
+			subCoordinate++;
+		}
+		while (increment(index, sub));
+		return ret;
+	}
+
+	/**
+	 * Return the filtered data as a TreeMap in the same manner as Table.getFilteredData(filter).
+	 *
+	 * @param filter DimensionMap
+	 * @return a TreeMap of the matching non-null entries
+	 */
+	public TreeMap<DimensionMap,E> getFilteredData(DimensionMap filter)
+	{
+		return this.getSubTable(filter).toTable().data;
+	}
+
+	/**
+	 * @param filter csv string for a DimensionMap
+	 * @return a TreeMap of the matching non-null entries
+	 */
+	public TreeMap<DimensionMap,E> getFilteredData(String filter)
+	{
+		return this.getFilteredData(new DimensionMap(filter));
+	}
+
+	/**
+	 * Convert to a TreeMap backed Table (e.g., for writing)
+	 *
+	 * @return a new Table with the same DimTable
+	 */
+	public Table<E> toTable()
+	{
+		TreeMap<DimensionMap,E> data = new TreeMap<DimensionMap,E>();
+		if(this.dense != null)
+		{
+			for (int i = 0; i < this.dense.length; i++)
+			{
+				if(this.dense[i] != null)
+				{
+					data.put(this.dimTable.decode(i), this.get(i));
+				}
+			}
+		}
+		else
+		{
+			for (int i = 0; i < this.keys.length; i++)
+			{
+				if(this.keys[i] != EMPTY)
+				{
+					data.put(this.dimTable.decode(this.keys[i]), this.get(this.keys[i]));
+				}
+			}
+		}
+		return new Table<E>(this.dimTable, data);
+	}
+
+	@Override
+	public Iterator<DimensionMap> iterator()
+	{
+		return this.dimTable.getMapIterator().iterator();
+	}
+
+	/**
+	 * For each Dim of the subtable, map the ordinals of its values to the ordinals of the same values in this table.
+	 */
+	private int[][] getParentOrdinals(DimTable sub)
+	{
+		int[][] ret = new int[sub.size()][];
+		for (int i = 0; i < sub.size(); i++)
+		{
+			Dim subDim = sub.get(i);
+			Dim parentDim = this.dimTable.get(i);
+			ret[i] = new int[subDim.size()];
+			for (int j = 0; j < subDim.size(); j++)
+			{
+				ret[i][j] = parentDim.ordinal(subDim.valueAt(j));
+			}
+		}
+		return ret;
+	}
+
+	private long parentCoordinate(int[][] parentOrdinals, long[] strides, int[] index)
+	{
+		long ret = 0;
+		for (int i = 0; i < index.length; i++)
+		{
+			int ordinal = parentOrdinals[i][index[i]];
+			if(ordinal < 0)
+			{
+				return -1;
+			}
+			ret = ret + ordinal * strides[i];
+		}
+		return ret;
+	}
+
+	/**
+	 * Advance the odometer in place (last Dim fastest)
+	 *
+	 * @return false when the odometer wraps around
+	 */
+	private static boolean increment(int[] index, DimTable dt)
+	{
+		for (int i = index.length - 1; i > -1; i--)
+		{
+			if(index[i] < dt.get(i).size() - 1)
+			{
+				index[i]++;
+				return true;
+			}
+			index[i] = 0;
+		}
+		return false;
+	}
+
+	private void initSparse(int expectedSize)
+	{
+		long needed = (long) Math.ceil(expectedSize / LOAD_FACTOR);
+		int capacity = 16;
+		while (capacity < needed && capacity < (1 << 30))
+		{
+			capacity = capacity << 1;
+		}
+		this.keys = new long[capacity];
+		Arrays.fill(this.keys, EMPTY);
+		this.values = new Object[capacity];
+		this.mask = capacity - 1;
+	}
+
+	private int slot(long coordinate)
+	{
+		long h = coordinate * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & this.mask;
+	}
+
+	private void rehash(int newCapacity)
+	{
+		long[] oldKeys = this.keys;
+		Object[] oldValues = this.values;
+		this.keys = new long[newCapacity];
+		Arrays.fill(this.keys, EMPTY);
+		this.values = new Object[newCapacity];
+		this.mask = newCapacity - 1;
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			if(oldKeys[i] != EMPTY)
+			{
+				int slot = this.slot(oldKeys[i]);
+				while (this.keys[slot] != EMPTY)
+				{
+					slot = (slot + 1) & this.mask;
+				}
+				this.keys[slot] = oldKeys[i];
+				this.values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Backward-shift deletion so that probe sequences stay intact without tombstones.
+	 */
+	private void deleteSlot(int slot)
+	{
+		int gap = slot;
+		int next = (gap + 1) & this.mask;
+		while (this.keys[next] != EMPTY)
+		{
+			int home = this.slot(this.keys[next]);
+			// move the entry into the gap if its home slot isn't cyclically within (gap, next]
+			if(((next - home) & this.mask) >= ((next - gap) & this.mask))
+			{
+				this.keys[gap] = this.keys[next];
+				this.values[gap] = this.values[next];
+				gap = next;
+			}
+			next = (next + 1) & this.mask;
+		}
+		this.keys[gap] = EMPTY;
+		this.values[gap] = null;
+	}
+}
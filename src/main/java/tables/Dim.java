@@ -3,6 +3,7 @@ package tables;
 import java.text.DecimalFormat;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.TreeSet;
 import java.util.Vector;
@@ -24,6 +25,8 @@ public class Dim implements Copiable<Dim> {
 	public final Vector<String> dimValues;
 	// dimValueSet, a string TreeSet, e.g. {0, 1, 2, 3} if imRow = 4 means 4 rows.
 	public TreeSet<String> dimValueSet;
+	// dimValueOrdinals, maps each dim value to its position in dimValues for integer-coded lookups
+	private HashMap<String,Integer> dimValueOrdinals;
 	
 	
 	/**
@@ -60,6 +63,12 @@ public class Dim implements Copiable<Dim> {
 	{
 		this.dimValueSet = new TreeSet<String>(new StringUtility());
 		this.dimValueSet.addAll(this.dimValues);
+		this.dimValueOrdinals = new HashMap<String,Integer>(this.dimValues.size() * 2);
+		for (int i = 0; i < this.dimValues.size(); i++)
+		{
+			// keep the first occurrence to match Vector.indexOf
+			this.dimValueOrdinals.putIfAbsent(this.dimValues.get(i), i);
+		}
 	}
 	
 	/**
@@ -295,6 +304,28 @@ public class Dim implements Copiable<Dim> {
 		return this.dimValues.indexOf(value);
 	}
 	
+	/**
+	 * returned ordinal (index) of given dim value using a hashed lookup
+	 * instead of a linear search. Like the dimValueSet, this reflects the
+	 * dimValues as of the last call to updateDimValueSet.
+	 * 
+	 * @param value string
+	 * @return index integer or -1 if the value is not in this Dim
+	 */
+	public int ordinal(String value)
+	{
+		if(value == null)
+		{
+			return -1;
+		}
+		Integer ret = this.dimValueOrdinals.get(value);
+		if(ret == null)
+		{
+			return -1;
+		}
+		return ret;
+	}
+	
 	/**
 	 * returned minimum dim value
 	 * 
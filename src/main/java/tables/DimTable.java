@@ -5,6 +5,14 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import helper.objects.Copiable;
 import helper.objects.SSVList;
@@ -406,6 +414,78 @@ public class DimTable extends ArrayList<Dim> implements Copiable<DimTable> {
 		return total;
 	}
 	
+	/**
+	 * returned the row-major strides of this DimTable (i.e., the number of
+	 * dimension maps spanned by one step of each Dim). The last Dim varies
+	 * fastest, matching the order of the map iterator.
+	 *
+	 * @return an array of strides, one per Dim
+	 */
+	public long[] getStrides()
+	{
+		long[] ret = new long[this.size()];
+		long stride = 1;
+		for (int i = this.size() - 1; i > -1; i--)
+		{
+			ret[i] = stride;
+			stride = stride * this.get(i).size();
+		}
+		return ret;
+	}
+
+	/**
+	 * Encode a DimensionMap as a single integer coordinate (i.e., the row of
+	 * the map iterator that would produce this map). Keys of the map that are
+	 * not Dims of this table are ignored (i.e., the map can be overdefined),
+	 * just as a TreeMap lookup with an overdefined DimensionMap would.
+	 *
+	 * @param map DimensionMap
+	 * @return the coordinate or -1 if the map is underdefined or has values not in this DimTable
+	 */
+	public long encode(DimensionMap map)
+	{
+		long ret = 0;
+		long stride = 1;
+		for (int i = this.size() - 1; i > -1; i--)
+		{
+			Dim d = this.get(i);
+			int ordinal = d.ordinal(map.get(d.dimName));
+			if(ordinal < 0)
+			{
+				return -1;
+			}
+			ret = ret + ordinal * stride;
+			stride = stride * d.size();
+		}
+		return ret;
+	}
+
+	/**
+	 * Decode a coordinate produced by 'encode(map)' back into a new DimensionMap.
+	 *
+	 * @param coordinate long
+	 * @return the DimensionMap for the coordinate or null if out of range
+	 */
+	public DimensionMap decode(long coordinate)
+	{
+		if(coordinate < 0)
+		{
+			return null;
+		}
+		DimensionMap ret = new DimensionMap();
+		for (int i = this.size() - 1; i > -1; i--)
+		{
+			Dim d = this.get(i);
+			ret.put(d.dimName, d.valueAt((int) (coordinate % d.size())));
+			coordinate = coordinate / d.size();
+		}
+		if(coordinate > 0)
+		{
+			return null;
+		}
+		return ret;
+	}
+
 	/**
 	 * DimTables just need to have the same dims (not necessarily in the same order) and each matching dim must have the same values (in the same order).
 	 * 
@@ -740,6 +820,116 @@ public class DimTable extends ArrayList<Dim> implements Copiable<DimTable> {
 		return new DimTableMapIterable(this, filter, skipN);
 	}
 	
+	/**
+	 * Stream the DimensionMaps of this DimTable that match the filter. Parallel
+	 * streams are split on the strides of the dims (see DimTableMapSpliterator).
+	 * 
+	 * @param filter DimensionMap (can be null)
+	 * @param parallel
+	 * @return a Stream of new DimensionMaps in the same order as getMapIterator(filter)
+	 */
+	public Stream<DimensionMap> getMapStream(DimensionMap filter, boolean parallel)
+	{
+		return StreamSupport.stream(this.getMapIterator(filter).spliterator(), parallel);
+	}
+	
+	/**
+	 * Stream the subtables associated with each value of the Dim named dimName
+	 * (see getSubTableIterator).
+	 * 
+	 * @param dimName
+	 * @param parallel
+	 * @return a Stream of subtables in the same order as getSubTableIterator(dimName)
+	 */
+	public Stream<DimTable> getSubTableStream(String dimName, boolean parallel)
+	{
+		return StreamSupport.stream(this.getSubTableIterator(dimName).spliterator(), parallel);
+	}
+	
+	/**
+	 * Apply the function to every DimensionMap that matches the filter using
+	 * the threads of the given pool. Null results are left out.
+	 * 
+	 * @param filter DimensionMap (can be null)
+	 * @param function
+	 * @param pool ForkJoinPool (null for the common pool)
+	 * @return the results sorted by DimensionMap or null if the function threw an exception
+	 */
+	public <R> TreeMap<DimensionMap,R> processMaps(DimensionMap filter, final Function<DimensionMap,R> function, ForkJoinPool pool)
+	{
+		final Stream<DimensionMap> stream = this.getMapStream(filter, true);
+		return runInPool(pool, new Callable<TreeMap<DimensionMap,R>>(){
+			@Override
+			public TreeMap<DimensionMap,R> call() throws Exception
+			{
+				return stream.collect(new Supplier<TreeMap<DimensionMap,R>>(){
+					@Override
+					public TreeMap<DimensionMap,R> get()
+					{
+						return new TreeMap<DimensionMap,R>();
+					}
+				}, new BiConsumer<TreeMap<DimensionMap,R>,DimensionMap>(){
+					@Override
+					public void accept(TreeMap<DimensionMap,R> results, DimensionMap map)
+					{
+						R result = function.apply(map);
+						if(result != null)
+						{
+							results.put(map, result);
+						}
+					}
+				}, new BiConsumer<TreeMap<DimensionMap,R>,TreeMap<DimensionMap,R>>(){
+					@Override
+					public void accept(TreeMap<DimensionMap,R> results, TreeMap<DimensionMap,R> other)
+					{
+						results.putAll(other);
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Apply the function to the subtable associated with each value of the Dim
+	 * named dimName (e.g., each well or image) using the threads of the given pool.
+	 * 
+	 * @param dimName
+	 * @param function
+	 * @param pool ForkJoinPool (null for the common pool)
+	 * @return the results in the same order as getSubTableIterator(dimName) or null if the function threw an exception
+	 */
+	public <R> List<R> processSubTables(String dimName, final Function<DimTable,R> function, ForkJoinPool pool)
+	{
+		final Stream<DimTable> stream = this.getSubTableStream(dimName, true);
+		return runInPool(pool, new Callable<List<R>>(){
+			@Override
+			public List<R> call() throws Exception
+			{
+				return stream.map(function).collect(Collectors.<R>toList());
+			}
+		});
+	}
+	
+	/**
+	 * Run a task that uses parallel streams so that they use the threads of the given pool.
+	 */
+	private static <T> T runInPool(ForkJoinPool pool, Callable<T> task)
+	{
+		try
+		{
+			if(pool == null)
+			{
+				pool = ForkJoinPool.commonPool();
+			}
+			return pool.submit(task).get();
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see miscellaneous.Copiable#copy()
 	 */
@@ -1,20 +1,22 @@
 package tables;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Map.Entry;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
+import helper.objects.AlphanumericKey;
 import helper.objects.StringUtility;
 
 public class DimTableBuilder {
 	
-	TreeMap<String,TreeSet<String>> table;
+	TreeMap<String,HashSet<String>> table;
 	StringUtility sorter;
 	
 	public DimTableBuilder()
 	{
 		sorter = new StringUtility();
-		table = new TreeMap<String,TreeSet<String>>(sorter);		
+		table = new TreeMap<String,HashSet<String>>(sorter);		
 	}
 	
 	/**
@@ -25,10 +27,10 @@ public class DimTableBuilder {
 	{
 		for(Entry<String,String> e : map.entrySet())
 		{
-			TreeSet<String> temp = this.table.get(e.getKey());
+			HashSet<String> temp = this.table.get(e.getKey());
 			if(temp == null)
 			{
-				temp = new TreeSet<String>(sorter);
+				temp = new HashSet<String>();
 				this.table.put(e.getKey(), temp);
 			}
 			temp.add(e.getValue());
@@ -38,9 +40,12 @@ public class DimTableBuilder {
 	public DimTable getDimTable()
 	{
 		DimTable ret = new DimTable();
-		for(Entry<String,TreeSet<String>> e : this.table.entrySet())
+		for(Entry<String,HashSet<String>> e : this.table.entrySet())
 		{
-			Dim toAdd = new Dim(e.getKey(), e.getValue());
+			// Values are only sorted once here (using precomputed sort keys) rather than on every add
+			ArrayList<String> values = new ArrayList<String>(e.getValue());
+			AlphanumericKey.sort(values);
+			Dim toAdd = new Dim(e.getKey(), values);
 			ret.add(toAdd);
 		}
 		return ret;
@@ -1,6 +1,7 @@
 package tables;
 
 import java.util.Iterator;
+import java.util.Spliterator;
 
 public class DimTableIterable implements Iterable<DimTable>{
 	
@@ -19,5 +20,12 @@ public class DimTableIterable implements Iterable<DimTable>{
 		// an iterator of DimTables, providing a new table for each subtable associated with each value in the specified Dim.
 		return new DimTableIterator(this.table, this.dimName);
 	}
+	
+	@Override
+	public Spliterator<DimTable> spliterator()
+	{
+		// splittable so each subtable can be processed in parallel
+		return new DimTableSpliterator(this.table, this.dimName);
+	}
 
 }
@@ -1,10 +1,13 @@
 package tables;
 
+import java.util.Spliterator;
+
 public class DimTableMapIterable implements Iterable<DimensionMap> {
 	
 	private DimTable dimTable;
 	private DimensionMap filter;
 	private int skipN;
+	private boolean flyweight = false;
 	
 	public DimTableMapIterable(DimTable dimTable)
 	{
@@ -30,8 +33,32 @@ public class DimTableMapIterable implements Iterable<DimensionMap> {
 		this.skipN = skipN;
 	}
 	
+	/**
+	 * Have iterators reuse a single DimensionMap instead of creating one per
+	 * step (see DimTableMapIterator.setFlyweight). Only use this when the
+	 * maps aren't kept or are copied before being kept.
+	 * 
+	 * @param flyweight
+	 * @return this iterable
+	 */
+	public DimTableMapIterable setFlyweight(boolean flyweight)
+	{
+		this.flyweight = flyweight;
+		return this;
+	}
+	
 	public DimTableMapIterator iterator()
 	{
-		return new DimTableMapIterator(this.dimTable, this.filter, this.skipN);
+		return new DimTableMapIterator(this.dimTable, this.filter, this.skipN).setFlyweight(this.flyweight);
+	}
+	
+	/**
+	 * Splittable iteration for parallel streams (e.g., StreamSupport.stream(iterable.spliterator(), true)).
+	 * Maps are never reused across elements, regardless of setFlyweight.
+	 */
+	@Override
+	public Spliterator<DimensionMap> spliterator()
+	{
+		return new DimTableMapSpliterator(this.dimTable, this.filter, this.skipN);
 	}
 }
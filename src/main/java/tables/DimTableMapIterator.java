@@ -1,51 +1,113 @@
 package tables;
 
 import java.util.Iterator;
-import java.util.Vector;
 
 /**
- * 
+ *
  * Iterator through dimTable return DimensionMap
- * 
+ *
+ * The position is kept as an int[] odometer of dim value indices that is
+ * advanced in place, and skipping is done arithmetically, so each step costs
+ * O(number of dims) regardless of skipN. By default each call to next()
+ * returns a new DimensionMap. In flyweight mode (see setFlyweight) the same
+ * DimensionMap is updated and returned by every call to next(), so nothing
+ * is allocated per step. The flyweight must then be copied if it is kept.
+ *
  * @author Jay Warrick, commented by Mengcheng
  *
  */
 public class DimTableMapIterator implements Iterator<DimensionMap> {
-	
+
 	private DimTable dimTable;
-	private Vector<Integer> index;
 	private DimensionMap filter;
-	private boolean firstIteration;
 	private int skipN;
-	
+
+	// Index of the value of each dim (the odometer)
+	private int[] index;
+	// Indices (into dimTable) of the dims that aren't fixed by the filter, slowest to fastest
+	private int[] free;
+	// Number of maps left to return
+	private long remaining;
+	// true if the odometer is at the next map to return rather than the last map returned
+	private boolean pending;
+
+	private boolean flyweight = false;
+	private DimensionMap map = null;
+	// Position in 'free' of the slowest dim changed since the flyweight was last updated
+	private int changed = 0;
+
 	/**
 	 * Iterator through dimTable return DimensionMap
-	 * 
+	 *
 	 * @param dimTable DimTable
 	 * @param filter DimensionMap
 	 * @param skipN Number of iterations that user want to skip
 	 */
 	public DimTableMapIterator(DimTable dimTable, DimensionMap filter, int skipN)
 	{
-		this.firstIteration = true;
+		this.pending = true;
 		this.filter = filter;
-		this.index = new Vector<Integer>();
 		this.dimTable = dimTable;
-		this.skipN = skipN;
-		for (Dim dim : dimTable)
+		this.skipN = Math.max(0, skipN);
+		this.index = new int[dimTable.size()];
+
+		int nFree = 0;
+		long freeCount = 1;
+		for (int i = 0; i < dimTable.size(); i++)
 		{
+			Dim dim = dimTable.get(i);
 			// check if DimName in the DimTable is in given DimensionMap
-			if(filter.get(dim.name()) != null)
+			String value = filter.get(dim.name());
+			if(value != null)
 			{
 				// if yes, record the index of filtered value
-				index.add(dim.index(filter.get(dim.name())));
+				this.index[i] = dim.index(value);
+				if(this.index[i] < 0)
+				{
+					freeCount = 0;
+				}
 			}
 			else
 			{
-				index.add(0);
+				nFree++;
+				freeCount = freeCount * dim.size();
 			}
 		}
-		// System.out.println("Created DimTableIterator");
+		this.free = new int[nFree];
+		nFree = 0;
+		for (int i = 0; i < dimTable.size(); i++)
+		{
+			if(filter.get(dimTable.get(i).name()) == null)
+			{
+				this.free[nFree] = i;
+				nFree++;
+			}
+		}
+
+		// Number of maps returned given we take every (skipN+1)th map
+		long step = this.skipN + 1L;
+		this.remaining = (freeCount + step - 1) / step;
+	}
+
+	/**
+	 * Reuse a single DimensionMap for every call to next() instead of creating
+	 * a new one each time.
+	 *
+	 * @param flyweight
+	 * @return this iterator
+	 */
+	public DimTableMapIterator setFlyweight(boolean flyweight)
+	{
+		this.flyweight = flyweight;
+		return this;
+	}
+
+	/**
+	 * @return the number of maps left to return
+	 */
+	public long remaining()
+	{
+		return this.remaining;
 	}
 	
 	/* (non-Javadoc)
@@ -53,127 +115,121 @@ public class DimTableMapIterator implements Iterator<DimensionMap> {
 	 */
 	public boolean hasNext()
 	{
-		return (this.getNextIndex() != null);
+		return this.remaining > 0;
 	}
-	
+
 	/* (non-Javadoc)
 	 * @see java.util.Iterator#next()
 	 */
 	public DimensionMap next()
 	{
-		this.index = this.getNextIndex();
-		if(this.index == null)
+		if(this.remaining <= 0)
 		{
 			return null;
 		}
+		if(!this.pending)
+		{
+			this.advance(this.skipN + 1L);
+		}
+		this.pending = false;
+		this.remaining--;
+
+		if(this.flyweight && this.map != null)
+		{
+			// Only update the dims that changed (usually just the last one)
+			for (int f = this.changed; f < this.free.length; f++)
+			{
+				Dim dim = this.dimTable.get(this.free[f]);
+				this.map.put(dim.name(), dim.valueAt(this.index[this.free[f]]));
+			}
+			this.changed = this.free.length;
+			return this.map;
+		}
 		DimensionMap ret = new DimensionMap();
-		int count = 0;
-		for (Integer i : this.index)
+		for (int i = 0; i < this.index.length; i++)
 		{
-			String dimName = this.dimTable.get(count).name();
-			String dimValue = this.dimTable.get(count).valueAt(i);
-			ret.put(dimName, dimValue);
-			count++;
+			Dim dim = this.dimTable.get(i);
+			ret.put(dim.name(), dim.valueAt(this.index[i]));
 		}
-		if(this.firstIteration)
+		if(this.flyweight)
 		{
-			this.firstIteration = false;
+			this.map = ret;
+			this.changed = this.free.length;
 		}
 		return ret;
 	}
-	
-	public int currentRow()
+
+	/**
+	 * Skip the next n maps without creating them.
+	 *
+	 * @param n
+	 */
+	public void skip(long n)
 	{
-		int ret = 0;
-		for (int i = 0; i < this.dimTable.size(); i++)
+		if(n <= 0 || this.remaining <= 0)
 		{
-			int temp = 1;
-			for (int j = i + 1; j < this.dimTable.size(); j++)
-			{
-				temp = temp * this.dimTable.get(j).size();
-			}
-			ret = ret + temp * this.index.get(i);
+			return;
 		}
-		return ret;
+		n = Math.min(n, this.remaining);
+		if(!this.pending)
+		{
+			this.advance(this.skipN + 1L);
+			this.pending = true;
+		}
+		this.advance(n * (this.skipN + 1L));
+		this.remaining = this.remaining - n;
 	}
-	
+
 	/**
+	 * Add 'steps' to the odometer of the free dims (mixed radix addition with
+	 * the last dim varying fastest).
+	 *
 	 * If we have a index as following (bracket means filtered)
 	 *  Dim0 Dim1 Dim2 Dim3 Dim4
 	 * | 0  |[1] |[0] | 2  | 3  |
-	 * 
+	 *
 	 * assume max Dimvalue index of Dim0 = 5, Dim3 = 2, Dim4 = 3
-	 * 
-	 * Then the returned index as following
+	 *
+	 * Then advancing by one gives the following index
 	 *  Dim0 Dim1 Dim2 Dim3 Dim4
 	 * | 1  |[1] |[0] | 0  | 0  |
 	 * Dim3 Dim4 get wrap around, Dim1 Dim2 get fixed since filtered, Dim0 incremented by one
-	 * 
-	 * @return updated index
+	 *
+	 * @param steps
 	 */
-	private Vector<Integer> getNextIndex()
+	private void advance(long steps)
 	{
-		Vector<Integer> ret = new Vector<Integer>();
-		
-		for (Integer i : this.index)
+		long carry = steps;
+		for (int f = this.free.length - 1; f > -1 && carry > 0; f--)
 		{
-			int temp = i; // To make sure we aren't copying the pointer and have simultaneous editing of a single Integer in two vectors.
-			ret.add(temp);
+			int i = this.free[f];
+			long size = this.dimTable.get(i).size();
+			long n = this.index[i] + carry;
+			this.index[i] = (int) (n % size);
+			carry = n / size;
+			this.changed = Math.min(this.changed, f);
 		}
-		if(this.firstIteration) // first set of indicies to return is the index array as it was initialized.
-		{
-			return ret;
-		}
-		if(!this.firstIteration && ret.size() == 0)
-		{
-			return null;
-		}
-		for (int skip = 0; skip <= skipN; skip++) // skip next skipN items
+	}
+
+	/**
+	 * @return the row of the current map in the whole (unfiltered) DimTable
+	 */
+	public int currentRow()
+	{
+		long ret = 0;
+		long stride = 1;
+		for (int i = this.dimTable.size() - 1; i > -1; i--)
 		{
-			// iterate through whole dimTable from bottom to top
-			for (int i = dimTable.size() - 1; i > -1; i--)
-			{
-				Dim dim = this.dimTable.get(i); // get Dim
-				Integer n = ret.get(i); // get current index of DimValue
-				
-				// if current Dim is included in the filter 
-				if(filter.get(dim.name()) != null)
-				{
-					if(i == 0) // skip the last Dim in the dimTable 
-					{
-						return null;
-					}
-					else // skip current Dim
-					{
-						continue;
-					}
-				}
-				
-				// if current Dim is not included in the filter 
-				else if(n < dim.size() - 1) // increment Index by one if not exceed the boundary
-				{
-					ret.setElementAt((n + 1), i);
-					break; // like a counting clk, each function call the index is incremented by 1
-				}
-				else if(i > 0) // n >= dim.size() - 1, wrap around
-				{
-					ret.setElementAt(0, i);
-					continue;
-				}
-				else
-				{
-					return null;
-				}
-			}
-			// JEXStatics.logManager.log(skip + " " + skipN + " " + ret.toString(), 0, this);
+			ret = ret + stride * this.index[i];
+			stride = stride * this.dimTable.get(i).size();
 		}
-		return ret;
+		return (int) ret;
 	}
-	
+
 	public void remove()
 	{
 		// TODO Auto-generated method stub
-		
+
 	}
-	
+
 }
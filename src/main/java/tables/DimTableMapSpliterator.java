@@ -0,0 +1,133 @@
+package tables;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the DimensionMaps of a DimTable (see DimTableMapIterator)
+ * so they can be consumed by parallel streams. Each half of a split starts
+ * its own odometer at its first map, so splitting costs O(number of dims).
+ * Maps are returned in the same order as DimTableMapIterator and a new
+ * DimensionMap is created for each one.
+ *
+ * @author Jay Warrick
+ *
+ */
+public class DimTableMapSpliterator implements Spliterator<DimensionMap> {
+	
+	// Don't split ranges smaller than this
+	public static long MIN_SPLIT_SIZE = 256;
+	
+	private DimTable dimTable;
+	private DimensionMap filter;
+	private int skipN;
+	private long position;
+	private long end;
+	private DimTableMapIterator itr = null;
+	
+	public DimTableMapSpliterator(DimTable dimTable, DimensionMap filter, int skipN)
+	{
+		this(dimTable, filter, skipN, 0, new DimTableMapIterator(dimTable, filter, skipN).remaining());
+	}
+	
+	/**
+	 * @param dimTable
+	 * @param filter
+	 * @param skipN
+	 * @param start index of the first map (in the order of DimTableMapIterator)
+	 * @param end index after the last map
+	 */
+	public DimTableMapSpliterator(DimTable dimTable, DimensionMap filter, int skipN, long start, long end)
+	{
+		this.dimTable = dimTable;
+		this.filter = filter;
+		this.skipN = skipN;
+		this.position = start;
+		this.end = end;
+	}
+	
+	@Override
+	public boolean tryAdvance(Consumer<? super DimensionMap> action)
+	{
+		if(this.position >= this.end)
+		{
+			return false;
+		}
+		if(this.itr == null)
+		{
+			this.itr = new DimTableMapIterator(this.dimTable, this.filter, this.skipN);
+			this.itr.skip(this.position);
+		}
+		this.position++;
+		action.accept(this.itr.next());
+		return true;
+	}
+	
+	@Override
+	public void forEachRemaining(Consumer<? super DimensionMap> action)
+	{
+		while (this.tryAdvance(action))
+		{}
+	}
+	
+	@Override
+	public Spliterator<DimensionMap> trySplit()
+	{
+		long n = this.end - this.position;
+		if(n < 2 * MIN_SPLIT_SIZE)
+		{
+			return null;
+		}
+		// Hand off the first half (with the odometer if it was started) and keep the second
+		long mid = this.getSplitPoint(this.position + n / 2);
+		DimTableMapSpliterator ret = new DimTableMapSpliterator(this.dimTable, this.filter, this.skipN, this.position, mid);
+		ret.itr = this.itr;
+		this.itr = null;
+		this.position = mid;
+		return ret;
+	}
+	
+	/**
+	 * Move the middle of the range back to a multiple of the largest stride of
+	 * the free (unfiltered) dims that leaves both halves at least MIN_SPLIT_SIZE,
+	 * so each half covers whole subtables of the outer dims where possible.
+	 */
+	private long getSplitPoint(long mid)
+	{
+		if(this.skipN > 0)
+		{
+			return mid;
+		}
+		long stride = 1;
+		long best = mid;
+		for (int i = this.dimTable.size() - 1; i > -1; i--)
+		{
+			Dim dim = this.dimTable.get(i);
+			if(this.filter.get(dim.name()) != null)
+			{
+				continue;
+			}
+			long aligned = mid - (mid % stride);
+			if(aligned - this.position < MIN_SPLIT_SIZE)
+			{
+				break;
+			}
+			best = aligned;
+			stride = stride * dim.size();
+		}
+		return best;
+	}
+	
+	@Override
+	public long estimateSize()
+	{
+		return this.end - this.position;
+	}
+	
+	@Override
+	public int characteristics()
+	{
+		return ORDERED | SIZED | SUBSIZED | NONNULL | DISTINCT | IMMUTABLE;
+	}
+	
+}
@@ -0,0 +1,95 @@
+package tables;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the subtables of a DimTable associated with each value of
+ * a Dim (see DimTableIterator) so each subtable (e.g., each image or well) can
+ * be processed in parallel. Subtables are created lazily in the same order as
+ * DimTableIterator.
+ *
+ * @author Jay Warrick
+ *
+ */
+public class DimTableSpliterator implements Spliterator<DimTable> {
+	
+	private DimTable table;
+	private String dimName;
+	private List<String> values;
+	private int position;
+	private int end;
+	
+	/**
+	 * Class constructor 
+	 * 
+	 * @param table DimTable 
+	 * @param dimName DimName
+	 */
+	public DimTableSpliterator(DimTable table, String dimName)
+	{
+		this.table = table;
+		this.dimName = dimName;
+		Dim dimToIterate = table.getDimWithName(dimName);
+		this.values = (dimToIterate == null) ? null : dimToIterate.values();
+		this.position = 0;
+		this.end = (this.values == null) ? 1 : this.values.size();
+	}
+	
+	private DimTableSpliterator(DimTable table, String dimName, List<String> values, int start, int end)
+	{
+		this.table = table;
+		this.dimName = dimName;
+		this.values = values;
+		this.position = start;
+		this.end = end;
+	}
+	
+	@Override
+	public boolean tryAdvance(Consumer<? super DimTable> action)
+	{
+		if(this.position >= this.end)
+		{
+			return false;
+		}
+		if(this.values == null)
+		{
+			// Like DimTableIterator, a missing dim gives the whole table once
+			action.accept(this.table);
+		}
+		else
+		{
+			action.accept(this.table.getSubTable(new DimensionMap(this.dimName + "=" + this.values.get(this.position))));
+		}
+		this.position++;
+		return true;
+	}
+	
+	@Override
+	public Spliterator<DimTable> trySplit()
+	{
+		int n = this.end - this.position;
+		if(n < 2)
+		{
+			return null;
+		}
+		int mid = this.position + n / 2;
+		DimTableSpliterator ret = new DimTableSpliterator(this.table, this.dimName, this.values, this.position, mid);
+		this.position = mid;
+		return ret;
+	}
+	
+	@Override
+	public long estimateSize()
+	{
+		return this.end - this.position;
+	}
+	
+	@Override
+	public int characteristics()
+	{
+		return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+	}
+	
+}
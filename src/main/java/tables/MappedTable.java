@@ -0,0 +1,161 @@
+package tables;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+import weka.core.converters.JEXBinaryTableReader;
+import weka.core.converters.JEXBinaryTableWriter;
+import weka.core.converters.MappedDoubleColumn;
+
+/**
+ * A read-only table of Doubles backed by the memory-mapped value column of
+ * a dense binary table (see JEXBinaryTableWriter.convertToDense). The value of
+ * a cell is found directly from its coordinate in the DimTable (the same
+ * stride arithmetic as DimTableMapIterator.currentRow), so looking up a few
+ * cells of a multi-GB table doesn't require reading the table into memory.
+ *
+ * It isn't a Table since it has no 'data' TreeMap (code that reads
+ * Table.data directly, e.g. JEXTableWriter.writeTable, would find nothing).
+ * Use getSubTable or toTable to get a Table for that.
+ *
+ * @author Jay Warrick
+ *
+ */
+public class MappedTable implements Iterable<DimensionMap> {
+
+	public final DimTable dimTable;
+	public final String filePath;
+	private final MappedDoubleColumn values;
+
+	/**
+	 * Open a table for random access, first converting it to a dense binary
+	 * table if it isn't one already.
+	 *
+	 * @param filePath ARFF or binary numeric table
+	 * @return the MappedTable
+	 * @throws IOException
+	 */
+	public static MappedTable open(String filePath) throws IOException
+	{
+		if(JEXBinaryTableReader.isBinaryTable(filePath))
+		{
+			JEXBinaryTableReader reader = new JEXBinaryTableReader(filePath);
+			if(reader.dense && reader.numeric)
+			{
+				return new MappedTable(reader);
+			}
+		}
+		return new MappedTable(new JEXBinaryTableReader(JEXBinaryTableWriter.convertToDense(filePath)));
+	}
+
+	/**
+	 * @param reader a reader of a dense numeric binary table
+	 * @throws IOException
+	 */
+	public MappedTable(JEXBinaryTableReader reader) throws IOException
+	{
+		if(!reader.dense || !reader.numeric)
+		{
+			throw new IOException("Only dense numeric binary tables can be mapped: " + reader.filePath);
+		}
+		this.dimTable = reader.dimTable;
+		this.filePath = reader.filePath;
+		this.values = new MappedDoubleColumn(reader.filePath, reader.getValueOffset(), reader.rowCount, false);
+	}
+
+	@Override
+	public Iterator<DimensionMap> iterator()
+	{
+		return this.dimTable.getMapIterator().iterator();
+	}
+
+	public DimTableMapIterable getIterator(DimensionMap filter)
+	{
+		return this.dimTable.getMapIterator(filter);
+	}
+
+	/**
+	 * @param key DimensionMap (can be overdefined)
+	 * @return the value or null if the cell is missing or key isn't in the DimTable
+	 */
+	public Double getData(DimensionMap key)
+	{
+		return this.getData(this.dimTable.encode(key));
+	}
+
+	/**
+	 * @param coordinate see DimTable.encode
+	 * @return the value or null
+	 */
+	public Double getData(long coordinate)
+	{
+		if(coordinate < 0 || coordinate >= this.values.length())
+		{
+			return null;
+		}
+		return this.values.get(coordinate);
+	}
+
+	public TreeMap<DimensionMap,Double> getFilteredData(String filter)
+	{
+		return this.getFilteredData(new DimensionMap(filter));
+	}
+
+	public TreeMap<DimensionMap,Double> getFilteredData(DimensionMap filter)
+	{
+		TreeMap<DimensionMap,Double> ret = new TreeMap<DimensionMap,Double>();
+		for (DimensionMap map : this.dimTable.getMapIterator(filter))
+		{
+			Double val = this.getData(map);
+			if(val != null)
+			{
+				ret.put(map, val);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Read the cells of the subtable defined by the filter into memory.
+	 * The filter follows the same rules as DimTable.getSubTable(filter).
+	 *
+	 * @param filter
+	 * @return a new TreeMap backed Table
+	 */
+	public Table<Double> getSubTable(DimensionMap filter)
+	{
+		return new Table<Double>(this.dimTable.getSubTable(filter), this.getFilteredData(filter));
+	}
+
+	/**
+	 * Read the whole table into memory.
+	 *
+	 * @return a new TreeMap backed Table
+	 */
+	public Table<Double> toTable()
+	{
+		TreeMap<DimensionMap,Double> data = new TreeMap<DimensionMap,Double>();
+		long coordinate = 0;
+		for (DimensionMap map : this.dimTable.getMapIterator())
+		{
+			Double val = this.getData(coordinate);
+			if(val != null)
+			{
+				data.put(map, val);
+			}
+			coordinate++;
+		}
+		return new Table<Double>(this.dimTable.copy(), data);
+	}
+
+	/**
+	 * Read the whole table into memory as a CompactTable (see Table.compact).
+	 *
+	 * @return a new CompactTable
+	 */
+	public CompactTable<Double> compact()
+	{
+		return this.toTable().compact();
+	}
+}
@@ -1,10 +1,11 @@
 package tables;
 
+import java.io.IOException;
 import java.util.Iterator;
-import java.util.Map.Entry;
 import java.util.TreeMap;
 
 import helper.objects.Canceler;
+import weka.core.converters.JEXTableMerger;
 import weka.core.converters.JEXTableReader;
 import weka.core.converters.JEXTableWriter;
 
@@ -35,6 +36,17 @@ public class Table<E> implements Iterable<DimensionMap> {
 		return this.data.get(key);
 	}
 	
+	/**
+	 * Copy this table into a CompactTable, which uses integer-coded
+	 * DimensionMap keys for fast lookups in large tables.
+	 * 
+	 * @return a CompactTable with the same DimTable and data
+	 */
+	public CompactTable<E> compact()
+	{
+		return new CompactTable<E>(this);
+	}
+	
 	public TreeMap<DimensionMap,E> getFilteredData(String filter)
 	{
 		return this.getFilteredData(new DimensionMap(filter));
@@ -64,38 +76,34 @@ public class Table<E> implements Iterable<DimensionMap> {
 		return JEXTableReader.filter(data, new DimensionMap(filter));
 	}
 	
+	/**
+	 * Join the tables in the fileTable into one numeric table with a streaming
+	 * k-way merge (see JEXTableMerger).
+	 * 
+	 * @param fileTable table of table paths
+	 * @param canceler
+	 * @return the path of the joined table or null if canceled
+	 */
 	public static String joinTables(Table<String> fileTable, Canceler canceler)
 	{
-		DimTable union = fileTable.dimTable;
-		for(Entry<DimensionMap,String> e : fileTable.data.entrySet())
+		try
 		{
-			DimTable lower = JEXTableReader.getDimTable(e.getValue());
-			union = DimTable.union(union,lower);
+			return new JEXTableMerger().join(fileTable, "UnionTable", JEXTableWriter.ARFF_FILE, canceler);
 		}
-		JEXTableWriter writer = new JEXTableWriter("UnionTable");
-		writer.writeNumericTableHeader(union);
-		
-		for(Entry<DimensionMap,String> e : fileTable.data.entrySet())
+		catch (IOException e)
 		{
-			if(canceler.isCanceled())
-			{
-				return null;
-			}
-			Table<Double> data = JEXTableReader.getNumericTable(e.getValue());
-			for(Entry<DimensionMap,Double> e2 : data.data.entrySet())
-			{
-				writer.writeData(e2.getKey(), e2.getValue());
-			}
+			e.printStackTrace();
+			return null;
 		}
-		String path = writer.getPath();
-		writer.close();
-		
-		return path;
 	}
 	
 	public static Table<String> joinAndSplitTables(Table<String> fileTable, String timeDimName, Canceler canceler)
 	{
 		String path = Table.joinTables(fileTable, canceler);
+		if(path == null)
+		{
+			return null;
+		}
 		
 		Table<String> timeFiles = null;
 		try
@@ -17,11 +17,11 @@ import java.util.Vector;
 import R.R;
 import algorithms.GaussianBlurForcedRadius;
 import algorithms.RankFilters2;
+import algorithms.WeightedMeanFilter;
 import function.ops.histogram.PolynomialRegression;
 import helper.objects.Pair;
 import ij.ImagePlus;
 import ij.ImageStack;
-import ij.gui.Roi;
 import ij.process.Blitter;
 import ij.process.ByteProcessor;
 import ij.process.ColorProcessor;
@@ -30,8 +30,6 @@ import ij.process.FloatProcessor;
 import ij.process.FloatStatistics;
 import ij.process.ImageProcessor;
 import ij.process.ImageStatistics;
-import ij.process.ShortProcessor;
-import image.roi.ROIPlus;
 import net.imglib2.IterableInterval;
 import net.imglib2.histogram.Histogram1d;
 import net.imglib2.histogram.Real1dBinMapper;
@@ -101,111 +99,90 @@ public class ImageUtility {
 		return temp;
 	}
 	
+	/**
+	 * Exact percentiles of the pixels of an 8, 16 or 32-bit image (see
+	 * PercentileEngine). 8 and 16-bit images use a histogram of the pixels
+	 * (without copying them). Percentiles below 0 or above 100 are
+	 * extrapolated from the 0 to 100 range.
+	 *
+	 * @param imp
+	 * @param minPercentile
+	 * @param maxPercentile
+	 * @param sampleSize not used, all pixels are always used (see percentile(ImageProcessor, double, double, PercentileEngine) for sampling)
+	 * @param ignoreBelow values below are left out
+	 * @param ignoreAbove values above are left out
+	 * @return the min and max percentile, null for other images (e.g., RGB)
+	 */
 	public static Pair<Double, Double> percentile(ImageProcessor imp, double minPercentile, double maxPercentile, int sampleSize, double ignoreBelow, double ignoreAbove)
 	{
-		Pair<Double,Double> thresholds = null;
-		
-		double tempMin = minPercentile;
-		double tempMax = maxPercentile;
-		
-		if(minPercentile < 0)
-		{
-			minPercentile = 0;
-		}
-		if(maxPercentile > 100)
-		{
-			maxPercentile = 100;
-		}
-		
-		if(sampleSize < 1)
-		{
-			FeatureUtils fu = new FeatureUtils();
-			Vector<Double> samples = fu.sampleFromShape(imp, new ROIPlus(new Roi(0,0,imp.getWidth(),imp.getHeight())), true);
-			double[] temp = StatisticsUtility.percentile(samples, new double[] {minPercentile, maxPercentile}, ignoreBelow, ignoreAbove);
-			return new Pair<>(temp[0],temp[1]);
-		}
-		
-		// Get the thresholds
-		if(imp instanceof ByteProcessor || imp.getBitDepth() == 8)
-		{
-			thresholds = StatisticsUtility.percentile((byte[]) imp.getPixelsCopy(), minPercentile, maxPercentile, ignoreBelow, ignoreAbove);
-		}
-		if(imp instanceof ShortProcessor || imp.getBitDepth() == 16)
-		{
-			thresholds = StatisticsUtility.percentile((short[]) imp.getPixelsCopy(), minPercentile, maxPercentile, ignoreBelow, ignoreAbove);
-		}
-		if(imp instanceof FloatProcessor || imp.getBitDepth() == 32)
-		{
-			thresholds = StatisticsUtility.percentile((float[]) imp.getPixelsCopy(), minPercentile, maxPercentile, ignoreBelow, ignoreAbove);
-		}
-		else
+		return percentile(imp, minPercentile, maxPercentile, new PercentileEngine(PercentileEngine.EXACT, 0, ignoreBelow, ignoreAbove));
+	}
+	
+	/**
+	 * Percentiles of the pixels of an 8, 16 or 32-bit image with the given
+	 * engine, e.g. new PercentileEngine(PercentileEngine.SAMPLED, 10000,
+	 * ignoreBelow, ignoreAbove) to only look at 10000 pixels of a float image.
+	 * The pixels are added to the engine. Percentiles below 0 or above 100
+	 * are extrapolated from the 0 to 100 range.
+	 *
+	 * @param imp
+	 * @param minPercentile
+	 * @param maxPercentile
+	 * @param engine
+	 * @return the min and max percentile, null for other images (e.g., RGB)
+	 */
+	public static Pair<Double, Double> percentile(ImageProcessor imp, double minPercentile, double maxPercentile, PercentileEngine engine)
+	{
+		if(!engine.add(imp))
 		{
 			return null;
 		}
-		
-		if(tempMin < 0)
-		{
-			thresholds.p1 = thresholds.p1 + (tempMin/100)*Math.abs(thresholds.p2 - thresholds.p1);
-		}
-		
-		if(tempMax > 100)
-		{
-			thresholds.p2 = thresholds.p2 + (tempMax/100)*Math.abs(thresholds.p2 - thresholds.p1);
-		}
-		
-		return thresholds;
+		return percentile(engine, minPercentile, maxPercentile);
 	}
 	
 	public static Pair<Double, Double> percentile(ImageProcessor imp, double minPercentile, double maxPercentile, int sampleSize)
 	{
-		Pair<Double,Double> thresholds = null;
-		
-		double tempMin = minPercentile;
-		double tempMax = maxPercentile;
-		
-		if(minPercentile < 0)
-		{
-			minPercentile = 0;
-		}
-		if(maxPercentile > 100)
-		{
-			maxPercentile = 100;
-		}
-		
-		if(sampleSize < 1)
-		{
-			FeatureUtils fu = new FeatureUtils();
-			Vector<Double> samples = fu.sampleFromShape(imp, new ROIPlus(new Roi(0,0,imp.getWidth(),imp.getHeight())), true);
-			double[] temp = StatisticsUtility.percentile(samples, new double[] {minPercentile, maxPercentile});
-			return new Pair<>(temp[0],temp[1]);
-		}
-		
-		// Get the thresholds
-		if(imp instanceof ByteProcessor || imp.getBitDepth() == 8)
-		{
-			thresholds = StatisticsUtility.percentile((byte[]) imp.getPixelsCopy(), minPercentile, maxPercentile);
-		}
-		if(imp instanceof ShortProcessor || imp.getBitDepth() == 16)
-		{
-			thresholds = StatisticsUtility.percentile((short[]) imp.getPixelsCopy(), minPercentile, maxPercentile);
-		}
-		if(imp instanceof FloatProcessor || imp.getBitDepth() == 32)
-		{
-			thresholds = StatisticsUtility.percentile((float[]) imp.getPixelsCopy(), minPercentile, maxPercentile);
-		}
-		else
+		return percentile(imp, minPercentile, maxPercentile, sampleSize, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+	}
+	
+	/**
+	 * Percentiles of all the pixels of a stack of 8, 16 or 32-bit images.
+	 * 8 and 16-bit stacks are exact, float stacks are approximated with a
+	 * QuantileSketch (about 1% rank error) so the pixels aren't copied.
+	 *
+	 * @param stack
+	 * @param minPercentile
+	 * @param maxPercentile
+	 * @param ignoreBelow values below are left out
+	 * @param ignoreAbove values above are left out
+	 * @return the min and max percentile, null for other stacks (e.g., RGB)
+	 */
+	public static Pair<Double, Double> percentile(ImageStack stack, double minPercentile, double maxPercentile, double ignoreBelow, double ignoreAbove)
+	{
+		PercentileEngine engine = new PercentileEngine(PercentileEngine.SKETCH, 0, ignoreBelow, ignoreAbove);
+		for (int i = 1; i <= stack.getSize(); i++)
 		{
-			return null;
+			if(!engine.add(stack.getProcessor(i)))
+			{
+				return null;
+			}
 		}
+		return percentile(engine, minPercentile, maxPercentile);
+	}
+	
+	private static Pair<Double, Double> percentile(PercentileEngine engine, double minPercentile, double maxPercentile)
+	{
+		double[] p = engine.getPercentiles(Math.max(0, minPercentile), Math.min(100, maxPercentile));
+		Pair<Double,Double> thresholds = new Pair<>(p[0], p[1]);
 		
-		if(tempMin < 0)
+		if(minPercentile < 0)
 		{
-			thresholds.p1 = thresholds.p1 + (tempMin/100)*Math.abs(thresholds.p2 - thresholds.p1);
+			thresholds.p1 = thresholds.p1 + (minPercentile/100)*Math.abs(thresholds.p2 - thresholds.p1);
 		}
 		
-		if(tempMax > 100)
+		if(maxPercentile > 100)
 		{
-			thresholds.p2 = thresholds.p2 + (tempMax/100)*Math.abs(thresholds.p2 - thresholds.p1);
+			thresholds.p2 = thresholds.p2 + (maxPercentile/100)*Math.abs(thresholds.p2 - thresholds.p1);
 		}
 		
 		return thresholds;
@@ -417,37 +394,63 @@ public class ImageUtility {
 	public static Pair<FloatProcessor[], FloatProcessor> getImageVarianceWeights(ImageProcessor ip, double radius, boolean returnStDevImage, boolean showHist, double...scaling)
 	{
 		// Duplicate the processor to perform calculations.
-		FloatProcessor ip1 = ip.duplicate().convertToFloatProcessor(); // Weights Image
+		FloatProcessor ip1 = getLocalStDevImage(ip, radius); // Weights Image
 		FloatProcessor ip2 = null; // St. Dev. Image.
 
+		double[] params = getVarianceWeightParameters(ip1, showHist);
+
+		if(returnStDevImage)
+		{
+			ip2 = (FloatProcessor) ip1.duplicate();
+		}
+		//double totWeight = 0.0;
+		// Convert the standard deviation image to an image of weights.
+		FloatProcessor[] weightImages = transformToWeights(ip1, params[0], params[1], scaling);
+
+		return new Pair<>(weightImages, ip2);
+	}
+
+	/**
+	 * @param ip
+	 * @param radius
+	 * @return a new image of the local standard deviation of ip (see RankFilters2.STDEV)
+	 */
+	public static FloatProcessor getLocalStDevImage(ImageProcessor ip, double radius)
+	{
+		FloatProcessor ip1 = ip.duplicate().convertToFloatProcessor();
+
 		// Perform variance filter.
 		RankFilters2 rF = new RankFilters2();
 		//FileUtility.showImg(ip2, true);
 		rF.rank(ip1, radius, RankFilters2.STDEV);
 		ip1.resetMinAndMax();
+		return ip1;
+	}
 
+	/**
+	 * Find the mode of the local standard deviation of the background and an
+	 * estimate of its spread from the histogram of the standard deviation image
+	 * (see getImageVarianceWeights and getWeight).
+	 * 
+	 * @param stDev local standard deviation image (see getLocalStDevImage)
+	 * @param showHist
+	 * @return {wMed, wMad}
+	 */
+	public static double[] getVarianceWeightParameters(FloatProcessor stDev, boolean showHist)
+	{
 		//FileUtility.showImg(ip2, true);
-		double min = ip1.getMin();
-		double max = StatisticsUtility.median(ip1.getPixels());
+		double min = stDev.getMin();
+		double max = StatisticsUtility.median(stDev.getPixels());
 		min = min + (max-min)/100.0;
-		int nBins = getReasonableNumberOfBinsForHistogram(ip1.getWidth()*ip1.getHeight()/2, HIST_MIN_BINS, 250); // divide by 2 because we are only binning pixels below the median
-		Pair<double[], int[]> hist = ImageUtility.getHistogram(ip1, min, max, nBins, false);
+		int nBins = getReasonableNumberOfBinsForHistogram(stDev.getWidth()*stDev.getHeight()/2, HIST_MIN_BINS, 250); // divide by 2 because we are only binning pixels below the median
+		Pair<double[], int[]> hist = ImageUtility.getHistogram(stDev, min, max, nBins, false);
 		double wMed = ImageUtility.getHistogramMode(hist.p1, hist.p2, true, true, showHist);
 		double wMad = (wMed - hist.p1[0])/1.0;
 		if(showHist)
 		{
 			ImageUtility.getHistogramPlot(hist.p1, hist.p2, showHist, wMed-wMad, wMed, wMed+wMad);
 		}
-
-		if(returnStDevImage)
-		{
-			ip2 = (FloatProcessor) ip1.duplicate();
-		}
-		//double totWeight = 0.0;
-		// Convert the standard deviation image to an image of weights.
-		FloatProcessor[] weightImages = transformToWeights(ip1, wMed, wMad, scaling);
-
-		return new Pair<>(weightImages, ip2);
+		return new double[] { wMed, wMad };
 	}
 	
 	@SuppressWarnings("unused")
@@ -463,6 +466,46 @@ public class ImageUtility {
 		return(ip);
 	}
 
+	/**
+	 * Weight of a pixel given its local standard deviation, 1/(1+z^scaling)
+	 * where z = |stDev - wMed|/wMad, bounded between 0.0000001 and 1. Pixels with
+	 * a standard deviation of zero (or less) keep their value.
+	 * 
+	 * @param stDev
+	 * @param wMed
+	 * @param wMad
+	 * @param scaling
+	 * @return the weight
+	 */
+	public static float getWeight(float stDev, double wMed, double wMad, double scaling)
+	{
+		if(!(stDev > 0))
+		{
+			// default weight is "zero" (e.g., for pixels with a standard deviation of zero, the pixels are usually saturated at extremes so they don't hold relevant information.
+			return stDev;
+		}
+		// else the pixel likely has relevant information, but catch conditions that result from rounding etc.
+		double val;
+		if(scaling == 1)
+		{
+			val = (1 / (1 + Math.abs(stDev - wMed)/wMad));
+		}
+		else
+		{
+			val = (1 / (1 + Math.pow(Math.abs(stDev - wMed)/wMad, scaling)));
+		}
+		if(Double.isFinite(val))
+		{
+			if(val < 0.0000001) val = 0.0000001;
+			else if(val > 1) val = 1;
+		}
+		else
+		{
+			val = 0.0000001;
+		}
+		return (float) val;
+	}
+
 	private static FloatProcessor[] transformToWeights(FloatProcessor ip, double wMed, double wMad, double...scaling)
 	{
 		// Convert the standard deviation image to an image of weights.
@@ -480,63 +523,29 @@ public class ImageUtility {
 				weightImages[i] = (FloatProcessor) ip.duplicate();
 			}
 			float[] pixels = (float[]) weightImages[i].getPixels();
-
-			if(scaling[i] == 1)
+			for(int j = 0; j < pixels.length; j++)
 			{
-				for(int j = 0; j < pixels.length; j++)
-				{
-					// default weight is "zero" (e.g., for pixels with a standard deviation of zero, the pixels are usually saturated at extremes so they don't hold relevant information.
-					double val = 0.0000001;
-					if(pixels[j] > 0)
-					{
-						// else the pixel likely has relevant information, but catch conditions that result from rounding etc.
-						val = (1 / (1 + Math.abs(pixels[j] - wMed)/wMad));
-						if(Double.isFinite(val))
-						{
-							if(val < 0.0000001) val = 0.0000001;
-							else if(val > 1) val = 1;
-						}
-						else
-						{
-							val = 0.0000001;
-						}
-						pixels[j] = (float) val;
-						//totWeight = totWeight + pixels[j];
-					}
-
-				}
+				pixels[j] = getWeight(pixels[j], wMed, wMad, scaling[i]);
 			}
-			else
-			{
-				for(int j = 0; j < pixels.length; j++)
-				{
-					// default weight is "zero" (e.g., for pixels with a standard deviation of zero, the pixels are usually saturated at extremes so they don't hold relevant information.
-					double val = 0.0000001;
-					if(pixels[j] > 0)
-					{
-						// else the pixel likely has relevant information, but catch conditions that result from rounding etc.
-						val = (1 / (1 + Math.pow(Math.abs(pixels[j] - wMed)/wMad, scaling[i])));
-						if(Double.isFinite(val))
-						{
-							if(val < 0.0000001) val = 0.0000001;
-							else if(val > 1) val = 1;
-						}
-						else
-						{
-							val = 0.0000001;
-						}
-						pixels[j] = (float) val;
-						//totWeight = totWeight + pixels[j];
-					}
-
-				}
-			}
-
 		}
 		return(weightImages);
 	}
 	
+	/**
+	 * Calculated with the fused and tiled WeightedMeanFilter (which doesn't
+	 * alter original). See getWeightedMeanFilterImageUnfused for the
+	 * reference implementation.
+	 */
 	public static Pair<FloatProcessor, ImageProcessor> getWeightedMeanFilterImage(FloatProcessor original, boolean doThreshold, boolean doSubtraction, boolean doBackgroundOnly, boolean doDivision, double meanRadius, double varRadius, double subScale, double threshScale, Double nominal, Double sigma, double darkfield, Double gaussianOuterRadius)
+	{
+		return new WeightedMeanFilter().filter(original, doThreshold, doSubtraction, doBackgroundOnly, doDivision, meanRadius, varRadius, subScale, threshScale, nominal, sigma, darkfield, gaussianOuterRadius);
+	}
+
+	/**
+	 * Unfused version of getWeightedMeanFilterImage (one full size image per
+	 * intermediate step).
+	 */
+	public static Pair<FloatProcessor, ImageProcessor> getWeightedMeanFilterImageUnfused(FloatProcessor original, boolean doThreshold, boolean doSubtraction, boolean doBackgroundOnly, boolean doDivision, double meanRadius, double varRadius, double subScale, double threshScale, Double nominal, Double sigma, double darkfield, Double gaussianOuterRadius)
 	{
 		if(gaussianOuterRadius == null)
 		{
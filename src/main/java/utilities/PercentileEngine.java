@@ -0,0 +1,444 @@
+package utilities;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * Percentiles of the pixels of one or more images (e.g., the slices of a
+ * stack) without sorting a copy of every pixel.
+ *
+ * 8 and 16-bit pixels are counted into a histogram of their (unsigned)
+ * values straight from the pixel array, which gives the exact percentiles
+ * whatever the mode. Float pixels depend on the mode:
+ * EXACT keeps a copy of the pixels and finds each percentile with
+ * quickselect, SAMPLED keeps at most sampleSize evenly spaced pixels of each
+ * image (exact when the image has fewer) and SKETCH keeps a QuantileSketch
+ * of all pixels (a few thousand values whatever the number of images, see
+ * QuantileSketch for its accuracy). Engines can be merged, e.g. one per
+ * slice calculated in parallel. If float and integer images are mixed, the
+ * histogram is handed to the float mode.
+ *
+ * Percentiles have the same rank as StatisticsUtility.percentile: values
+ * below ignoreBelow or above ignoreAbove (and NaN) are left out and the
+ * percentile p is the value of rank round((n-1) * p / 100) of the n values
+ * left, 0 being the lowest.
+ *
+ * @author Jay Warrick
+ */
+public class PercentileEngine
+{
+	// How float pixels are handled
+	public static final int EXACT = 0, SAMPLED = 1, SKETCH = 2;
+
+	public static int DEFAULT_SAMPLE_SIZE = 100000;
+
+	private final int mode;
+	private final int sampleSize;
+	private final double ignoreBelow;
+	private final double ignoreAbove;
+
+	private long[] histogram = null;
+	private boolean floatData = false;
+	private float[] values = null;
+	private int nValues = 0;
+	private QuantileSketch sketch = null;
+
+	public PercentileEngine()
+	{
+		this(EXACT);
+	}
+
+	public PercentileEngine(int mode)
+	{
+		this(mode, DEFAULT_SAMPLE_SIZE, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @param mode EXACT, SAMPLED or SKETCH
+	 * @param sampleSize max number of pixels kept per image in SAMPLED mode (less than 1 for all)
+	 * @param ignoreBelow values below are left out
+	 * @param ignoreAbove values above are left out
+	 */
+	public PercentileEngine(int mode, int sampleSize, double ignoreBelow, double ignoreAbove)
+	{
+		this.mode = mode;
+		this.sampleSize = sampleSize;
+		this.ignoreBelow = ignoreBelow;
+		this.ignoreAbove = ignoreAbove;
+	}
+
+	/**
+	 * Add the pixels of an 8, 16 or 32-bit image
+	 *
+	 * @param ip
+	 * @return false for other images (e.g., RGB), which are left out
+	 */
+	public boolean add(ImageProcessor ip)
+	{
+		if(ip instanceof ByteProcessor)
+		{
+			this.add((byte[]) ip.getPixels());
+		}
+		else if(ip instanceof ShortProcessor)
+		{
+			this.add((short[]) ip.getPixels());
+		}
+		else if(ip instanceof FloatProcessor)
+		{
+			this.add((float[]) ip.getPixels());
+		}
+		else
+		{
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Add 8-bit (unsigned) pixels
+	 */
+	public void add(byte[] pixels)
+	{
+		if(this.floatData)
+		{
+			int m = this.getSampleSize(pixels.length);
+			for (int s = 0; s < m; s++)
+			{
+				this.addValue(pixels[sampleIndex(s, m, pixels.length)] & 0xff);
+			}
+			return;
+		}
+		long[] hist = this.getHistogram(256);
+		for (int i = 0; i < pixels.length; i++)
+		{
+			hist[pixels[i] & 0xff]++;
+		}
+	}
+
+	/**
+	 * Add 16-bit (unsigned) pixels
+	 */
+	public void add(short[] pixels)
+	{
+		if(this.floatData)
+		{
+			int m = this.getSampleSize(pixels.length);
+			for (int s = 0; s < m; s++)
+			{
+				this.addValue(pixels[sampleIndex(s, m, pixels.length)] & 0xffff);
+			}
+			return;
+		}
+		long[] hist = this.getHistogram(65536);
+		for (int i = 0; i < pixels.length; i++)
+		{
+			hist[pixels[i] & 0xffff]++;
+		}
+	}
+
+	/**
+	 * Add float pixels
+	 */
+	public void add(float[] pixels)
+	{
+		this.toFloatData();
+		int m = this.getSampleSize(pixels.length);
+		for (int s = 0; s < m; s++)
+		{
+			this.addValue(pixels[sampleIndex(s, m, pixels.length)]);
+		}
+	}
+
+	/**
+	 * Add the values of another engine (which should have the same mode and
+	 * ignore limits and is left as is)
+	 *
+	 * @param other
+	 * @return false if other has a sketch and this engine isn't in SKETCH mode
+	 */
+	public boolean add(PercentileEngine other)
+	{
+		if(!this.floatData && !other.floatData)
+		{
+			if(other.histogram != null)
+			{
+				long[] hist = this.getHistogram(other.histogram.length);
+				for (int i = 0; i < other.histogram.length; i++)
+				{
+					hist[i] += other.histogram[i];
+				}
+			}
+			return true;
+		}
+		if(other.sketch != null && this.mode != SKETCH)
+		{
+			return false;
+		}
+		this.toFloatData();
+		if(other.histogram != null)
+		{
+			this.addHistogram(other.histogram);
+		}
+		for (int i = 0; i < other.nValues; i++)
+		{
+			this.addValue(other.values[i]);
+		}
+		if(other.sketch != null)
+		{
+			this.sketch.merge(other.sketch);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of values the percentiles are taken from
+	 */
+	public long getCount()
+	{
+		if(this.histogram != null)
+		{
+			long count = 0;
+			int[] range = this.getHistogramRange();
+			for (int b = range[0]; b <= range[1]; b++)
+			{
+				count = count + this.histogram[b];
+			}
+			return count;
+		}
+		if(this.sketch != null)
+		{
+			return this.sketch.getCount();
+		}
+		return this.nValues;
+	}
+
+	/**
+	 * @param percentiles (0 to 100, clamped)
+	 * @return the value of each percentile (NaN if there are no values)
+	 */
+	public double[] getPercentiles(double... percentiles)
+	{
+		double[] ret = new double[percentiles.length];
+		if(this.sketch != null)
+		{
+			return this.sketch.getPercentiles(percentiles);
+		}
+		long n = this.getCount();
+		if(n == 0)
+		{
+			Arrays.fill(ret, Double.NaN);
+			return ret;
+		}
+		long[] ranks = new long[percentiles.length];
+		for (int i = 0; i < percentiles.length; i++)
+		{
+			double p = Math.max(0, Math.min(100, percentiles[i]));
+			ranks[i] = Math.round((n - 1) * (p / 100.0));
+		}
+
+		if(this.histogram != null)
+		{
+			int[] range = this.getHistogramRange();
+			for (int i = 0; i < ranks.length; i++)
+			{
+				long cumulative = 0;
+				int b = range[0];
+				while (cumulative + this.histogram[b] <= ranks[i])
+				{
+					cumulative = cumulative + this.histogram[b];
+					b++;
+				}
+				ret[i] = b;
+			}
+			return ret;
+		}
+
+		// Select the ranks from lowest to highest, each one only searching
+		// above the previous (quickselect leaves the values partitioned)
+		Integer[] order = new Integer[ranks.length];
+		for (int i = 0; i < order.length; i++)
+		{
+			order[i] = i;
+		}
+		final long[] r = ranks;
+		Arrays.sort(order, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				return Long.compare(r[a], r[b]);
+			}
+		});
+		int from = 0;
+		for (Integer i : order)
+		{
+			int k = (int) ranks[i];
+			ret[i] = select(this.values, from, this.nValues - 1, k);
+			from = k;
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the number of pixels of an image of n pixels to look at
+	 */
+	private int getSampleSize(int n)
+	{
+		if(this.mode == SAMPLED && this.sampleSize > 0 && this.sampleSize < n)
+		{
+			return this.sampleSize;
+		}
+		return n;
+	}
+
+	/**
+	 * @return the index of sample s of m evenly spaced samples of n values
+	 *         (s itself when m == n)
+	 */
+	private static int sampleIndex(int s, int m, int n)
+	{
+		return (int) (((2L * s + 1) * n) / (2L * m));
+	}
+
+	private long[] getHistogram(int nBins)
+	{
+		if(this.histogram == null)
+		{
+			this.histogram = new long[nBins];
+		}
+		else if(this.histogram.length < nBins)
+		{
+			this.histogram = Arrays.copyOf(this.histogram, nBins);
+		}
+		return this.histogram;
+	}
+
+	/**
+	 * @return the first and last bins between ignoreBelow and ignoreAbove
+	 */
+	private int[] getHistogramRange()
+	{
+		double lo = Math.max(0, Math.ceil(this.ignoreBelow));
+		double hi = Math.min(this.histogram.length - 1, Math.floor(this.ignoreAbove));
+		return new int[] { (int) lo, (int) hi };
+	}
+
+	/**
+	 * Hand the histogram (if any) to the float mode
+	 */
+	private void toFloatData()
+	{
+		if(this.floatData)
+		{
+			return;
+		}
+		this.floatData = true;
+		if(this.mode == SKETCH)
+		{
+			this.sketch = new QuantileSketch();
+		}
+		else
+		{
+			this.values = new float[1024];
+		}
+		if(this.histogram != null)
+		{
+			long[] hist = this.histogram;
+			this.histogram = null;
+			this.addHistogram(hist);
+		}
+	}
+
+	private void addHistogram(long[] hist)
+	{
+		for (int b = 0; b < hist.length; b++)
+		{
+			for (long c = 0; c < hist[b]; c++)
+			{
+				this.addValue(b);
+			}
+		}
+	}
+
+	private void addValue(double v)
+	{
+		if(!(v >= this.ignoreBelow && v <= this.ignoreAbove))
+		{
+			// Ignored or NaN
+			return;
+		}
+		if(this.sketch != null)
+		{
+			this.sketch.update(v);
+			return;
+		}
+		if(this.nValues == this.values.length)
+		{
+			this.values = Arrays.copyOf(this.values, 2 * this.values.length);
+		}
+		this.values[this.nValues] = (float) v;
+		this.nValues = this.nValues + 1;
+	}
+
+	/**
+	 * Find the kth smallest value of a[from..to] (inclusive) with quickselect
+	 * (median of three pivot, three way partition). a is partially reordered
+	 * so that a[from..k-1] <= a[k] <= a[k+1..to].
+	 *
+	 * @return the kth smallest value
+	 */
+	public static float select(float[] a, int from, int to, int k)
+	{
+		int left = from;
+		int right = to;
+		while (right > left)
+		{
+			float x = a[left], y = a[(left + right) >>> 1], z = a[right];
+			float pivot = Math.max(Math.min(x, y), Math.min(Math.max(x, y), z));
+
+			// a[left..lt-1] < pivot, a[lt..gt] == pivot, a[gt+1..right] > pivot
+			int lt = left;
+			int gt = right;
+			int i = left;
+			while (i <= gt)
+			{
+				float v = a[i];
+				if(v < pivot)
+				{
+					a[i] = a[lt];
+					a[lt] = v;
+					lt++;
+					i++;
+				}
+				else if(v > pivot)
+				{
+					a[i] = a[gt];
+					a[gt] = v;
+					gt--;
+				}
+				else
+				{
+					i++;
+				}
+			}
+
+			if(k < lt)
+			{
+				right = lt - 1;
+			}
+			else if(k > gt)
+			{
+				left = gt + 1;
+			}
+			else
+			{
+				return pivot;
+			}
+		}
+		return a[k];
+	}
+}
@@ -0,0 +1,282 @@
+package utilities;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Mergeable streaming quantile sketch (the KLL sketch of Karnin, Lang and
+ * Liberty) for percentiles of more values than can be kept, e.g. of every
+ * slice of a large float stack.
+ *
+ * Values are kept in levels where a value of level h stands for 2^h of the
+ * values seen. When a level is full it is sorted and every other value
+ * (starting at a random one of the first two) moves up a level. The
+ * capacity of the top level is k and shrinks by 2/3 per level below, so
+ * the sketch keeps about 3k values and the rank error is around 1.7/k of
+ * the number of values (about 1% for the default k). Sketches of the parts
+ * of a data set (e.g., slices) can be merged into one for the whole.
+ *
+ * Until the first level is full (fewer than k values) the percentiles are
+ * exact. The min and max are always exact.
+ *
+ * @author Jay Warrick
+ */
+public class QuantileSketch
+{
+	public static final int DEFAULT_K = 200;
+
+	private final int k;
+	private final Random random = new Random(0);
+	private double[][] levels;
+	private int[] sizes;
+	private long n = 0;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	public QuantileSketch()
+	{
+		this(DEFAULT_K);
+	}
+
+	/**
+	 * @param k capacity of the top level (larger is more accurate)
+	 */
+	public QuantileSketch(int k)
+	{
+		this.k = Math.max(8, k);
+		this.levels = new double[][] { new double[this.k] };
+		this.sizes = new int[1];
+	}
+
+	public int getK()
+	{
+		return this.k;
+	}
+
+	/**
+	 * @return the number of values seen
+	 */
+	public long getCount()
+	{
+		return this.n;
+	}
+
+	public double getMin()
+	{
+		return this.n == 0 ? Double.NaN : this.min;
+	}
+
+	public double getMax()
+	{
+		return this.n == 0 ? Double.NaN : this.max;
+	}
+
+	/**
+	 * Add a value (NaN is ignored)
+	 */
+	public void update(double v)
+	{
+		if(Double.isNaN(v))
+		{
+			return;
+		}
+		this.n = this.n + 1;
+		if(v < this.min)
+		{
+			this.min = v;
+		}
+		if(v > this.max)
+		{
+			this.max = v;
+		}
+		this.append(0, v);
+		if(this.sizes[0] >= this.capacity(0))
+		{
+			this.compress();
+		}
+	}
+
+	/**
+	 * Add the values of another sketch (which is left as is)
+	 */
+	public void merge(QuantileSketch other)
+	{
+		if(other.n == 0)
+		{
+			return;
+		}
+		this.n = this.n + other.n;
+		this.min = Math.min(this.min, other.min);
+		this.max = Math.max(this.max, other.max);
+		while (this.levels.length < other.levels.length)
+		{
+			this.addLevel();
+		}
+		for (int h = 0; h < other.levels.length; h++)
+		{
+			for (int i = 0; i < other.sizes[h]; i++)
+			{
+				this.append(h, other.levels[h][i]);
+			}
+		}
+		this.compress();
+	}
+
+	/**
+	 * Percentiles with the same rank as StatisticsUtility.percentile (the
+	 * value of rank round((n-1) * p / 100), 0 being the lowest)
+	 *
+	 * @param percentiles (0 to 100)
+	 * @return the (approximate) value of each percentile (NaN if empty)
+	 */
+	public double[] getPercentiles(double... percentiles)
+	{
+		double[] ret = new double[percentiles.length];
+		if(this.n == 0)
+		{
+			Arrays.fill(ret, Double.NaN);
+			return ret;
+		}
+
+		// All values sorted, with the weight of their level
+		int total = 0;
+		for (int h = 0; h < this.levels.length; h++)
+		{
+			total = total + this.sizes[h];
+		}
+		double[] values = new double[total];
+		long[] weights = new long[total];
+		int count = 0;
+		for (int h = 0; h < this.levels.length; h++)
+		{
+			double[] level = Arrays.copyOf(this.levels[h], this.sizes[h]);
+			Arrays.sort(level);
+			count = mergeSorted(values, weights, count, level, 1L << h);
+		}
+
+		for (int i = 0; i < percentiles.length; i++)
+		{
+			double p = percentiles[i];
+			if(p <= 0)
+			{
+				ret[i] = this.min;
+			}
+			else if(p >= 100)
+			{
+				ret[i] = this.max;
+			}
+			else
+			{
+				long rank = Math.round((this.n - 1) * (p / 100.0));
+				long cumulative = 0;
+				int j = 0;
+				while (j < count - 1 && cumulative + weights[j] <= rank)
+				{
+					cumulative = cumulative + weights[j];
+					j++;
+				}
+				ret[i] = values[j];
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Merge the sorted level (all of the given weight) into the first count
+	 * sorted values
+	 *
+	 * @return the new count
+	 */
+	private static int mergeSorted(double[] values, long[] weights, int count, double[] level, long weight)
+	{
+		int i = count - 1;
+		int j = level.length - 1;
+		int dst = count + level.length - 1;
+		while (j >= 0)
+		{
+			if(i >= 0 && values[i] > level[j])
+			{
+				values[dst] = values[i];
+				weights[dst] = weights[i];
+				i--;
+			}
+			else
+			{
+				values[dst] = level[j];
+				weights[dst] = weight;
+				j--;
+			}
+			dst--;
+		}
+		return count + level.length;
+	}
+
+	/**
+	 * @return the number of values level h can hold before it is compacted
+	 */
+	private int capacity(int h)
+	{
+		int depth = this.levels.length - 1 - h;
+		return Math.max(2, (int) Math.ceil(this.k * Math.pow(2.0 / 3.0, depth)));
+	}
+
+	/**
+	 * Compact every level that is full, from the bottom up
+	 */
+	private void compress()
+	{
+		for (int h = 0; h < this.levels.length; h++)
+		{
+			if(this.sizes[h] >= this.capacity(h))
+			{
+				this.compact(h);
+			}
+		}
+	}
+
+	/**
+	 * Move every other value of level h up a level (an odd value out stays)
+	 */
+	private void compact(int h)
+	{
+		if(h + 1 == this.levels.length)
+		{
+			this.addLevel();
+		}
+		double[] level = this.levels[h];
+		int size = this.sizes[h];
+		Arrays.sort(level, 0, size);
+		int end = size - (size & 1);
+		for (int i = this.random.nextBoolean() ? 1 : 0; i < end; i += 2)
+		{
+			this.append(h + 1, level[i]);
+		}
+		if(end < size)
+		{
+			level[0] = level[size - 1];
+			this.sizes[h] = 1;
+		}
+		else
+		{
+			this.sizes[h] = 0;
+		}
+	}
+
+	private void addLevel()
+	{
+		int h = this.levels.length;
+		this.levels = Arrays.copyOf(this.levels, h + 1);
+		this.sizes = Arrays.copyOf(this.sizes, h + 1);
+		this.levels[h] = new double[this.k];
+	}
+
+	private void append(int h, double v)
+	{
+		if(this.sizes[h] == this.levels[h].length)
+		{
+			this.levels[h] = Arrays.copyOf(this.levels[h], 2 * this.levels[h].length);
+		}
+		this.levels[h][this.sizes[h]] = v;
+		this.sizes[h] = this.sizes[h] + 1;
+	}
+}
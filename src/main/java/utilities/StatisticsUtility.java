@@ -1758,10 +1758,10 @@ public class StatisticsUtility {
 		{
 			return null;
 		}
-		Arrays.sort(pixelsCopy);
-		int minI = (int) Math.round((pixelsCopy.length-1)*(minPercentile/100.0));
-		int maxI = (int) Math.round((pixelsCopy.length-1)*(maxPercentile/100.0));
-		return new Pair<>((double) pixelsCopy[minI], (double) pixelsCopy[maxI]);
+		PercentileEngine engine = new PercentileEngine();
+		engine.add(pixelsCopy);
+		double[] p = engine.getPercentiles(minPercentile, maxPercentile);
+		return new Pair<>(p[0], p[1]);
 	}
 	
 	public static Pair<Double,Double> percentile(float[] pixelsCopy, double minPercentile, double maxPercentile, double ignoreBelow, double ignoreAbove)
@@ -1770,22 +1770,10 @@ public class StatisticsUtility {
 		{
 			return null;
 		}
-		Arrays.sort(pixelsCopy);
-		int first = 0, last = 0;
-		for(int i=0; i < pixelsCopy.length; i++)
-		{
-			if(pixelsCopy[i] < ignoreBelow)
-			{
-				first = first + 1;
-			}
-			if(pixelsCopy[i] <= ignoreAbove)
-			{
-				last = i;
-			}
-		}
-		int minI = first + (int) Math.round((last-first)*(minPercentile/100.0));
-		int maxI = first + (int) Math.round((last-first)*(maxPercentile/100.0));
-		return new Pair<>((double) pixelsCopy[minI], (double) pixelsCopy[maxI]);
+		PercentileEngine engine = new PercentileEngine(PercentileEngine.EXACT, 0, ignoreBelow, ignoreAbove);
+		engine.add(pixelsCopy);
+		double[] p = engine.getPercentiles(minPercentile, maxPercentile);
+		return new Pair<>(p[0], p[1]);
 	}
 	
 	public static Pair<Double,Double> percentile(short[] pixelsCopy, double minPercentile, double maxPercentile)
@@ -1794,10 +1782,10 @@ public class StatisticsUtility {
 		{
 			return null;
 		}
-		Arrays.sort(pixelsCopy);
-		int minI = (int) Math.round((pixelsCopy.length-1)*(minPercentile/100.0));
-		int maxI = (int) Math.round((pixelsCopy.length-1)*(maxPercentile/100.0));
-		return new Pair<>((double) pixelsCopy[minI], (double) pixelsCopy[maxI]);
+		PercentileEngine engine = new PercentileEngine();
+		engine.add(pixelsCopy);
+		double[] p = engine.getPercentiles(minPercentile, maxPercentile);
+		return new Pair<>(p[0], p[1]);
 	}
 	
 	public static Pair<Double,Double> percentile(short[] pixelsCopy, double minPercentile, double maxPercentile, double ignoreBelow, double ignoreAbove)
@@ -1806,22 +1794,10 @@ public class StatisticsUtility {
 		{
 			return null;
 		}
-		Arrays.sort(pixelsCopy);
-		int first = 0, last = 0;
-		for(int i=0; i < pixelsCopy.length; i++)
-		{
-			if(pixelsCopy[i] < ignoreBelow)
-			{
-				first = first + 1;
-			}
-			if(pixelsCopy[i] <= ignoreAbove)
-			{
-				last = i;
-			}
-		}
-		int minI = first + (int) Math.round((last-first)*(minPercentile/100.0));
-		int maxI = first + (int) Math.round((last-first)*(maxPercentile/100.0));
-		return new Pair<>((double) pixelsCopy[minI], (double) pixelsCopy[maxI]);
+		PercentileEngine engine = new PercentileEngine(PercentileEngine.EXACT, 0, ignoreBelow, ignoreAbove);
+		engine.add(pixelsCopy);
+		double[] p = engine.getPercentiles(minPercentile, maxPercentile);
+		return new Pair<>(p[0], p[1]);
 	}
 	
 	public static Pair<Double,Double> percentile(byte[] pixelsCopy, double minPercentile, double maxPercentile)
@@ -1830,10 +1806,10 @@ public class StatisticsUtility {
 		{
 			return null;
 		}
-		Arrays.sort(pixelsCopy);
-		int minI = (int) Math.round((pixelsCopy.length-1)*(minPercentile/100.0));
-		int maxI = (int) Math.round((pixelsCopy.length-1)*(maxPercentile/100.0));
-		return new Pair<>((double) pixelsCopy[minI], (double) pixelsCopy[maxI]);
+		PercentileEngine engine = new PercentileEngine();
+		engine.add(pixelsCopy);
+		double[] p = engine.getPercentiles(minPercentile, maxPercentile);
+		return new Pair<>(p[0], p[1]);
 	}
 
 	public static Pair<Double,Double> percentile(byte[] pixelsCopy, double minPercentile, double maxPercentile, double ignoreBelow, double ignoreAbove)
@@ -1842,22 +1818,10 @@ public class StatisticsUtility {
 		{
 			return null;
 		}
-		Arrays.sort(pixelsCopy);
-		int first = 0, last = 0;
-		for(int i=0; i < pixelsCopy.length; i++)
-		{
-			if(pixelsCopy[i] < ignoreBelow)
-			{
-				first = first + 1;
-			}
-			if(pixelsCopy[i] <= ignoreAbove)
-			{
-				last = i;
-			}
-		}
-		int minI = first + (int) Math.round((last-first)*(minPercentile/100.0));
-		int maxI = first + (int) Math.round((last-first)*(maxPercentile/100.0));
-		return new Pair<>((double) pixelsCopy[minI], (double) pixelsCopy[maxI]);
+		PercentileEngine engine = new PercentileEngine(PercentileEngine.EXACT, 0, ignoreBelow, ignoreAbove);
+		engine.add(pixelsCopy);
+		double[] p = engine.getPercentiles(minPercentile, maxPercentile);
+		return new Pair<>(p[0], p[1]);
 	}
 	
 	public static int mode(int[] values)
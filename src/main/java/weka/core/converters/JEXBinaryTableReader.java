@@ -0,0 +1,370 @@
+package weka.core.converters;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import helper.objects.Canceler;
+import tables.Dim;
+import tables.DimTable;
+import tables.DimensionMap;
+import tables.Table;
+import utilities.FileUtility;
+
+/**
+ * Reads tables written in the binary, column-oriented JXB format (see
+ * JEXBinaryTableWriter for the layout). Columns are read through memory-mapped
+ * windows of the file so tables larger than 2GB can be read.
+ *
+ * @author Jay Warrick
+ *
+ */
+public class JEXBinaryTableReader {
+
+	// Number of rows mapped at once when streaming through the columns
+	public static int ROWS_PER_BLOCK = 1 << 20;
+
+	public String filePath;
+	public DimTable dimTable;
+	public boolean numeric;
+	public boolean dense;
+	public long rowCount;
+
+	private long[] columnOffsets;
+	private int[] widths;
+	private List<String> valueDictionary;
+
+	public static boolean isBinaryTable(String filePath)
+	{
+		return filePath != null && FileUtility.getFileNameExtension(filePath).equalsIgnoreCase(JEXTableWriter.BINARY_FILE);
+	}
+
+	public static Table<Double> getNumericTable(String filePath, DimensionMap filter)
+	{
+		try
+		{
+			return new JEXBinaryTableReader(filePath).readNumericTable(filter, null);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public static Table<String> getStringTable(String filePath, DimensionMap filter)
+	{
+		try
+		{
+			return new JEXBinaryTableReader(filePath).readStringTable(filter, null);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public static DimTable getDimTable(String filePath)
+	{
+		try
+		{
+			return new JEXBinaryTableReader(filePath).dimTable.copy();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Convert a binary table to an ARFF table.
+	 *
+	 * @param filePath path of the binary table
+	 * @return the path of the new ARFF table
+	 * @throws IOException
+	 */
+	public static String convertToArff(String filePath) throws IOException
+	{
+		JEXBinaryTableReader reader = new JEXBinaryTableReader(filePath);
+		final JEXTableWriter writer = new JEXTableWriter(FileUtility.getFileNameWithoutExtension(filePath), JEXTableWriter.ARFF_FILE);
+		writer.writeHeader(reader.dimTable, reader.numeric);
+		reader.read(null, new JEXTableRowHandler<Object>(){
+			@Override
+			public void handleRow(DimensionMap map, Object value)
+			{
+				writer.writeData(map, value);
+			}
+		}, null);
+		writer.close();
+		return writer.getPath();
+	}
+
+	/**
+	 * Reads the header and footer (i.e., the DimTable) of the table.
+	 *
+	 * @param filePath
+	 * @throws IOException
+	 */
+	public JEXBinaryTableReader(String filePath) throws IOException
+	{
+		this.filePath = filePath;
+		if(!new File(filePath).exists())
+		{
+			throw new FileNotFoundException(filePath);
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(filePath, "r"))
+		{
+			FileChannel channel = raf.getChannel();
+			long fileLength = channel.size();
+			if(fileLength < JEXBinaryTableWriter.HEADER_SIZE + JEXBinaryTableWriter.TRAILER_SIZE)
+			{
+				throw new IOException("Not a binary JEX table: " + filePath);
+			}
+
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, JEXBinaryTableWriter.HEADER_SIZE);
+			MappedByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, fileLength - JEXBinaryTableWriter.TRAILER_SIZE, JEXBinaryTableWriter.TRAILER_SIZE);
+			long footerOffset = trailer.getLong();
+			if(header.getInt() != JEXBinaryTableWriter.MAGIC || trailer.getInt() != JEXBinaryTableWriter.MAGIC)
+			{
+				throw new IOException("Not a binary JEX table: " + filePath);
+			}
+			int version = header.getInt();
+			if(version > JEXBinaryTableWriter.VERSION)
+			{
+				throw new IOException("Binary JEX table version " + version + " is newer than this reader.");
+			}
+			int flags = header.getInt();
+			this.numeric = (flags & JEXBinaryTableWriter.FLAG_NUMERIC) != 0;
+			this.dense = (flags & JEXBinaryTableWriter.FLAG_DENSE) != 0;
+			int nDims = header.getInt();
+			this.rowCount = header.getLong();
+
+			MappedByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, footerOffset, fileLength - JEXBinaryTableWriter.TRAILER_SIZE - footerOffset);
+			this.dimTable = readDimTable(footer);
+			if(this.dimTable.size() != nDims)
+			{
+				throw new IOException("Corrupt binary JEX table: " + filePath);
+			}
+			if(!this.numeric)
+			{
+				int n = footer.getInt();
+				this.valueDictionary = new ArrayList<String>(n);
+				for (int i = 0; i < n; i++)
+				{
+					this.valueDictionary.add(readString(footer));
+				}
+			}
+		}
+
+		this.widths = new int[this.dimTable.size()];
+		this.columnOffsets = new long[this.dimTable.size() + 1];
+		long offset = JEXBinaryTableWriter.HEADER_SIZE;
+		for (int i = 0; i < this.dimTable.size(); i++)
+		{
+			this.widths[i] = JEXBinaryTableWriter.getCodeWidth(this.dimTable.get(i).size());
+			this.columnOffsets[i] = offset;
+			offset = offset + this.rowCount * this.widths[i];
+		}
+		this.columnOffsets[this.dimTable.size()] = offset;
+	}
+
+	/**
+	 * @return the file offset of the value column
+	 */
+	public long getValueOffset()
+	{
+		return this.columnOffsets[this.dimTable.size()];
+	}
+
+	public Table<Double> readNumericTable(DimensionMap filter, Canceler canceler) throws IOException
+	{
+		return this.readTable(filter, canceler);
+	}
+
+	public Table<String> readStringTable(DimensionMap filter, Canceler canceler) throws IOException
+	{
+		return this.readTable(filter, canceler);
+	}
+
+	private <E> Table<E> readTable(DimensionMap filter, Canceler canceler) throws IOException
+	{
+		final TreeMap<DimensionMap,E> data = new TreeMap<DimensionMap,E>();
+		boolean completed = this.read(filter, new JEXTableRowHandler<E>(){
+			@Override
+			public void handleRow(DimensionMap map, E value)
+			{
+				data.put(map, value);
+			}
+		}, canceler);
+		if(!completed)
+		{
+			return null;
+		}
+		DimTable filteredDimTable = (filter == null) ? this.dimTable.copy() : this.dimTable.getSubTable(filter);
+		return new Table<E>(filteredDimTable, data);
+	}
+
+	/**
+	 * Stream every row that passes the filter to the handler in file order.
+	 * The filter is evaluated on the dim codes before any DimensionMap is built.
+	 * Missing values are skipped as they are for ARFF tables.
+	 *
+	 * @param filter DimensionMap (null for no filter)
+	 * @param handler
+	 * @param canceler can be null
+	 * @return false if reading was canceled
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public <E> boolean read(DimensionMap filter, JEXTableRowHandler<E> handler, Canceler canceler) throws IOException
+	{
+		int nDims = this.dimTable.size();
+		boolean[][] allowed = this.getAllowedCodes(filter);
+		int valueWidth = this.numeric ? 8 : 4;
+
+		try (RandomAccessFile raf = new RandomAccessFile(this.filePath, "r"))
+		{
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer[] blocks = new MappedByteBuffer[nDims];
+			int[] codes = new int[nDims];
+			for (long blockStart = 0; blockStart < this.rowCount; blockStart = blockStart + ROWS_PER_BLOCK)
+			{
+				if(canceler != null && canceler.isCanceled())
+				{
+					return false;
+				}
+				int n = (int) Math.min(ROWS_PER_BLOCK, this.rowCount - blockStart);
+				for (int i = 0; i < nDims; i++)
+				{
+					blocks[i] = channel.map(FileChannel.MapMode.READ_ONLY, this.columnOffsets[i] + blockStart * this.widths[i], (long) n * this.widths[i]);
+				}
+				MappedByteBuffer values = channel.map(FileChannel.MapMode.READ_ONLY, this.columnOffsets[nDims] + blockStart * valueWidth, (long) n * valueWidth);
+
+				for (int r = 0; r < n; r++)
+				{
+					boolean keep = true;
+					for (int i = 0; i < nDims; i++)
+					{
+						codes[i] = getCode(blocks[i], this.widths[i], r);
+						if(allowed[i] != null && !allowed[i][codes[i]])
+						{
+							keep = false;
+						}
+					}
+					if(!keep)
+					{
+						continue;
+					}
+
+					E value;
+					if(this.numeric)
+					{
+						long bits = values.getLong(r * 8);
+						if(bits == JEXBinaryTableWriter.MISSING_BITS)
+						{
+							continue;
+						}
+						value = (E) Double.valueOf(Double.longBitsToDouble(bits));
+					}
+					else
+					{
+						int code = values.getInt(r * 4);
+						if(code < 0)
+						{
+							continue;
+						}
+						value = (E) this.valueDictionary.get(code);
+					}
+
+					DimensionMap map = new DimensionMap();
+					for (int i = 0; i < nDims; i++)
+					{
+						Dim d = this.dimTable.get(i);
+						map.put(d.dimName, d.valueAt(codes[i]));
+					}
+					handler.handleRow(map, value);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * For each Dim, which codes pass the filter (null if all codes pass)
+	 */
+	private boolean[][] getAllowedCodes(DimensionMap filter)
+	{
+		boolean[][] ret = new boolean[this.dimTable.size()][];
+		if(filter == null)
+		{
+			return ret;
+		}
+		DimTable filteredDimTable = this.dimTable.getSubTable(filter);
+		for (int i = 0; i < this.dimTable.size(); i++)
+		{
+			Dim d = this.dimTable.get(i);
+			Dim filtered = filteredDimTable.get(i);
+			if(filtered.size() == d.size())
+			{
+				continue;
+			}
+			ret[i] = new boolean[d.size()];
+			for (String value : filtered.dimValues)
+			{
+				int ordinal = d.ordinal(value);
+				if(ordinal >= 0)
+				{
+					ret[i][ordinal] = true;
+				}
+			}
+		}
+		return ret;
+	}
+
+	static int getCode(MappedByteBuffer buffer, int width, int row)
+	{
+		if(width == 1)
+		{
+			return buffer.get(row) & 0xFF;
+		}
+		if(width == 2)
+		{
+			return buffer.getShort(row * 2) & 0xFFFF;
+		}
+		return buffer.getInt(row * 4);
+	}
+
+	static DimTable readDimTable(MappedByteBuffer buffer)
+	{
+		DimTable ret = new DimTable();
+		int nDims = buffer.getInt();
+		for (int i = 0; i < nDims; i++)
+		{
+			String name = readString(buffer);
+			int n = buffer.getInt();
+			List<String> values = new ArrayList<String>(n);
+			for (int j = 0; j < n; j++)
+			{
+				values.add(readString(buffer));
+			}
+			ret.add(new Dim(name, values));
+		}
+		return ret;
+	}
+
+	static String readString(MappedByteBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
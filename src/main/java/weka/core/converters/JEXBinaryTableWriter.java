@@ -0,0 +1,502 @@
+package weka.core.converters;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import tables.Dim;
+import tables.DimTable;
+import tables.DimensionMap;
+import utilities.DirectoryManager;
+
+/**
+ * Writes a Table in the binary, column-oriented JXB format (see
+ * JEXTableWriter.BINARY_FILE). Normally used through JEXTableWriter by
+ * choosing the BINARY_FILE extension.
+ *
+ * Layout (big-endian):
+ * <pre>
+ * header   int MAGIC, int VERSION, int flags, int nDims, long rowCount
+ * dims     for each Dim, rowCount codes (ordinal of the value in the Dim)
+ *          stored in 1, 2 or 4 bytes depending on the number of dim values
+ * values   numeric: rowCount raw doubles (MISSING_BITS for missing values)
+ *          string: rowCount int codes into the value dictionary (-1 for missing)
+ * footer   the DimTable (and the value dictionary for string tables)
+ * trailer  long footerOffset, int MAGIC
+ * </pre>
+ *
+ * Rows are spooled to one temporary file per column while writing and
+ * concatenated on close, so memory use doesn't depend on the number of rows.
+ *
+ * @author Jay Warrick
+ *
+ */
+public class JEXBinaryTableWriter {
+
+	public static final int MAGIC = 0x4A584231; // "JXB1"
+	public static final int VERSION = 1;
+	public static final int FLAG_NUMERIC = 1;
+	// Set when row i has coordinate i in the DimTable for every row (i.e., every map is present and in order)
+	public static final int FLAG_DENSE = 2;
+	public static final int HEADER_SIZE = 24;
+	public static final int TRAILER_SIZE = 12;
+	// Bit pattern of the NaN used to mark missing (null) numeric values so real NaNs survive a round-trip
+	public static final long MISSING_BITS = 0x7FF80000DEADBEEFL;
+
+	private String filePath;
+	private DimTable dimTable;
+	private boolean numeric;
+	private long[] strides;
+	private int[] widths;
+	private int[] codes;
+
+	private File[] columnFiles;
+	private DataOutputStream[] columns;
+	private long rowCount = 0;
+	private boolean dense = true;
+
+	// value dictionary for string tables
+	private HashMap<String,Integer> valueCodes;
+	private List<String> valueDictionary;
+
+	/**
+	 * Convert an ARFF table to the binary format. If the ARFF table can't be
+	 * read, nothing is left behind.
+	 *
+	 * @param arffPath
+	 * @return the path of the new binary table
+	 * @throws IOException
+	 */
+	public static String convertFromArff(String arffPath) throws IOException
+	{
+		JEXTableStreamReader reader = new JEXTableStreamReader(arffPath);
+		reader.setThreads(1); // keep the file order of the rows
+		final JEXBinaryTableWriter writer = new JEXBinaryTableWriter(DirectoryManager.getUniqueAbsoluteTempPath(JEXTableWriter.BINARY_FILE), reader.dimTable, reader.numeric);
+		final IOException[] error = new IOException[1];
+		boolean completed = false;
+		try
+		{
+			reader.read(null, new JEXTableRowHandler<Object>(){
+				@Override
+				public void handleRow(DimensionMap map, Object value)
+				{
+					if(error[0] != null)
+					{
+						return;
+					}
+					try
+					{
+						writer.writeRow(map, value);
+					}
+					catch (IOException e)
+					{
+						error[0] = e;
+					}
+				}
+			}, null);
+			if(error[0] != null)
+			{
+				throw error[0];
+			}
+			writer.close();
+			completed = true;
+		}
+		finally
+		{
+			if(!completed)
+			{
+				writer.abort();
+			}
+		}
+		return writer.getPath();
+	}
+
+	/**
+	 * Write a dense numeric binary table from a numeric ARFF or binary table.
+	 * Every DimensionMap of the DimTable gets a row in DimTable order (missing
+	 * values are marked as missing), so the value of any cell can be found
+	 * directly from its coordinate (see tables.MappedTable).
+	 *
+	 * @param sourcePath ARFF or binary table
+	 * @return the path of the new dense binary table
+	 * @throws IOException
+	 */
+	public static String convertToDense(String sourcePath) throws IOException
+	{
+		final DimTable dimTable;
+		boolean numeric;
+		JEXBinaryTableReader binaryReader = null;
+		JEXTableStreamReader arffReader = null;
+		if(JEXBinaryTableReader.isBinaryTable(sourcePath))
+		{
+			binaryReader = new JEXBinaryTableReader(sourcePath);
+			dimTable = binaryReader.dimTable;
+			numeric = binaryReader.numeric;
+		}
+		else
+		{
+			arffReader = new JEXTableStreamReader(sourcePath);
+			dimTable = arffReader.dimTable;
+			numeric = arffReader.numeric;
+		}
+		Long count = dimTable.mapCountLong();
+		if(!numeric || count == null)
+		{
+			throw new IOException("Only numeric tables with less than 2^63 cells can be made dense.");
+		}
+		long mapCount = Math.max(1, count);
+
+		// Write the dim columns in DimTable order and a value column of missing values
+		String path = DirectoryManager.getUniqueAbsoluteTempPath(JEXTableWriter.BINARY_FILE);
+		long valueOffset = HEADER_SIZE;
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16)))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(FLAG_NUMERIC | FLAG_DENSE);
+			out.writeInt(dimTable.size());
+			out.writeLong(mapCount);
+			long[] strides = dimTable.getStrides();
+			for (int i = 0; i < dimTable.size(); i++)
+			{
+				int size = dimTable.get(i).size();
+				int width = getCodeWidth(size);
+				for (long row = 0; row < mapCount; row++)
+				{
+					writeCode(out, width, (int) ((row / strides[i]) % size));
+				}
+				valueOffset = valueOffset + mapCount * width;
+			}
+			for (long row = 0; row < mapCount; row++)
+			{
+				out.writeLong(MISSING_BITS);
+			}
+			writeDimTable(out, dimTable);
+			out.writeLong(valueOffset + mapCount * 8);
+			out.writeInt(MAGIC);
+		}
+
+		// Fill in the values by coordinate
+		final MappedDoubleColumn values = new MappedDoubleColumn(path, valueOffset, mapCount, true);
+		JEXTableRowHandler<Double> handler = new JEXTableRowHandler<Double>(){
+			@Override
+			public void handleRow(DimensionMap map, Double value)
+			{
+				long coordinate = dimTable.encode(map);
+				if(coordinate >= 0)
+				{
+					values.setBits(coordinate, Double.doubleToRawLongBits(value));
+				}
+			}
+		};
+		boolean completed = false;
+		try
+		{
+			if(binaryReader != null)
+			{
+				binaryReader.read(null, handler, null);
+			}
+			else
+			{
+				arffReader.read(null, handler, null);
+			}
+			values.force();
+			completed = true;
+		}
+		finally
+		{
+			if(!completed)
+			{
+				delete(new File(path));
+			}
+		}
+		return path;
+	}
+
+	public JEXBinaryTableWriter(String filePath, DimTable dimTable, boolean isNumeric) throws IOException
+	{
+		this.filePath = filePath;
+		this.dimTable = dimTable;
+		this.numeric = isNumeric;
+		this.strides = dimTable.getStrides();
+		this.widths = new int[dimTable.size()];
+		this.codes = new int[dimTable.size()];
+		for (int i = 0; i < dimTable.size(); i++)
+		{
+			this.widths[i] = getCodeWidth(dimTable.get(i).size());
+		}
+		if(!isNumeric)
+		{
+			this.valueCodes = new HashMap<String,Integer>();
+			this.valueDictionary = new ArrayList<String>();
+		}
+		this.columnFiles = new File[dimTable.size() + 1];
+		this.columns = new DataOutputStream[dimTable.size() + 1];
+		try
+		{
+			for (int i = 0; i < this.columns.length; i++)
+			{
+				this.columnFiles[i] = new File(filePath + ".col" + i);
+				this.columns[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.columnFiles[i]), 1 << 16));
+			}
+		}
+		catch (IOException e)
+		{
+			this.deleteColumnFiles();
+			throw e;
+		}
+	}
+
+	public String getPath()
+	{
+		return this.filePath;
+	}
+
+	/**
+	 * Number of bytes used for the codes of a Dim with nValues values
+	 */
+	public static int getCodeWidth(int nValues)
+	{
+		if(nValues <= 0xFF)
+		{
+			return 1;
+		}
+		if(nValues <= 0xFFFF)
+		{
+			return 2;
+		}
+		return 4;
+	}
+
+	/**
+	 * Write a row. Like JEXTableWriter.makeRow, dims missing from the map are
+	 * written as the first value of the Dim (the map is left as is). The
+	 * codes and the value are checked before anything is written, so a bad
+	 * row leaves the columns the same length.
+	 *
+	 * @param map DimensionMap
+	 * @param value Number, String or null for missing
+	 * @throws IOException if the map has a value that isn't in the DimTable or
+	 *             the table is numeric and value isn't a Number
+	 */
+	public void writeRow(DimensionMap map, Object value) throws IOException
+	{
+		long coordinate = 0;
+		for (int i = 0; i < this.dimTable.size(); i++)
+		{
+			Dim dim = this.dimTable.get(i);
+			String dimValue = map.get(dim.name());
+			int code = 0;
+			if(dimValue != null)
+			{
+				code = dim.ordinal(dimValue);
+				if(code < 0)
+				{
+					throw new IOException("The value " + dimValue + " is not one of the values of the dim " + dim.name());
+				}
+			}
+			this.codes[i] = code;
+			coordinate = coordinate + code * this.strides[i];
+		}
+
+		long numericBits = MISSING_BITS;
+		int valueCode = -1;
+		if(this.numeric)
+		{
+			if(value instanceof Number)
+			{
+				numericBits = Double.doubleToRawLongBits(((Number) value).doubleValue());
+			}
+			else if(value != null)
+			{
+				throw new IOException("The value " + value + " (" + value.getClass().getSimpleName() + ") can't be written to a numeric table");
+			}
+		}
+		else if(value != null)
+		{
+			String s = value.toString();
+			Integer code = this.valueCodes.get(s);
+			if(code == null)
+			{
+				code = this.valueDictionary.size();
+				this.valueDictionary.add(s);
+				this.valueCodes.put(s, code);
+			}
+			valueCode = code;
+		}
+
+		for (int i = 0; i < this.dimTable.size(); i++)
+		{
+			writeCode(this.columns[i], this.widths[i], this.codes[i]);
+		}
+		DataOutputStream valueColumn = this.columns[this.dimTable.size()];
+		if(this.numeric)
+		{
+			valueColumn.writeLong(numericBits);
+		}
+		else
+		{
+			valueColumn.writeInt(valueCode);
+		}
+
+		if(coordinate != this.rowCount)
+		{
+			this.dense = false;
+		}
+		this.rowCount++;
+	}
+
+	/**
+	 * Assemble the final file from the spooled columns
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException
+	{
+		boolean written = false;
+		try
+		{
+			for (DataOutputStream column : this.columns)
+			{
+				column.close();
+			}
+			Long mapCount = this.dimTable.mapCountLong();
+			boolean isDense = this.dense && mapCount != null && this.rowCount == Math.max(1, mapCount);
+
+			try (FileOutputStream fos = new FileOutputStream(this.filePath))
+			{
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt((this.numeric ? FLAG_NUMERIC : 0) | (isDense ? FLAG_DENSE : 0));
+				out.writeInt(this.dimTable.size());
+				out.writeLong(this.rowCount);
+				out.flush();
+
+				// Append each column
+				FileChannel outChannel = fos.getChannel();
+				for (File columnFile : this.columnFiles)
+				{
+					try (FileInputStream in = new FileInputStream(columnFile))
+					{
+						FileChannel inChannel = in.getChannel();
+						long position = 0, size = inChannel.size();
+						while (position < size)
+						{
+							position = position + inChannel.transferTo(position, size - position, outChannel);
+						}
+					}
+				}
+
+				// Footer
+				long footerOffset = outChannel.position();
+				writeDimTable(out, this.dimTable);
+				if(!this.numeric)
+				{
+					out.writeInt(this.valueDictionary.size());
+					for (String s : this.valueDictionary)
+					{
+						writeString(out, s);
+					}
+				}
+				out.writeLong(footerOffset);
+				out.writeInt(MAGIC);
+				out.flush();
+			}
+			written = true;
+		}
+		finally
+		{
+			this.deleteColumnFiles();
+			if(!written)
+			{
+				delete(new File(this.filePath));
+			}
+		}
+	}
+
+	/**
+	 * Give up on the table: close and delete the spooled columns and any
+	 * partly written output so it can't be mistaken for a table later.
+	 */
+	public void abort()
+	{
+		this.deleteColumnFiles();
+		delete(new File(this.filePath));
+	}
+
+	private static void delete(File file)
+	{
+		if(file.exists() && !file.delete())
+		{
+			file.deleteOnExit();
+		}
+	}
+
+	private void deleteColumnFiles()
+	{
+		for (int i = 0; i < this.columnFiles.length; i++)
+		{
+			if(this.columns[i] != null)
+			{
+				try
+				{
+					this.columns[i].close();
+				}
+				catch (IOException e)
+				{
+					// Nothing more to do
+				}
+			}
+			if(this.columnFiles[i] != null && this.columnFiles[i].exists() && !this.columnFiles[i].delete())
+			{
+				this.columnFiles[i].deleteOnExit();
+			}
+		}
+	}
+
+	private static void writeCode(DataOutputStream out, int width, int code) throws IOException
+	{
+		if(width == 1)
+		{
+			out.writeByte(code);
+		}
+		else if(width == 2)
+		{
+			out.writeShort(code);
+		}
+		else
+		{
+			out.writeInt(code);
+		}
+	}
+
+	static void writeDimTable(DataOutputStream out, DimTable dimTable) throws IOException
+	{
+		out.writeInt(dimTable.size());
+		for (Dim d : dimTable)
+		{
+			writeString(out, d.name());
+			out.writeInt(d.size());
+			for (String value : d.dimValues)
+			{
+				writeString(out, value);
+			}
+		}
+	}
+
+	static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+}
@@ -0,0 +1,333 @@
+package weka.core.converters;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import helper.objects.Canceler;
+import tables.DimTable;
+import tables.DimensionMap;
+import tables.Table;
+
+/**
+ * Joins many tables into one table with a streaming k-way merge.
+ *
+ * Each input is read on its own thread in file order and handed to the merge
+ * in small batches through a bounded queue, so memory use per input is
+ * constant. The merge always writes the smallest pending DimensionMap next,
+ * so when the inputs are sorted (e.g., written from a TreeMap by
+ * JEXTableWriter) the joined table is sorted too. Unsorted inputs are still
+ * joined correctly, just not in sorted order.
+ *
+ * @author Jay Warrick
+ *
+ */
+public class JEXTableMerger {
+
+	public static int BATCH_SIZE = 1024;
+	public static int QUEUE_BATCHES = 4;
+
+	/**
+	 * Join the tables in the fileTable into a single numeric table. The
+	 * dims of the fileTable are added to the rows of each input table that
+	 * don't already have them.
+	 *
+	 * @param fileTable table of ARFF or binary table paths
+	 * @param tableName
+	 * @param fileExtension extension of the joined table (e.g., JEXTableWriter.ARFF_FILE)
+	 * @param canceler can be null
+	 * @return the path of the joined table or null if canceled
+	 * @throws IOException
+	 */
+	public String join(Table<String> fileTable, String tableName, String fileExtension, final Canceler canceler) throws IOException
+	{
+		// Union the DimTables
+		DimTable union = fileTable.dimTable;
+		for (String path : fileTable.data.values())
+		{
+			union = DimTable.union(union, readDimTable(path));
+		}
+
+		// Start reading every input
+		final List<Cursor> cursors = new ArrayList<Cursor>();
+		for (Entry<DimensionMap,String> e : fileTable.data.entrySet())
+		{
+			Cursor cursor = new Cursor(e.getValue(), e.getKey(), cursors.size(), canceler);
+			cursors.add(cursor);
+			cursor.start();
+		}
+
+		JEXTableWriter writer = new JEXTableWriter(tableName, fileExtension);
+		writer.writeNumericTableHeader(union);
+		boolean completed = false;
+		try
+		{
+			PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(Math.max(1, cursors.size()), new Comparator<Cursor>(){
+				@Override
+				public int compare(Cursor c1, Cursor c2)
+				{
+					int ret = c1.map().compareTo(c2.map());
+					if(ret == 0)
+					{
+						return Integer.compare(c1.index, c2.index);
+					}
+					return ret;
+				}
+			});
+			for (Cursor cursor : cursors)
+			{
+				if(cursor.next())
+				{
+					heap.add(cursor);
+				}
+			}
+
+			long count = 0;
+			while (!heap.isEmpty())
+			{
+				if(canceler != null && (count % BATCH_SIZE) == 0 && canceler.isCanceled())
+				{
+					return null;
+				}
+				Cursor cursor = heap.poll();
+				writer.writeData(cursor.map(), cursor.value());
+				if(cursor.next())
+				{
+					heap.add(cursor);
+				}
+				count++;
+			}
+			if(canceler != null && canceler.isCanceled())
+			{
+				return null;
+			}
+			completed = true;
+		}
+		finally
+		{
+			writer.close();
+			for (Cursor cursor : cursors)
+			{
+				cursor.stop();
+			}
+			if(!completed)
+			{
+				new File(writer.getPath()).delete();
+			}
+		}
+		return writer.getPath();
+	}
+
+	private static DimTable readDimTable(String path) throws IOException
+	{
+		if(JEXBinaryTableReader.isBinaryTable(path))
+		{
+			return new JEXBinaryTableReader(path).dimTable;
+		}
+		return new JEXTableStreamReader(path).dimTable;
+	}
+
+	/**
+	 * Reads one input table on its own thread and hands its rows to the merge
+	 * in batches.
+	 */
+	static class Cursor implements Runnable, Canceler, JEXTableRowHandler<Object> {
+
+		// An empty batch marks the end of the table
+		private static final Batch END = new Batch(0);
+
+		public final String path;
+		public final DimensionMap key;
+		public final int index;
+		private final Canceler canceler;
+		private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(QUEUE_BATCHES);
+		private volatile boolean stopped = false;
+		private volatile Throwable error = null;
+		private Thread thread;
+
+		// producer side
+		private Batch filling = new Batch(BATCH_SIZE);
+
+		// consumer side
+		private Batch current = null;
+		private int position = 0;
+
+		public Cursor(String path, DimensionMap key, int index, Canceler canceler)
+		{
+			this.path = path;
+			this.key = key;
+			this.index = index;
+			this.canceler = canceler;
+		}
+
+		public void start()
+		{
+			this.thread = new Thread(this, "JEXTableMerger-" + this.index);
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+
+		public void stop()
+		{
+			this.stopped = true;
+			this.queue.clear();
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				if(JEXBinaryTableReader.isBinaryTable(this.path))
+				{
+					new JEXBinaryTableReader(this.path).read(null, this, this);
+				}
+				else
+				{
+					JEXTableStreamReader reader = new JEXTableStreamReader(this.path);
+					reader.setThreads(1); // keep the file order of the rows
+					reader.read(null, this, this);
+				}
+				if(this.filling.size > 0)
+				{
+					this.put(this.filling);
+				}
+			}
+			catch (Throwable t)
+			{
+				// e.g., a malformed value or a truncated file, handed to the merge by next()
+				this.error = t;
+			}
+			finally
+			{
+				this.put(END);
+			}
+		}
+
+		@Override
+		public boolean isCanceled()
+		{
+			return this.stopped || (this.canceler != null && this.canceler.isCanceled());
+		}
+
+		@Override
+		public void handleRow(DimensionMap map, Object value)
+		{
+			if(this.stopped)
+			{
+				return;
+			}
+			for (Entry<String,String> e : this.key.entrySet())
+			{
+				if(map.get(e.getKey()) == null)
+				{
+					map.put(e.getKey(), e.getValue());
+				}
+			}
+			this.filling.add(map, value);
+			if(this.filling.size == BATCH_SIZE)
+			{
+				this.put(this.filling);
+				this.filling = new Batch(BATCH_SIZE);
+			}
+		}
+
+		private void put(Batch batch)
+		{
+			try
+			{
+				while (!this.stopped && !this.queue.offer(batch, 100, TimeUnit.MILLISECONDS))
+				{}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				this.stopped = true;
+			}
+		}
+
+		/**
+		 * Advance to the next row.
+		 *
+		 * @return false at the end of the table or if canceled
+		 * @throws IOException if the table couldn't be read
+		 */
+		public boolean next() throws IOException
+		{
+			this.position++;
+			if(this.current != null && this.position < this.current.size)
+			{
+				return true;
+			}
+			Batch batch = null;
+			try
+			{
+				while (batch == null)
+				{
+					if(this.isCanceled())
+					{
+						return false;
+					}
+					batch = this.queue.poll(100, TimeUnit.MILLISECONDS);
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+			this.current = batch;
+			this.position = 0;
+			if(this.current == END)
+			{
+				if(this.error instanceof IOException)
+				{
+					throw (IOException) this.error;
+				}
+				if(this.error != null)
+				{
+					throw new IOException("Couldn't read the table " + this.path, this.error);
+				}
+				return false;
+			}
+			return true;
+		}
+
+		public DimensionMap map()
+		{
+			return this.current.maps[this.position];
+		}
+
+		public Object value()
+		{
+			return this.current.values[this.position];
+		}
+	}
+
+	static class Batch {
+
+		public final DimensionMap[] maps;
+		public final Object[] values;
+		public int size = 0;
+
+		public Batch(int capacity)
+		{
+			this.maps = new DimensionMap[capacity];
+			this.values = new Object[capacity];
+		}
+
+		public void add(DimensionMap map, Object value)
+		{
+			this.maps[this.size] = map;
+			this.values[this.size] = value;
+			this.size++;
+		}
+	}
+}
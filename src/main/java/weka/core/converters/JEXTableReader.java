@@ -28,6 +28,10 @@ public class JEXTableReader {
 	
 	public static Table<String> getStringTable(String filePath)
 	{
+		if(JEXBinaryTableReader.isBinaryTable(filePath))
+		{
+			return JEXBinaryTableReader.getStringTable(filePath, null);
+		}
 		JEXTableReader reader = new JEXTableReader(filePath);
 		reader.readHeader(); // leaves reader open
 		reader.multipleReadsFlag = false;
@@ -38,6 +42,10 @@ public class JEXTableReader {
 	
 	public static Table<String> getStringTable(String filePath, DimensionMap filter)
 	{
+		if(JEXBinaryTableReader.isBinaryTable(filePath))
+		{
+			return JEXBinaryTableReader.getStringTable(filePath, filter);
+		}
 		JEXTableReader reader = new JEXTableReader(filePath);
 		reader.readHeader(); // leaves reader open
 		reader.multipleReadsFlag = false;
@@ -48,6 +56,10 @@ public class JEXTableReader {
 	
 	public static Table<Double> getNumericTable(String filePath)
 	{
+		if(JEXBinaryTableReader.isBinaryTable(filePath))
+		{
+			return JEXBinaryTableReader.getNumericTable(filePath, null);
+		}
 		JEXTableReader reader = new JEXTableReader(filePath);
 		reader.readHeader(); // leaves reader open
 		reader.multipleReadsFlag = false;
@@ -58,6 +70,10 @@ public class JEXTableReader {
 	
 	public static Table<Double> getNumericTable(String filePath, DimensionMap filter)
 	{
+		if(JEXBinaryTableReader.isBinaryTable(filePath))
+		{
+			return JEXBinaryTableReader.getNumericTable(filePath, filter);
+		}
 		JEXTableReader reader = new JEXTableReader(filePath);
 		reader.readHeader(); // leaves reader open
 		reader.multipleReadsFlag = false;
@@ -68,6 +84,10 @@ public class JEXTableReader {
 	
 	public static DimTable getDimTable(String filePath)
 	{
+		if(JEXBinaryTableReader.isBinaryTable(filePath))
+		{
+			return JEXBinaryTableReader.getDimTable(filePath);
+		}
 		JEXTableReader reader = new JEXTableReader(filePath);
 		reader.readHeader(); // leaves reader open
 		reader.close(); // closes reader
@@ -90,8 +110,7 @@ public class JEXTableReader {
 	
 	public static Table<String> splitTable(String filePath, String splitDimName, String tableName, String fileExtension, Canceler canceler) throws Exception
 	{
-		JEXTableReader reader = new JEXTableReader(filePath);
-		return split(reader, splitDimName, tableName, fileExtension, canceler);
+		return split(filePath, splitDimName, tableName, fileExtension, canceler);
 	}
 	
 	public JEXTableReader(String filePath)
@@ -257,110 +276,24 @@ public class JEXTableReader {
 	
 	/**
 	 * Make a new table for each unique value of the split dim. Return the table of file paths that point to the new Tables.
+	 * The table is read once and split in parallel (see JEXTableSplitter).
 	 * 
-	 * @param <E>
-	 * @param reader
+	 * @param filePath
 	 * @param splitDimName
 	 * @param tableName
 	 * @param fileExtension
 	 * @return
 	 */
-	private static <E> Table<String> split(JEXTableReader reader, String splitDimName, String tableName, String fileExtension, Canceler canceler) throws Exception
+	private static Table<String> split(String filePath, String splitDimName, String tableName, String fileExtension, Canceler canceler) throws Exception
 	{
-		if(splitDimName == null || tableName == null || reader == null)
+		if(splitDimName == null || tableName == null || filePath == null)
 		{
 			return null;
 		}
 		
-		reader.readHeader();
-		int displayPercentage = -1, currentPercentage = 0;
 		try
 		{
-			// Set up the writers
-//			JEXStatics.statusBar.setStatusText("Creating ARFF Writers: 0%");
-			Dim splitDim = reader.dimTable.getDimWithName(splitDimName);
-			TreeMap<String,JEXTableWriter> writers = new TreeMap<String,JEXTableWriter>();
-			double count = 0;
-			if(splitDim == null)
-			{
-				System.err.println();
-				throw new Exception("JEXTableReader -----> Couldn't split the object on the dim named: " + splitDimName + ". Check spelling.");
-			}
-			double total = splitDim.size();
-			displayPercentage = 0;
-			for (String newDim : splitDim.dimValues)
-			{
-				DimTable subTable = reader.dimTable.getSubTable(new DimensionMap(splitDimName + "=" + newDim));
-				JEXTableWriter writer = new JEXTableWriter(tableName, fileExtension);
-				writer.writeHeader(subTable, reader.isNumeric());
-				writers.put(newDim, writer);
-				
-				count++;
-				currentPercentage = (int) (100.0 * count / total);
-				if(currentPercentage != displayPercentage)
-				{
-					displayPercentage = currentPercentage;
-//					JEXStatics.statusBar.setStatusText("Preparing ARFF Files: " + displayPercentage + "%");
-				}
-			}
-			
-			// Write each datapoint to a file
-//			JEXStatics.statusBar.setStatusText("Splitting ARFFs: 0%");
-			Instance instance;
-			Pair<DimensionMap,E> pair;
-			count = 0;
-			total = reader.dimTable.mapCount();
-			displayPercentage = 0;
-			while ((instance = reader.loader.m_ArffReader.readInstance(reader.structure)) != null)
-			{
-				if(canceler.isCanceled())
-				{
-					// Exit gracefully
-					for (String splitDimValue : splitDim.dimValues)
-					{
-						JEXTableWriter writer = writers.get(splitDimValue);
-						writer.close();
-					}
-					return null;
-				}
-				pair = reader.getPair(instance);
-				DimensionMap map = pair.p1;
-				JEXTableWriter theWriter = writers.get(map.get(splitDimName));
-				theWriter.writeData(map, pair.p2);
-				
-				count++;
-				currentPercentage = (int) (100.0 * count / total);
-				if(currentPercentage != displayPercentage)
-				{
-					displayPercentage = currentPercentage;
-//					JEXStatics.statusBar.setStatusText("Splitting ARFF: " + displayPercentage + "%");
-				}
-			}
-			
-			// Close the writers and return the filePaths
-			TreeMap<DimensionMap,String> filePaths = new TreeMap<DimensionMap,String>();
-//			JEXStatics.statusBar.setStatusText("Defragging ARFFs: 0%");
-			count = 0;
-			total = splitDim.size();
-			displayPercentage = 0;
-			for (String splitDimValue : splitDim.dimValues)
-			{
-				JEXTableWriter writer = writers.get(splitDimValue);
-				writer.close();
-				String path = JEXTableWriter.defrag(writer.getPath());
-				filePaths.put(new DimensionMap(splitDimName + "=" + splitDimValue), path);
-				
-				count++;
-				currentPercentage = (int) (100.0 * count / total);
-				if(currentPercentage != displayPercentage)
-				{
-					displayPercentage = currentPercentage;
-//					JEXStatics.statusBar.setStatusText("Defragging ARFFs: " + displayPercentage + "%");
-				}
-			}
-			DimTable outputDimTable = new DimTable();
-			outputDimTable.add(splitDim.copy());
-			return new Table<String>(outputDimTable, filePaths);
+			return new JEXTableSplitter().split(filePath, splitDimName, tableName, fileExtension, canceler);
 		}
 		catch (Exception e)
 		{
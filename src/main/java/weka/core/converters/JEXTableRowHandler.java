@@ -0,0 +1,17 @@
+package weka.core.converters;
+
+import tables.DimensionMap;
+
+/**
+ * Callback for rows streamed out of a table file (see JEXTableStreamReader).
+ * When a table is read with more than one thread, handleRow is called
+ * concurrently from the reading threads and must be thread-safe.
+ *
+ * @author Jay Warrick
+ *
+ */
+public interface JEXTableRowHandler<E> {
+
+	public void handleRow(DimensionMap map, E value);
+
+}
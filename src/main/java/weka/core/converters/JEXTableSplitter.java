@@ -0,0 +1,342 @@
+package weka.core.converters;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import helper.objects.Canceler;
+import tables.Dim;
+import tables.DimTable;
+import tables.DimensionMap;
+import tables.Table;
+
+/**
+ * Splits a table into one table per value of a dim in a single pass.
+ *
+ * Rows are parsed in parallel (see JEXTableStreamReader), formatted on the
+ * parsing threads and collected in a small in-memory buffer per output table.
+ * Full buffers are appended to their file through a pool with a bounded number
+ * of open files (least recently used files are closed first), so splitting on
+ * a dim with thousands of values doesn't run out of file handles and every
+ * byte of the output is written once.
+ *
+ * @author Jay Warrick
+ *
+ */
+public class JEXTableSplitter {
+
+	public static int DEFAULT_MAX_OPEN_FILES = 64;
+	// Total number of bytes buffered across all output tables before a buffer must be written
+	public static long DEFAULT_MEMORY_BUDGET = 128L * 1024 * 1024;
+	public static int MAX_BUFFER_SIZE = 1024 * 1024;
+	public static int MIN_BUFFER_SIZE = 8 * 1024;
+
+	private int nThreads = Runtime.getRuntime().availableProcessors();
+	private int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+	private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+	public void setThreads(int nThreads)
+	{
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	public void setMaxOpenFiles(int maxOpenFiles)
+	{
+		this.maxOpenFiles = Math.max(1, maxOpenFiles);
+	}
+
+	public void setMemoryBudget(long memoryBudget)
+	{
+		this.memoryBudget = Math.max(MIN_BUFFER_SIZE, memoryBudget);
+	}
+
+	/**
+	 * Make a new table for each unique value of the split dim. Return the
+	 * table of file paths that point to the new Tables. Rows with missing
+	 * values are dropped as they are when tables are read.
+	 *
+	 * @param filePath ARFF or binary table
+	 * @param splitDimName
+	 * @param tableName
+	 * @param fileExtension extension of the new tables (e.g., JEXTableWriter.ARFF_FILE)
+	 * @param canceler can be null
+	 * @return the table of file paths or null if canceled
+	 * @throws IOException
+	 */
+	public Table<String> split(String filePath, String splitDimName, String tableName, String fileExtension, Canceler canceler) throws IOException
+	{
+		// Parse the header
+		final DimTable dimTable;
+		final boolean numeric;
+		JEXBinaryTableReader binaryReader = null;
+		JEXTableStreamReader arffReader = null;
+		if(JEXBinaryTableReader.isBinaryTable(filePath))
+		{
+			binaryReader = new JEXBinaryTableReader(filePath);
+			dimTable = binaryReader.dimTable;
+			numeric = binaryReader.numeric;
+		}
+		else
+		{
+			arffReader = new JEXTableStreamReader(filePath);
+			arffReader.setThreads(this.nThreads);
+			dimTable = arffReader.dimTable;
+			numeric = arffReader.numeric;
+		}
+		final Dim splitDim = dimTable.getDimWithName(splitDimName);
+		if(splitDim == null)
+		{
+			throw new IOException("JEXTableSplitter -----> Couldn't split the object on the dim named: " + splitDimName + ". Check spelling.");
+		}
+
+		// Write the header of each new table. The data is appended as ARFF rows (binary tables are converted at the end).
+		boolean binary = JEXTableWriter.BINARY_FILE.equals(fileExtension);
+		String partExtension = binary ? JEXTableWriter.ARFF_FILE : fileExtension;
+		int bufferSize = (int) Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, this.memoryBudget / splitDim.size()));
+		final HashMap<String,Partition> partitions = new HashMap<String,Partition>();
+		for (String value : splitDim.dimValues)
+		{
+			DimTable subTable = dimTable.getSubTable(new DimensionMap(splitDimName + "=" + value));
+			JEXTableWriter writer = new JEXTableWriter(tableName, partExtension);
+			writer.writeHeader(subTable, numeric);
+			writer.close();
+			partitions.put(value, new Partition(writer.getPath(), subTable, bufferSize));
+		}
+
+		// Route the rows
+		final WriterPool pool = new WriterPool(this.maxOpenFiles);
+		final IOException[] error = new IOException[1];
+		JEXTableRowHandler<Object> handler = new JEXTableRowHandler<Object>(){
+			@Override
+			public void handleRow(DimensionMap map, Object value)
+			{
+				Partition partition = partitions.get(map.get(splitDim.dimName));
+				String row = JEXTableWriter.makeRow(partition.dimTable, map, value);
+				byte[] full = partition.append(row);
+				if(full != null)
+				{
+					try
+					{
+						pool.write(partition, full);
+					}
+					catch (IOException e)
+					{
+						error[0] = e;
+					}
+				}
+			}
+		};
+		boolean completed;
+		try
+		{
+			if(binaryReader != null)
+			{
+				completed = binaryReader.read(null, handler, canceler);
+			}
+			else
+			{
+				completed = arffReader.read(null, handler, canceler);
+			}
+			if(error[0] != null)
+			{
+				throw error[0];
+			}
+			if(completed)
+			{
+				for (Partition partition : partitions.values())
+				{
+					byte[] rest = partition.drain();
+					if(rest != null)
+					{
+						pool.write(partition, rest);
+					}
+				}
+			}
+		}
+		finally
+		{
+			pool.close();
+		}
+		if(!completed)
+		{
+			for (Partition partition : partitions.values())
+			{
+				new File(partition.path).delete();
+			}
+			return null;
+		}
+
+		if(binary)
+		{
+			this.convertToBinary(partitions);
+		}
+
+		TreeMap<DimensionMap,String> filePaths = new TreeMap<DimensionMap,String>();
+		for (Entry<String,Partition> e : partitions.entrySet())
+		{
+			filePaths.put(new DimensionMap(splitDimName + "=" + e.getKey()), e.getValue().path);
+		}
+		DimTable outputDimTable = new DimTable();
+		outputDimTable.add(splitDim.copy());
+		return new Table<String>(outputDimTable, filePaths);
+	}
+
+	/**
+	 * Convert the ARFF parts to binary tables in parallel and delete the ARFF parts.
+	 */
+	private void convertToBinary(HashMap<String,Partition> partitions) throws IOException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(this.nThreads, partitions.size())));
+		try
+		{
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			final List<Partition> parts = new ArrayList<Partition>(partitions.values());
+			for (final Partition partition : parts)
+			{
+				results.add(executor.submit(new Callable<String>(){
+					@Override
+					public String call() throws Exception
+					{
+						String path = JEXBinaryTableWriter.convertFromArff(partition.path);
+						new File(partition.path).delete();
+						return path;
+					}
+				}));
+			}
+			for (int i = 0; i < parts.size(); i++)
+			{
+				parts.get(i).path = results.get(i).get();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		catch (ExecutionException e)
+		{
+			if(e.getCause() instanceof IOException)
+			{
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * One output table and the rows waiting to be written to it.
+	 */
+	static class Partition {
+
+		public String path;
+		public final DimTable dimTable;
+		private final int bufferSize;
+		private StringBuilder buffer = new StringBuilder();
+
+		public Partition(String path, DimTable dimTable, int bufferSize)
+		{
+			this.path = path;
+			this.dimTable = dimTable;
+			this.bufferSize = bufferSize;
+		}
+
+		/**
+		 * @return the buffered rows if the buffer is full, otherwise null
+		 */
+		public synchronized byte[] append(String row)
+		{
+			this.buffer.append(row).append('\n');
+			if(this.buffer.length() < this.bufferSize)
+			{
+				return null;
+			}
+			return this.drain();
+		}
+
+		/**
+		 * @return the buffered rows (null if there are none) and empty the buffer
+		 */
+		public synchronized byte[] drain()
+		{
+			if(this.buffer.length() == 0)
+			{
+				return null;
+			}
+			byte[] ret = this.buffer.toString().getBytes();
+			this.buffer.setLength(0);
+			return ret;
+		}
+	}
+
+	/**
+	 * Appends to the output files, keeping at most maxOpenFiles of them open.
+	 */
+	static class WriterPool {
+
+		private final LinkedHashMap<Partition,OutputStream> open;
+		private final int maxOpenFiles;
+
+		public WriterPool(int maxOpenFiles)
+		{
+			this.maxOpenFiles = maxOpenFiles;
+			// access order so the first entry is the least recently used
+			this.open = new LinkedHashMap<Partition,OutputStream>(16, 0.75f, true);
+		}
+
+		public synchronized void write(Partition partition, byte[] bytes) throws IOException
+		{
+			OutputStream out = this.open.get(partition);
+			if(out == null)
+			{
+				if(this.open.size() >= this.maxOpenFiles)
+				{
+					Iterator<OutputStream> eldest = this.open.values().iterator();
+					eldest.next().close();
+					eldest.remove();
+				}
+				out = new BufferedOutputStream(new FileOutputStream(partition.path, true), 1 << 16);
+				this.open.put(partition, out);
+			}
+			out.write(bytes);
+		}
+
+		public synchronized void close() throws IOException
+		{
+			IOException error = null;
+			for (OutputStream out : this.open.values())
+			{
+				try
+				{
+					out.close();
+				}
+				catch (IOException e)
+				{
+					error = e;
+				}
+			}
+			this.open.clear();
+			if(error != null)
+			{
+				throw error;
+			}
+		}
+	}
+}
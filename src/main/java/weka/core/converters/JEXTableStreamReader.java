@@ -0,0 +1,598 @@
+package weka.core.converters;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import helper.objects.Canceler;
+import tables.Dim;
+import tables.DimTable;
+import tables.DimensionMap;
+import tables.Table;
+
+/**
+ * Reads the data section of an ARFF table (as written by JEXTableWriter)
+ * without going through Weka's ArffReader. The data section is split into
+ * chunks on line boundaries and each chunk is tokenized on its own thread.
+ *
+ * The DimensionMap filter is evaluated on the raw column tokens, so rows that
+ * don't pass the filter are never turned into DimensionMaps. Rows that pass
+ * are streamed to a JEXTableRowHandler, so the table never has to be held in
+ * memory unless the caller wants it to be (see readNumericTable and
+ * readStringTable).
+ *
+ * Filtering follows JEXTableReader (i.e., rows must satisfy
+ * dimTable.getSubTable(filter).testUnderdefinedMap(map)) and, like
+ * JEXTableReader, rows with missing values ('?' or NaN) are skipped.
+ *
+ * @author Jay Warrick
+ *
+ */
+public class JEXTableStreamReader {
+
+	public static int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	public String filePath;
+	public DimTable dimTable;
+	public boolean numeric;
+
+	private long dataStart;
+	private long fileLength;
+	private int nThreads = Runtime.getRuntime().availableProcessors();
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	public static Table<Double> getNumericTable(String filePath, DimensionMap filter)
+	{
+		try
+		{
+			JEXTableStreamReader reader = new JEXTableStreamReader(filePath);
+			return reader.readNumericTable(filter, null);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public static Table<String> getStringTable(String filePath, DimensionMap filter)
+	{
+		try
+		{
+			JEXTableStreamReader reader = new JEXTableStreamReader(filePath);
+			return reader.readStringTable(filter, null);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the header of the table (using the same ArffLoader as JEXTableReader)
+	 * and finds where the data section starts.
+	 *
+	 * @param filePath
+	 * @throws IOException
+	 */
+	public JEXTableStreamReader(String filePath) throws IOException
+	{
+		this.filePath = filePath;
+		File file = new File(filePath);
+		if(!file.exists())
+		{
+			throw new FileNotFoundException(filePath);
+		}
+		JEXTableReader header = new JEXTableReader(filePath);
+		header.readHeader();
+		header.close();
+		if(header.dimTable == null || header.structure == null)
+		{
+			throw new IOException("Couldn't read the ARFF header of " + filePath);
+		}
+		this.dimTable = header.dimTable;
+		this.numeric = header.isNumeric();
+		this.fileLength = file.length();
+		this.dataStart = this.findDataStart();
+	}
+
+	/**
+	 * Set the number of threads used to parse chunks. With one thread, rows
+	 * are handed to the handler in file order on the calling thread.
+	 *
+	 * @param nThreads
+	 */
+	public void setThreads(int nThreads)
+	{
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	/**
+	 * Set the approximate number of bytes parsed per task.
+	 *
+	 * @param chunkSize
+	 */
+	public void setChunkSize(int chunkSize)
+	{
+		this.chunkSize = Math.max(1024, chunkSize);
+	}
+
+	public Table<Double> readNumericTable(DimensionMap filter, Canceler canceler) throws IOException
+	{
+		return this.readTable(filter, canceler);
+	}
+
+	public Table<String> readStringTable(DimensionMap filter, Canceler canceler) throws IOException
+	{
+		return this.readTable(filter, canceler);
+	}
+
+	private <E> Table<E> readTable(DimensionMap filter, Canceler canceler) throws IOException
+	{
+		final TreeMap<DimensionMap,E> data = new TreeMap<DimensionMap,E>();
+		boolean completed = this.read(filter, new JEXTableRowHandler<E>(){
+			@Override
+			public void handleRow(DimensionMap map, E value)
+			{
+				synchronized (data)
+				{
+					data.put(map, value);
+				}
+			}
+		}, canceler);
+		if(!completed)
+		{
+			return null;
+		}
+		DimTable filteredDimTable = (filter == null) ? this.dimTable.copy() : this.dimTable.getSubTable(filter);
+		return new Table<E>(filteredDimTable, data);
+	}
+
+	/**
+	 * Stream every row that passes the filter to the handler. The value passed
+	 * to the handler is a Double for numeric tables and a String otherwise.
+	 *
+	 * @param filter DimensionMap (null for no filter)
+	 * @param handler called once per row, concurrently if more than one thread is used
+	 * @param canceler can be null
+	 * @return false if reading was canceled
+	 * @throws IOException
+	 */
+	public <E> boolean read(DimensionMap filter, final JEXTableRowHandler<E> handler, final Canceler canceler) throws IOException
+	{
+		final Dim[] columnFilters = this.getColumnFilters(filter);
+		final long[] bounds = this.getChunkBounds();
+		int nChunks = bounds.length - 1;
+
+		if(this.nThreads == 1 || nChunks <= 1)
+		{
+			try (RandomAccessFile raf = new RandomAccessFile(this.filePath, "r"))
+			{
+				FileChannel channel = raf.getChannel();
+				for (int i = 0; i < nChunks; i++)
+				{
+					if(!this.readChunk(channel, bounds[i], bounds[i + 1], columnFilters, handler, canceler))
+					{
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(this.nThreads, nChunks));
+		try
+		{
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int i = 0; i < nChunks; i++)
+			{
+				final long start = bounds[i];
+				final long end = bounds[i + 1];
+				results.add(pool.submit(new Callable<Boolean>(){
+					@Override
+					public Boolean call() throws Exception
+					{
+						try (RandomAccessFile raf = new RandomAccessFile(JEXTableStreamReader.this.filePath, "r"))
+						{
+							return JEXTableStreamReader.this.readChunk(raf.getChannel(), start, end, columnFilters, handler, canceler);
+						}
+					}
+				}));
+			}
+			boolean completed = true;
+			for (Future<Boolean> result : results)
+			{
+				completed = result.get() && completed;
+			}
+			return completed;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		catch (ExecutionException e)
+		{
+			if(e.getCause() instanceof IOException)
+			{
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * For each column, the Dim of the filtered DimTable whose values the column
+	 * must contain, or null if the column doesn't need to be checked.
+	 */
+	private Dim[] getColumnFilters(DimensionMap filter)
+	{
+		Dim[] ret = new Dim[this.dimTable.size()];
+		if(filter == null)
+		{
+			return ret;
+		}
+		DimTable filteredDimTable = this.dimTable.getSubTable(filter);
+		for (int i = 0; i < this.dimTable.size(); i++)
+		{
+			Dim d = filteredDimTable.get(i);
+			if(d.size() != this.dimTable.get(i).size())
+			{
+				ret[i] = d;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Split the data section into chunks of roughly chunkSize bytes that start at the beginning of a line.
+	 */
+	private long[] getChunkBounds() throws IOException
+	{
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(this.dataStart);
+		try (RandomAccessFile raf = new RandomAccessFile(this.filePath, "r"))
+		{
+			long next = this.dataStart + this.chunkSize;
+			while (next < this.fileLength)
+			{
+				raf.seek(next);
+				int b;
+				while ((b = raf.read()) != -1 && b != '\n')
+				{}
+				long lineStart = raf.getFilePointer();
+				if(lineStart >= this.fileLength)
+				{
+					break;
+				}
+				bounds.add(lineStart);
+				next = lineStart + this.chunkSize;
+			}
+		}
+		bounds.add(this.fileLength);
+		long[] ret = new long[bounds.size()];
+		for (int i = 0; i < ret.length; i++)
+		{
+			ret[i] = bounds.get(i);
+		}
+		return ret;
+	}
+
+	/**
+	 * Return the byte offset of the line following the '@data' line
+	 */
+	private long findDataStart() throws IOException
+	{
+		try (InputStream in = new BufferedInputStream(new FileInputStream(this.filePath)))
+		{
+			StringBuilder line = new StringBuilder();
+			long position = 0;
+			int b;
+			while ((b = in.read()) != -1)
+			{
+				position++;
+				if(b == '\n')
+				{
+					if(line.toString().trim().toLowerCase().startsWith("@data"))
+					{
+						return position;
+					}
+					line.setLength(0);
+				}
+				else if(line.length() < 16)
+				{
+					line.append((char) b);
+				}
+			}
+		}
+		throw new IOException("Couldn't find the @data section of " + this.filePath);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <E> boolean readChunk(FileChannel channel, long start, long end, Dim[] columnFilters, JEXTableRowHandler<E> handler, Canceler canceler) throws IOException
+	{
+		if(end <= start)
+		{
+			return true;
+		}
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		int nDims = this.dimTable.size();
+		LineTokenizer tokenizer = new LineTokenizer(nDims + 1);
+		byte[] line = new byte[256];
+		int count = 0;
+		while (buffer.hasRemaining())
+		{
+			// Copy the next line into the line buffer
+			int length = 0;
+			while (buffer.hasRemaining())
+			{
+				byte b = buffer.get();
+				if(b == '\n')
+				{
+					break;
+				}
+				if(length == line.length)
+				{
+					byte[] temp = new byte[line.length * 2];
+					System.arraycopy(line, 0, temp, 0, length);
+					line = temp;
+				}
+				line[length++] = b;
+			}
+			if(length > 0 && line[length - 1] == '\r')
+			{
+				length--;
+			}
+
+			if(!tokenizer.tokenize(line, length))
+			{
+				continue; // blank line or comment
+			}
+			if(tokenizer.count != nDims + 1)
+			{
+				throw new IOException("Expected " + (nDims + 1) + " values but found " + tokenizer.count + " in line: " + new String(line, 0, length, StandardCharsets.UTF_8));
+			}
+
+			count++;
+			if(canceler != null && count % 1000 == 0 && canceler.isCanceled())
+			{
+				return false;
+			}
+
+			// Evaluate the filter on the raw tokens first
+			boolean keep = true;
+			for (int i = 0; i < nDims && keep; i++)
+			{
+				if(columnFilters[i] != null)
+				{
+					keep = columnFilters[i].ordinal(tokenizer.getString(line, i)) >= 0;
+				}
+			}
+			if(!keep || tokenizer.isMissing(line, nDims))
+			{
+				continue;
+			}
+
+			E value;
+			if(this.numeric)
+			{
+				double temp = Double.parseDouble(tokenizer.getString(line, nDims));
+				if(Double.isNaN(temp))
+				{
+					continue;
+				}
+				value = (E) Double.valueOf(temp);
+			}
+			else
+			{
+				value = (E) tokenizer.getString(line, nDims);
+			}
+
+			// Only now build the DimensionMap, reusing the String instances of the Dims where possible
+			DimensionMap map = new DimensionMap();
+			for (int i = 0; i < nDims; i++)
+			{
+				Dim d = this.dimTable.get(i);
+				String s = tokenizer.getString(line, i);
+				int ordinal = d.ordinal(s);
+				map.put(d.dimName, ordinal >= 0 ? d.valueAt(ordinal) : s);
+			}
+			handler.handleRow(map, value);
+		}
+		return true;
+	}
+
+	/**
+	 * Splits a line of an ARFF data section into comma separated tokens, handling
+	 * single or double quoted values with backslash escapes (see weka.core.Utils.quote).
+	 */
+	static class LineTokenizer {
+
+		int count;
+		int[] starts;
+		int[] ends;
+		boolean[] quoted;
+
+		LineTokenizer(int expected)
+		{
+			this.starts = new int[expected];
+			this.ends = new int[expected];
+			this.quoted = new boolean[expected];
+		}
+
+		/**
+		 * @return false if the line is blank or a comment
+		 */
+		boolean tokenize(byte[] line, int length) throws IOException
+		{
+			this.count = 0;
+			int i = skipWhiteSpace(line, 0, length);
+			if(i >= length || line[i] == '%')
+			{
+				return false;
+			}
+			if(line[i] == '{')
+			{
+				throw new IOException("Sparse ARFF data is not supported.");
+			}
+			while (true)
+			{
+				i = skipWhiteSpace(line, i, length);
+				int start, end;
+				boolean isQuoted = false;
+				if(i < length && (line[i] == '\'' || line[i] == '"'))
+				{
+					byte quote = line[i];
+					isQuoted = true;
+					i++;
+					start = i;
+					while (i < length && line[i] != quote)
+					{
+						if(line[i] == '\\')
+						{
+							i++;
+						}
+						i++;
+					}
+					if(i >= length)
+					{
+						throw new IOException("Unterminated quote in line: " + new String(line, 0, length, StandardCharsets.UTF_8));
+					}
+					end = i;
+					i++;
+				}
+				else
+				{
+					start = i;
+					while (i < length && line[i] != ',')
+					{
+						i++;
+					}
+					end = i;
+					while (end > start && (line[end - 1] == ' ' || line[end - 1] == '\t'))
+					{
+						end--;
+					}
+				}
+				this.add(start, end, isQuoted);
+				i = skipWhiteSpace(line, i, length);
+				if(i < length && line[i] == ',')
+				{
+					i++;
+					continue;
+				}
+				return true;
+			}
+		}
+
+		boolean isMissing(byte[] line, int token)
+		{
+			return !this.quoted[token] && this.ends[token] - this.starts[token] == 1 && line[this.starts[token]] == '?';
+		}
+
+		String getString(byte[] line, int token)
+		{
+			String ret = new String(line, this.starts[token], this.ends[token] - this.starts[token], StandardCharsets.UTF_8);
+			if(this.quoted[token] && ret.indexOf('\\') >= 0)
+			{
+				return unescape(ret);
+			}
+			return ret;
+		}
+
+		private void add(int start, int end, boolean isQuoted)
+		{
+			if(this.count == this.starts.length)
+			{
+				int n = this.starts.length * 2;
+				int[] newStarts = new int[n];
+				int[] newEnds = new int[n];
+				boolean[] newQuoted = new boolean[n];
+				System.arraycopy(this.starts, 0, newStarts, 0, this.count);
+				System.arraycopy(this.ends, 0, newEnds, 0, this.count);
+				System.arraycopy(this.quoted, 0, newQuoted, 0, this.count);
+				this.starts = newStarts;
+				this.ends = newEnds;
+				this.quoted = newQuoted;
+			}
+			this.starts[this.count] = start;
+			this.ends[this.count] = end;
+			this.quoted[this.count] = isQuoted;
+			this.count++;
+		}
+
+		private static int skipWhiteSpace(byte[] line, int i, int length)
+		{
+			while (i < length && (line[i] == ' ' || line[i] == '\t'))
+			{
+				i++;
+			}
+			return i;
+		}
+
+		/**
+		 * Undo the backslash escapes added by weka.core.Utils.backQuoteChars
+		 */
+		static String unescape(String s)
+		{
+			StringBuilder ret = new StringBuilder(s.length());
+			for (int i = 0; i < s.length(); i++)
+			{
+				char c = s.charAt(i);
+				if(c != '\\' || i == s.length() - 1)
+				{
+					ret.append(c);
+					continue;
+				}
+				char next = s.charAt(++i);
+				switch (next)
+				{
+					case 'n':
+						ret.append('\n');
+						break;
+					case 'r':
+						ret.append('\r');
+						break;
+					case 't':
+						ret.append('\t');
+						break;
+					case 'u':
+						if(i + 4 < s.length())
+						{
+							ret.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+							i = i + 4;
+						}
+						else
+						{
+							ret.append(next);
+						}
+						break;
+					default:
+						ret.append(next);
+						break;
+				}
+			}
+			return ret.toString();
+		}
+	}
+}
@@ -31,9 +31,12 @@ public class JEXTableWriter {
 	public final static String VALUE = "Value";
 	public final static String METADATA = "Metadata";
 	public final static String ARFF_FILE = "arff", CSV_FILE = "csv", TXT_FILE = "txt";
+	// Binary, column-oriented table format (see JEXBinaryTableWriter)
+	public final static String BINARY_FILE = "jxb";
 	
 	public PrintWriter writer;
-	public String filePath, tableName;
+	public JEXBinaryTableWriter binaryWriter;
+	public String filePath, tableName, fileExtension;
 	public DimTable dimTable;
 	public Instances instances;
 	public String valueHeaderName = VALUE;
@@ -88,6 +91,7 @@ public class JEXTableWriter {
 	public JEXTableWriter(String tableName, String fileExtension)
 	{
 		this.tableName = tableName;
+		this.fileExtension = fileExtension;
 		try
 		{
 			this.filePath = DirectoryManager.getUniqueAbsoluteTempPath(fileExtension);
@@ -111,8 +115,9 @@ public class JEXTableWriter {
 			this.writeNumericTableHeader(table.dimTable);
 			this.writeData(table.data);
 		}
-		else if(table.data.firstEntry().getValue() instanceof String)
+		else if(table.data.firstEntry().getValue() instanceof String || (this.isBinary() && !(table.data.firstEntry().getValue() instanceof Number)))
 		{
+			// Binary numeric tables only hold Numbers, so other values are written (with toString) as a string table
 			this.writeStringTableHeader(table.dimTable);
 			this.writeData(table.data);
 		}
@@ -163,6 +168,23 @@ public class JEXTableWriter {
 			this.writer.flush();
 			this.writer.close();
 		}
+		if(this.binaryWriter != null)
+		{
+			try
+			{
+				this.binaryWriter.close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+			this.binaryWriter = null;
+		}
+	}
+	
+	public boolean isBinary()
+	{
+		return BINARY_FILE.equals(this.fileExtension);
 	}
 	
 	public String getPath()
@@ -182,6 +204,13 @@ public class JEXTableWriter {
 	
 	protected void writeJXDHeader(DimTable dimTable) throws Exception
 	{
+		if(this.isBinary())
+		{
+			// Binary tables don't have attribute names so JXD tables are just string tables
+			this.dimTable = dimTable;
+			this.binaryWriter = new JEXBinaryTableWriter(this.filePath, dimTable, false);
+			return;
+		}
 		try
 		{
 			this.dimTable = dimTable;
@@ -211,6 +240,19 @@ public class JEXTableWriter {
 	
 	protected void writeHeader(DimTable dimTable, boolean isNumeric)
 	{
+		if(this.isBinary())
+		{
+			this.dimTable = dimTable;
+			try
+			{
+				this.binaryWriter = new JEXBinaryTableWriter(this.filePath, dimTable, isNumeric);
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+			return;
+		}
 		try
 		{
 			this.dimTable = dimTable;
@@ -246,7 +288,19 @@ public class JEXTableWriter {
 	
 	public <E> void writeData(DimensionMap map, E value)
 	{
-		this.writer.println(this.makeRow(map, value));
+		if(this.binaryWriter != null)
+		{
+			try
+			{
+				this.binaryWriter.writeRow(map, value);
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+			return;
+		}
+		this.writer.println(makeRow(this.dimTable, map, value));
 		this.rowCounter++;
 		if(this.rowCounter > 100)
 		{
@@ -257,6 +311,17 @@ public class JEXTableWriter {
 	
 	protected <E> void writeData(TreeMap<DimensionMap,E> data)
 	{
+		Long mapCount = this.dimTable.mapCountLong();
+		if(this.binaryWriter != null && mapCount != null && 2 * data.size() >= mapCount)
+		{
+			// Write mostly complete tables in DimTable order so the binary table is dense (i.e., randomly accessible by coordinate)
+			for (DimensionMap map : this.dimTable.getMapIterator())
+			{
+				this.writeData(map, data.get(map));
+			}
+			return;
+		}
+
 		int count = 0, percentage = 0, total = data.size(), newPercentage = 0;
 		Logs.setStatusText("Writing ARFF: 0%");
 		for (Entry<DimensionMap,E> e : data.entrySet())
@@ -275,11 +340,14 @@ public class JEXTableWriter {
 		Logs.setStatusText("Writing ARFF Done.");
 	}
 	
-	private <E> String makeRow(DimensionMap map, E value)
+	/**
+	 * Format an ARFF data row. Dims missing from the map are filled in with the first value of the Dim.
+	 */
+	static <E> String makeRow(DimTable dimTable, DimensionMap map, E value)
 	{
 		StringBuffer text = new StringBuffer();
 		int i = 0;
-		for (Dim dim : this.dimTable)
+		for (Dim dim : dimTable)
 		{
 			if(i > 0)
 			{
@@ -0,0 +1,93 @@
+package weka.core.converters;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A column of doubles in a file, accessed through memory-mapped pages so the
+ * column can be larger than 2GB and only the touched pages are resident.
+ * Used for the value column of dense binary tables (see JEXBinaryTableWriter).
+ *
+ * @author Jay Warrick
+ *
+ */
+public class MappedDoubleColumn {
+
+	// Number of doubles per mapped page (128MB)
+	private static final int PAGE_SHIFT = 24;
+	private static final long PAGE_ELEMENTS = 1L << PAGE_SHIFT;
+	private static final long PAGE_MASK = PAGE_ELEMENTS - 1;
+
+	private final MappedByteBuffer[] pages;
+	private final long length;
+
+	/**
+	 * Map 'length' doubles starting at byte 'offset' of the file.
+	 *
+	 * @param filePath
+	 * @param offset byte offset of the first double
+	 * @param length number of doubles
+	 * @param writable map read-write instead of read-only
+	 * @throws IOException
+	 */
+	public MappedDoubleColumn(String filePath, long offset, long length, boolean writable) throws IOException
+	{
+		this.length = length;
+		int nPages = (int) ((length + PAGE_ELEMENTS - 1) >> PAGE_SHIFT);
+		this.pages = new MappedByteBuffer[nPages];
+		// The mappings stay valid after the file is closed
+		try (RandomAccessFile raf = new RandomAccessFile(filePath, writable ? "rw" : "r"))
+		{
+			FileChannel channel = raf.getChannel();
+			FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+			for (int p = 0; p < nPages; p++)
+			{
+				long first = ((long) p) << PAGE_SHIFT;
+				long n = Math.min(PAGE_ELEMENTS, length - first);
+				this.pages[p] = channel.map(mode, offset + first * 8, n * 8);
+			}
+		}
+	}
+
+	public long length()
+	{
+		return this.length;
+	}
+
+	public long getBits(long index)
+	{
+		return this.pages[(int) (index >> PAGE_SHIFT)].getLong((int) (index & PAGE_MASK) << 3);
+	}
+
+	public void setBits(long index, long bits)
+	{
+		this.pages[(int) (index >> PAGE_SHIFT)].putLong((int) (index & PAGE_MASK) << 3, bits);
+	}
+
+	/**
+	 * @param index
+	 * @return the value or null if it is missing (see JEXBinaryTableWriter.MISSING_BITS)
+	 */
+	public Double get(long index)
+	{
+		long bits = this.getBits(index);
+		if(bits == JEXBinaryTableWriter.MISSING_BITS)
+		{
+			return null;
+		}
+		return Double.longBitsToDouble(bits);
+	}
+
+	/**
+	 * Write any changes back to the file.
+	 */
+	public void force()
+	{
+		for (MappedByteBuffer page : this.pages)
+		{
+			page.force();
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package function.ops.featuresets.wrappers;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import IJ2.IJ2PluginUtility;
+import function.ops.featuresets.FeatureSet;
+import function.ops.featuresets.StatsFeatureSet;
+import function.ops.featuresets.ZernikeFeatureSet;
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.roi.labeling.ImgLabeling;
+import net.imglib2.roi.labeling.LabelRegion;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import tables.DimensionMap;
+import utilities.FeatureUtils;
+
+/**
+ * Simple timing harness for FeatureExtractor. Calculates the Stats and
+ * Zernike feature sets for a synthetic image of round cells with 1, 2, 4, ...
+ * up to all available threads and prints the regions per second, the speedup
+ * relative to 1 thread and a checksum of the results (which should agree
+ * for every thread count, up to rounding).
+ *
+ * Usage: FeatureExtractorBenchmark [number of cells per side (default 40)]
+ *
+ * @author Jay Warrick
+ *
+ */
+public class FeatureExtractorBenchmark {
+
+	public static void main(String[] args)
+	{
+		int cellsPerSide = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+		int spacing = 30, radius = 11, warmup = 2, reps = 3;
+
+		// A grid of disks with random intensities
+		long[] dims = new long[] { cellsPerSide * spacing, cellsPerSide * spacing };
+		Img<UnsignedByteType> mask = ArrayImgs.unsignedBytes(dims);
+		Img<UnsignedShortType> image = ArrayImgs.unsignedShorts(dims);
+		Random rand = new Random(1);
+		Cursor<UnsignedByteType> c = mask.localizingCursor();
+		Cursor<UnsignedShortType> ci = image.cursor();
+		while (c.hasNext())
+		{
+			c.fwd();
+			ci.fwd();
+			long dx = c.getLongPosition(0) % spacing - spacing / 2;
+			long dy = c.getLongPosition(1) % spacing - spacing / 2;
+			if(dx * dx + dy * dy <= radius * radius)
+			{
+				c.get().set(255);
+			}
+			ci.get().set(100 + rand.nextInt(1000));
+		}
+		ImgLabeling<Integer,IntType> labeling = new FeatureUtils().getLabeling(mask, true);
+
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		double baseline = 0;
+		for (int nThreads = 1; nThreads <= maxThreads; nThreads = nThreads < maxThreads ? Math.min(maxThreads, 2 * nThreads) : maxThreads + 1)
+		{
+			FeatureExtractor<UnsignedShortType> extractor = new FeatureExtractor<UnsignedShortType>(labeling, image);
+			extractor.setThreads(nThreads);
+			extractor.addFeatureSet(new FeatureExtractor.FeatureSetFactory<UnsignedShortType>(){
+				@Override
+				public boolean isRegionFeatureSet()
+				{
+					return false;
+				}
+
+				@SuppressWarnings("unchecked")
+				@Override
+				public FeatureSet<?,?> create(LabelRegion<Integer> region, IterableInterval<UnsignedShortType> values)
+				{
+					return IJ2PluginUtility.ij().op().op(StatsFeatureSet.class, values);
+				}
+			});
+			extractor.addFeatureSet(new FeatureExtractor.FeatureSetFactory<UnsignedShortType>(){
+				@Override
+				public boolean isRegionFeatureSet()
+				{
+					return false;
+				}
+
+				@SuppressWarnings("unchecked")
+				@Override
+				public FeatureSet<?,?> create(LabelRegion<Integer> region, IterableInterval<UnsignedShortType> values)
+				{
+					return IJ2PluginUtility.ij().op().op(ZernikeFeatureSet.class, values, 1, 8);
+				}
+			});
+
+			final AtomicLong count = new AtomicLong(0);
+			final double[] checksum = new double[1];
+			FeatureExtractor.FeatureSink sink = new FeatureExtractor.FeatureSink(){
+				@Override
+				public void put(DimensionMap map, double value)
+				{
+					count.incrementAndGet();
+					if(!Double.isNaN(value))
+					{
+						synchronized (checksum)
+						{
+							checksum[0] = checksum[0] + value;
+						}
+					}
+				}
+			};
+
+			long best = Long.MAX_VALUE;
+			for (int rep = 0; rep < warmup + reps; rep++)
+			{
+				count.set(0);
+				checksum[0] = 0;
+				long t0 = System.nanoTime();
+				extractor.run(new DimensionMap("Image=0"), sink);
+				long t1 = System.nanoTime();
+				if(rep >= warmup)
+				{
+					best = Math.min(best, t1 - t0);
+				}
+			}
+			double regionsPerSecond = cellsPerSide * cellsPerSide / (best / 1e9);
+			if(nThreads == 1)
+			{
+				baseline = regionsPerSecond;
+			}
+			System.out.println(nThreads + " threads: " + (int) regionsPerSecond + " regions/s, speedup " + String.format("%.2f", regionsPerSecond / baseline) + ", " + count.get() + " results (checksum " + checksum[0] + ")");
+		}
+		System.exit(0);
+	}
+}
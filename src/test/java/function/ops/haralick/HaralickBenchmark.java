@@ -0,0 +1,166 @@
+package function.ops.haralick;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import IJ2.IJ2PluginUtility;
+import net.imagej.ops.OpEnvironment;
+import net.imagej.ops.Ops;
+import net.imagej.ops.image.cooccurrenceMatrix.MatrixOrientation2D;
+import net.imagej.ops.special.function.Functions;
+import net.imagej.ops.special.function.UnaryFunctionOp;
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.roi.Regions;
+import net.imglib2.roi.labeling.ImgLabeling;
+import net.imglib2.roi.labeling.LabelRegion;
+import net.imglib2.roi.labeling.LabelRegions;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import utilities.FeatureUtils;
+
+/**
+ * Simple timing harness comparing the Haralick features of the imagej-ops
+ * ops (one op per feature and orientation, each calculating its own
+ * co-occurrence matrix) with HaralickEngine (one pass for all orientations)
+ * for 8, 16, 32 and 64 grey levels on a synthetic image of round cells. Prints
+ * the regions per second of each, the speedup and the largest relative
+ * difference between their features.
+ *
+ * Usage: HaralickBenchmark [number of cells per side (default 20)]
+ *
+ * @author Jay Warrick
+ *
+ */
+public class HaralickBenchmark {
+
+	@SuppressWarnings("rawtypes")
+	private static final Class[] FEATURES = new Class[] { Ops.Haralick.ASM.class, Ops.Haralick.ClusterPromenence.class,
+			Ops.Haralick.ClusterShade.class, Ops.Haralick.Contrast.class, Ops.Haralick.Correlation.class,
+			Ops.Haralick.DifferenceEntropy.class, Ops.Haralick.DifferenceVariance.class, Ops.Haralick.Entropy.class,
+			Ops.Haralick.ICM1.class, Ops.Haralick.ICM2.class, Ops.Haralick.IFDM.class,
+			Ops.Haralick.MaxProbability.class, Ops.Haralick.SumAverage.class, Ops.Haralick.SumEntropy.class,
+			Ops.Haralick.SumVariance.class, Ops.Haralick.TextureHomogeneity.class, Ops.Haralick.Variance.class };
+
+	private static final MatrixOrientation2D[] ORIENTATIONS = new MatrixOrientation2D[] { MatrixOrientation2D.HORIZONTAL,
+			MatrixOrientation2D.VERTICAL, MatrixOrientation2D.DIAGONAL, MatrixOrientation2D.ANTIDIAGONAL };
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static void main(String[] args)
+	{
+		int cellsPerSide = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int spacing = 40, radius = 16, distance = 1, reps = 3;
+
+		// A grid of disks with random textures
+		long[] dims = new long[] { cellsPerSide * spacing, cellsPerSide * spacing };
+		Img<UnsignedByteType> mask = ArrayImgs.unsignedBytes(dims);
+		Img<UnsignedShortType> image = ArrayImgs.unsignedShorts(dims);
+		Random rand = new Random(1);
+		Cursor<UnsignedByteType> c = mask.localizingCursor();
+		Cursor<UnsignedShortType> ci = image.cursor();
+		while (c.hasNext())
+		{
+			c.fwd();
+			ci.fwd();
+			long dx = c.getLongPosition(0) % spacing - spacing / 2;
+			long dy = c.getLongPosition(1) % spacing - spacing / 2;
+			if(dx * dx + dy * dy <= radius * radius)
+			{
+				c.get().set(255);
+			}
+			ci.get().set((int) (100 + 20 * c.getLongPosition(0) % 500 + rand.nextInt(1000)));
+		}
+		ImgLabeling<Integer,IntType> labeling = new FeatureUtils().getLabeling(mask, true);
+		LabelRegions<Integer> labelRegions = new LabelRegions<Integer>(labeling);
+		List<IterableInterval<UnsignedShortType>> regions = new ArrayList<IterableInterval<UnsignedShortType>>();
+		for (Integer label : labelRegions.getExistingLabels())
+		{
+			LabelRegion<Integer> region = labelRegions.getLabelRegion(label);
+			regions.add(Regions.sample(region, image));
+		}
+
+		OpEnvironment ops = IJ2PluginUtility.ij().op();
+		int[] dxs = new int[ORIENTATIONS.length];
+		int[] dys = new int[ORIENTATIONS.length];
+		for (int o = 0; o < ORIENTATIONS.length; o++)
+		{
+			dxs[o] = ORIENTATIONS[o].getValueAtDim(0) * distance;
+			dys[o] = ORIENTATIONS[o].getValueAtDim(1) * distance;
+		}
+
+		for (int numGreyLevels : new int[] { 8, 16, 32, 64 })
+		{
+			// One op per feature and orientation, as AbstractOpRefFeatureSet makes them
+			UnaryFunctionOp[][] funcs = new UnaryFunctionOp[ORIENTATIONS.length][FEATURES.length];
+			for (int o = 0; o < ORIENTATIONS.length; o++)
+			{
+				for (int f = 0; f < FEATURES.length; f++)
+				{
+					funcs[o][f] = Functions.unary(ops, FEATURES[f], RealType.class, regions.get(0), numGreyLevels, distance, ORIENTATIONS[o]);
+				}
+			}
+			HaralickEngine engine = new HaralickEngine(numGreyLevels, dxs, dys);
+
+			double[][][] opResults = new double[regions.size()][ORIENTATIONS.length][FEATURES.length];
+			double[][][] engineResults = new double[regions.size()][ORIENTATIONS.length][FEATURES.length];
+			long bestOps = Long.MAX_VALUE, bestEngine = Long.MAX_VALUE;
+			for (int rep = 0; rep < reps + 1; rep++)
+			{
+				long t0 = System.nanoTime();
+				for (int r = 0; r < regions.size(); r++)
+				{
+					for (int o = 0; o < ORIENTATIONS.length; o++)
+					{
+						for (int f = 0; f < FEATURES.length; f++)
+						{
+							opResults[r][o][f] = ((RealType<?>) funcs[o][f].calculate(regions.get(r))).getRealDouble();
+						}
+					}
+				}
+				long t1 = System.nanoTime();
+				for (int r = 0; r < regions.size(); r++)
+				{
+					engine.compute(regions.get(r));
+					for (int o = 0; o < ORIENTATIONS.length; o++)
+					{
+						System.arraycopy(engine.getFeatures(o), 0, engineResults[r][o], 0, FEATURES.length);
+					}
+				}
+				long t2 = System.nanoTime();
+				if(rep > 0) // the first is warmup
+				{
+					bestOps = Math.min(bestOps, t1 - t0);
+					bestEngine = Math.min(bestEngine, t2 - t1);
+				}
+			}
+
+			double maxDiff = 0;
+			for (int r = 0; r < regions.size(); r++)
+			{
+				for (int o = 0; o < ORIENTATIONS.length; o++)
+				{
+					for (int f = 0; f < FEATURES.length; f++)
+					{
+						double a = opResults[r][o][f];
+						double b = engineResults[r][o][f];
+						if(Double.isNaN(a) && Double.isNaN(b))
+						{
+							continue;
+						}
+						maxDiff = Math.max(maxDiff, Math.abs(a - b) / Math.max(1e-9, Math.abs(a)));
+					}
+				}
+			}
+
+			double opsRate = regions.size() / (bestOps / 1e9);
+			double engineRate = regions.size() / (bestEngine / 1e9);
+			System.out.println(numGreyLevels + " grey levels: ops " + (int) opsRate + " regions/s, engine " + (int) engineRate + " regions/s, speedup " + String.format("%.1f", engineRate / opsRate) + ", max relative difference " + maxDiff);
+		}
+		System.exit(0);
+	}
+}
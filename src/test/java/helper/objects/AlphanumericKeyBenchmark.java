@@ -0,0 +1,190 @@
+package helper.objects;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Simple timing harness comparing the previous allocating implementation of
+ * StringUtility.compareString, the current allocation-free version, and
+ * precomputed AlphanumericKeys on typical JEX dim names and values.
+ *
+ * @author Jay Warrick
+ *
+ */
+public class AlphanumericKeyBenchmark {
+
+	public static void main(String[] args)
+	{
+		List<String> samples = makeSamples(2000, new Random(1));
+		List<AlphanumericKey> keys = new ArrayList<AlphanumericKey>();
+		for (String s : samples)
+		{
+			keys.add(new AlphanumericKey(s));
+		}
+		int warmup = 5, reps = 20, comparisons = 2000000;
+		Random rand = new Random(2);
+		int[] pairs = new int[2 * comparisons];
+		for (int i = 0; i < pairs.length; i++)
+		{
+			pairs[i] = rand.nextInt(samples.size());
+		}
+
+		// Make sure all of them agree before timing anything
+		for (int i = 0; i < comparisons; i++)
+		{
+			String a = samples.get(pairs[2 * i]), b = samples.get(pairs[2 * i + 1]);
+			int legacy = Integer.signum(legacyCompareString(a, b));
+			int keyed = Integer.signum(keys.get(pairs[2 * i]).compareTo(keys.get(pairs[2 * i + 1])));
+			if(legacy != Integer.signum(StringUtility.compareString(a, b)) || legacy != keyed)
+			{
+				System.out.println("Mismatch: " + a + " vs " + b);
+				return;
+			}
+		}
+
+		for (int rep = 0; rep < warmup + reps; rep++)
+		{
+			boolean print = rep >= warmup;
+			long sum = 0;
+			long t0 = System.nanoTime();
+			for (int i = 0; i < comparisons; i++)
+			{
+				sum += legacyCompareString(samples.get(pairs[2 * i]), samples.get(pairs[2 * i + 1]));
+			}
+			long t1 = System.nanoTime();
+			for (int i = 0; i < comparisons; i++)
+			{
+				sum += StringUtility.compareString(samples.get(pairs[2 * i]), samples.get(pairs[2 * i + 1]));
+			}
+			long t2 = System.nanoTime();
+			for (int i = 0; i < comparisons; i++)
+			{
+				sum += keys.get(pairs[2 * i]).compareTo(keys.get(pairs[2 * i + 1]));
+			}
+			long t3 = System.nanoTime();
+			if(print)
+			{
+				System.out.println("legacy: " + (t1 - t0) / comparisons + " ns/op, allocation-free: " + (t2 - t1) / comparisons + " ns/op, precomputed keys: " + (t3 - t2) / comparisons + " ns/op (" + sum + ")");
+			}
+		}
+	}
+
+	/**
+	 * Dim values and csv dimension maps like those found in JEX feature tables
+	 */
+	private static List<String> makeSamples(int n, Random rand)
+	{
+		String[] measurements = new String[] { "MEAN", "STDDEV", "ZERNIKE_MAGNITUDE", "HARALICK_ANGULARSECONDMOMENT", "SUM", "MEDIAN" };
+		String[] channels = new String[] { "DAPI", "FITC", "TxRed", "Cy5", "BF" };
+		List<String> ret = new ArrayList<String>();
+		for (int i = 0; i < n; i++)
+		{
+			switch (rand.nextInt(5))
+			{
+				case 0:
+					ret.add("" + rand.nextInt(2000));
+					break;
+				case 1:
+					ret.add("Time=" + rand.nextInt(200));
+					break;
+				case 2:
+					ret.add("Id=" + rand.nextInt(5000) + ",Label=" + rand.nextInt(20) + ",Measurement=" + measurements[rand.nextInt(measurements.length)]);
+					break;
+				case 3:
+					ret.add(channels[rand.nextInt(channels.length)] + "_" + rand.nextInt(16));
+					break;
+				default:
+					ret.add("x" + rand.nextInt(30) + "_y" + rand.nextInt(30) + "_t" + String.format("%03d", rand.nextInt(200)) + ".tif");
+					break;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Previous implementation of StringUtility.compareString (allocates two
+	 * char arrays per run), kept here for comparison only.
+	 */
+	@SuppressWarnings("deprecation")
+	private static int legacyCompareString(String string1, String string2)
+	{
+		if(string2 == null || string1 == null)
+		{
+			return 0;
+		}
+
+		int lengthFirstStr = string1.length();
+		int lengthSecondStr = string2.length();
+
+		int index1 = 0;
+		int index2 = 0;
+
+		while (index1 < lengthFirstStr && index2 < lengthSecondStr)
+		{
+			char ch1 = string1.charAt(index1);
+			char ch2 = string2.charAt(index2);
+
+			int maxLength = Math.max(lengthFirstStr, lengthSecondStr);
+			char[] space1 = new char[maxLength];
+			char[] space2 = new char[maxLength];
+
+			int loc1 = 0;
+			int loc2 = 0;
+
+			do
+			{
+				space1[loc1++] = ch1;
+				index1++;
+
+				if(index1 < lengthFirstStr)
+				{
+					ch1 = string1.charAt(index1);
+				}
+				else
+				{
+					break;
+				}
+			}
+			while (Character.isDigit(ch1) == Character.isDigit(space1[0]));
+
+			do
+			{
+				space2[loc2++] = ch2;
+				index2++;
+
+				if(index2 < lengthSecondStr)
+				{
+					ch2 = string2.charAt(index2);
+				}
+				else
+				{
+					break;
+				}
+			}
+			while (Character.isDigit(ch2) == Character.isDigit(space2[0]));
+
+			String str1 = new String(space1);
+			String str2 = new String(space2);
+
+			int result;
+
+			if(Character.isDigit(space1[0]) && Character.isDigit(space2[0]))
+			{
+				Long firstNumberToCompare = Long.valueOf(Long.parseLong(str1.trim()));
+				Long secondNumberToCompare = Long.valueOf(Long.parseLong(str2.trim()));
+				result = firstNumberToCompare.compareTo(secondNumberToCompare);
+			}
+			else
+			{
+				result = str1.compareTo(str2);
+			}
+
+			if(result != 0)
+			{
+				return result;
+			}
+		}
+		return lengthFirstStr - lengthSecondStr;
+	}
+}